@@ -47,6 +47,13 @@ public class Brewday
 
 	public static final String BREWDAY_VERSION = "mclachlan.brewday.version";
 	public static final String BREWDAY_DB = "mclachlan.brewday.db";
+	public static final String BREWDAY_DB_JOURNAL_SIZE = "mclachlan.brewday.db.journal.size";
+	public static final String BREWDAY_DB_SNAPSHOT = "mclachlan.brewday.db.snapshot";
+	public static final String BREWDAY_DB_LAZY_CACHE_SIZE = "mclachlan.brewday.db.lazy.cache.size";
+	public static final String BREWDAY_DB_MAPPED_BATCHES = "mclachlan.brewday.db.batches.mapped";
+	public static final String BREWDAY_DB_SAVE_DELAY = "mclachlan.brewday.db.save.delay";
+	public static final String BREWDAY_DB_BACKUP_GENERATIONS = "mclachlan.brewday.db.backup.generations";
+	public static final String BREWDAY_DB_GIT_COMMIT_DELAY = "mclachlan.brewday.db.git.commit.delay";
 	public static final String LOG_IMPL = "mclachlan.brewday.log.impl";
 	public static final String LOG_LEVEL = "mclachlan.brewday.log.level";
 	public static final String LOG_BUFFER_SIZE = "mclachlan.brewday.log.buffer.size";
@@ -490,8 +497,21 @@ public class Brewday
 	{
 		recipe.run();
 
+		return createNewBatch(recipe, recipe.getVolumes(), date);
+	}
+
+	/**
+	 * @param volumes
+	 * 	The volumes estimated by a run of the recipe, e.g. by a
+	 * 	{@link mclachlan.brewday.recipe.RecipeEvaluator}. They are copied, not
+	 * 	changed.
+	 * @return
+	 * 	A new batch of the given recipe, uniquely named, on the given date.
+	 */
+	public Batch createNewBatch(Recipe recipe, Volumes volumes, LocalDate date)
+	{
 		// copy the estimated volumes
-		Volumes vols = new Volumes(recipe.getVolumes());
+		Volumes vols = new Volumes(volumes);
 
 		// null out the fields that need to be measured
 		for (Volume v : vols.getVolumes().values())
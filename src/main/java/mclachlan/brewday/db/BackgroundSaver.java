@@ -0,0 +1,340 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db;
+
+import java.util.concurrent.*;
+import mclachlan.brewday.Brewday;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.util.Log;
+
+/**
+ * Saves the database on a dedicated writer thread. Save requests that
+ * arrive within the delay of each other are coalesced into a single save.
+ * <p>
+ * The data objects are only ever marshalled on the data thread (e.g. the
+ * UI thread), via the given executor; the writer thread does the backups,
+ * file writes and git sync. Results are reported to the callback on the
+ * data thread.
+ * <p>
+ * {@link #shutdown()} must be called on exit to write any pending save.
+ */
+public class BackgroundSaver
+{
+	/** a save that is put off by new requests is still made after this many delays */
+	private static final int MAX_DELAYS = 10;
+
+	private final Database db;
+	private final Executor dataThread;
+	private final long delay;
+	private final Callback callback;
+	private final Thread writer;
+
+	// guarded by this
+	private Level pending, dispatched;
+	private CompletableFuture<Database.StagedSave> staging;
+	private long firstRequest, lastRequest;
+	private boolean writing, running = true;
+
+	/*-------------------------------------------------------------------------*/
+	public interface Callback
+	{
+		/**
+		 * Called on the data thread after a save has been written.
+		 */
+		void saved();
+
+		/**
+		 * Called on the data thread if a save failed. The silos will write
+		 * everything again on the next save.
+		 */
+		void failed(Exception e);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private enum Level
+	{
+		SETTINGS, ALL
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param dataThread
+	 * 	runs tasks on the thread that edits the data objects, e.g.
+	 * 	Platform::runLater
+	 * @param delay
+	 * 	milliseconds to wait for more requests before saving
+	 */
+	public BackgroundSaver(
+		Database db,
+		Executor dataThread,
+		long delay,
+		Callback callback)
+	{
+		this.db = db;
+		this.dataThread = dataThread;
+		this.delay = delay;
+		this.callback = callback;
+
+		writer = new Thread(this::run, "brewday-db-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public void requestSaveAll()
+	{
+		request(Level.ALL);
+	}
+
+	public void requestSaveSettings()
+	{
+		request(Level.SETTINGS);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private synchronized void request(Level level)
+	{
+		if (!running)
+		{
+			throw new BrewdayException("background saver is shut down");
+		}
+
+		long now = System.currentTimeMillis();
+		if (pending == null)
+		{
+			firstRequest = now;
+		}
+		lastRequest = now;
+		pending = max(pending, level);
+		notifyAll();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes any requested save now, and waits for any save in progress.
+	 * Must be called on the data thread.
+	 */
+	public void flush()
+	{
+		Level level;
+		synchronized (this)
+		{
+			// take over the pending request, and any that the writer has
+			// handed to the data thread but that has not been staged yet
+			level = max(pending, dispatched);
+			pending = null;
+			dispatched = null;
+			if (staging != null)
+			{
+				staging.complete(null);
+				staging = null;
+			}
+			notifyAll();
+		}
+
+		if (level != null)
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "db save: flush " + level);
+			try
+			{
+				db.writeSave(stage(level));
+			}
+			catch (RuntimeException e)
+			{
+				callback.failed(e);
+				return;
+			}
+			callback.saved();
+		}
+		else
+		{
+			synchronized (this)
+			{
+				while (writing)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Flushes, and stops the writer thread. Must be called on the data thread.
+	 */
+	public void shutdown()
+	{
+		flush();
+
+		synchronized (this)
+		{
+			running = false;
+			notifyAll();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void run()
+	{
+		while (true)
+		{
+			Level level;
+			synchronized (this)
+			{
+				try
+				{
+					long wait;
+					while (running && (wait = getWait()) != 0)
+					{
+						wait(wait < 0 ? 0 : wait);
+					}
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+
+				if (!running)
+				{
+					return;
+				}
+
+				level = pending;
+				pending = null;
+				dispatched = level;
+				staging = new CompletableFuture<>();
+				writing = true;
+			}
+
+			try
+			{
+				CompletableFuture<Database.StagedSave> staged = staging;
+				dataThread.execute(() -> stage(level, staged));
+
+				Database.StagedSave save = staged.get();
+				if (save != null)
+				{
+					db.writeSave(save);
+					dataThread.execute(callback::saved);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (ExecutionException e)
+			{
+				report(e.getCause());
+			}
+			catch (RuntimeException e)
+			{
+				report(e);
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					writing = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	milliseconds until the pending save is due, 0 if it is due now, or
+	 * 	-1 if there is none
+	 */
+	private long getWait()
+	{
+		if (pending == null)
+		{
+			return -1;
+		}
+
+		long now = System.currentTimeMillis();
+		long due = Math.min(lastRequest + delay, firstRequest + delay * MAX_DELAYS);
+		return Math.max(0, due - now);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs on the data thread.
+	 */
+	private void stage(Level level, CompletableFuture<Database.StagedSave> result)
+	{
+		synchronized (this)
+		{
+			if (result.isDone())
+			{
+				// flushed in the meantime
+				return;
+			}
+			dispatched = null;
+			staging = null;
+		}
+
+		try
+		{
+			result.complete(stage(level));
+		}
+		catch (RuntimeException e)
+		{
+			result.completeExceptionally(e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private Database.StagedSave stage(Level level)
+	{
+		return level == Level.ALL ? db.stageAll() : db.stageSettings();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void report(Throwable t)
+	{
+		Brewday.getInstance().getLog().log(Log.LOUD, t);
+
+		Exception e = t instanceof Exception ? (Exception)t : new BrewdayException(t);
+		dataThread.execute(() -> callback.failed(e));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static Level max(Level a, Level b)
+	{
+		if (a == null)
+		{
+			return b;
+		}
+		if (b == null)
+		{
+			return a;
+		}
+		return a.ordinal() >= b.ordinal() ? a : b;
+	}
+}
@@ -0,0 +1,374 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+
+/**
+ * Keeps the last few generations of the db files. Each file is stored once
+ * per distinct content, named by its hash, and each generation is a manifest
+ * of file name to hash. Backing up files that have not changed since the
+ * last generation copies nothing.
+ * <p>
+ * Layout under the backup dir:
+ * <pre>
+ *    objects/&lt;sha-1&gt;
+ *    generations/&lt;number&gt;.manifest   (one "hash name" line per file)
+ * </pre>
+ */
+public class BackupStore
+{
+	public static final String OBJECTS_DIR = "objects";
+	public static final String GENERATIONS_DIR = "generations";
+	private static final String MANIFEST_SUFFIX = ".manifest";
+
+	private final File dbDir;
+	private final File objectsDir;
+	private final File generationsDir;
+	private final FilenameFilter filter;
+	private final int maxGenerations;
+
+	/** file name -> hash of the contents it had when last hashed */
+	private final Map<String, Stamp> hashes = new HashMap<>();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param filter
+	 * 	selects the files in the db dir to back up
+	 * @param maxGenerations
+	 * 	how many generations to keep, at least one
+	 */
+	public BackupStore(
+		File dbDir,
+		File backupDir,
+		FilenameFilter filter,
+		int maxGenerations)
+	{
+		this.dbDir = dbDir;
+		this.objectsDir = new File(backupDir, OBJECTS_DIR);
+		this.generationsDir = new File(backupDir, GENERATIONS_DIR);
+		this.filter = filter;
+		this.maxGenerations = Math.max(1, maxGenerations);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Records the current contents of the db files as a new generation, and
+	 * drops the generations and objects that are no longer kept. If nothing
+	 * has changed since the latest generation, no new one is recorded.
+	 *
+	 * @return
+	 * 	the number of the generation holding the current contents
+	 */
+	public synchronized int backup() throws IOException
+	{
+		mkdirs(objectsDir);
+		mkdirs(generationsDir);
+
+		SortedMap<String, String> manifest = new TreeMap<>();
+		File[] files = dbDir.listFiles(filter);
+		if (files != null)
+		{
+			for (File f : files)
+			{
+				String hash = hash(f);
+				File object = new File(objectsDir, hash);
+				if (!object.exists())
+				{
+					File temp = new File(objectsDir, hash + ".tmp");
+					Files.copy(f.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(temp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				manifest.put(f.getName(), hash);
+			}
+		}
+
+		List<Integer> generations = getGenerations();
+		if (!generations.isEmpty())
+		{
+			int latest = generations.get(generations.size() - 1);
+			if (manifest.equals(getManifest(latest)))
+			{
+				return latest;
+			}
+		}
+
+		int generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+		writeManifest(generation, manifest);
+		generations.add(generation);
+
+		prune(generations);
+
+		return generation;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Puts files back in the db dir as they were in a generation. Files that
+	 * did not exist in the generation are deleted.
+	 *
+	 * @param fileNames
+	 * 	the files to restore, or null to restore all of them
+	 */
+	public synchronized void restore(int generation,
+		Collection<String> fileNames) throws IOException
+	{
+		Map<String, String> manifest = getManifest(generation);
+
+		Set<String> names = new TreeSet<>();
+		if (fileNames == null)
+		{
+			names.addAll(manifest.keySet());
+			String[] current = dbDir.list(filter);
+			if (current != null)
+			{
+				names.addAll(Arrays.asList(current));
+			}
+		}
+		else
+		{
+			names.addAll(fileNames);
+		}
+
+		for (String name : names)
+		{
+			File target = new File(dbDir, name);
+			String hash = manifest.get(name);
+
+			if (hash == null)
+			{
+				Files.deleteIfExists(target.toPath());
+			}
+			else
+			{
+				File object = new File(objectsDir, hash);
+				if (!object.exists())
+				{
+					throw new IOException("missing backup object " + object);
+				}
+
+				Files.copy(object.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+			hashes.remove(name);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Forgets the cached hashes of the given files, which are about to change
+	 * or have just changed.
+	 */
+	public synchronized void changed(Collection<String> fileNames)
+	{
+		hashes.keySet().removeAll(fileNames);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the numbers of the kept generations, oldest first
+	 */
+	public synchronized List<Integer> getGenerations()
+	{
+		List<Integer> result = new ArrayList<>();
+
+		String[] names = generationsDir.list((dir, name) -> name.endsWith(MANIFEST_SUFFIX));
+		if (names != null)
+		{
+			for (String name : names)
+			{
+				try
+				{
+					result.add(Integer.parseInt(
+						name.substring(0, name.length() - MANIFEST_SUFFIX.length())));
+				}
+				catch (NumberFormatException e)
+				{
+					// not one of ours
+				}
+			}
+		}
+
+		Collections.sort(result);
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	file name to content hash for the given generation
+	 */
+	public synchronized SortedMap<String, String> getManifest(int generation) throws IOException
+	{
+		File file = getManifestFile(generation);
+		if (!file.exists())
+		{
+			throw new BrewdayException("no backup generation " + generation);
+		}
+
+		SortedMap<String, String> result = new TreeMap<>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+		{
+			int space = line.indexOf(' ');
+			if (space > 0)
+			{
+				result.put(line.substring(space + 1), line.substring(0, space));
+			}
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void writeManifest(int generation, SortedMap<String, String> manifest) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> e : manifest.entrySet())
+		{
+			sb.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+		}
+
+		File file = getManifestFile(generation);
+		File temp = new File(generationsDir, file.getName() + ".tmp");
+		Files.write(temp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Deletes the oldest generations beyond the maximum, and any objects
+	 * that no kept generation refers to.
+	 */
+	private void prune(List<Integer> generations) throws IOException
+	{
+		if (generations.size() <= maxGenerations)
+		{
+			return;
+		}
+
+		List<Integer> dropped = generations.subList(0, generations.size() - maxGenerations);
+		for (int generation : dropped)
+		{
+			Files.deleteIfExists(getManifestFile(generation).toPath());
+		}
+		dropped.clear();
+
+		Set<String> live = new HashSet<>();
+		for (int generation : generations)
+		{
+			live.addAll(getManifest(generation).values());
+		}
+
+		File[] objects = objectsDir.listFiles();
+		if (objects != null)
+		{
+			for (File object : objects)
+			{
+				if (!live.contains(object.getName()))
+				{
+					Files.deleteIfExists(object.toPath());
+				}
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private File getManifestFile(int generation)
+	{
+		return new File(generationsDir, String.format("%06d", generation) + MANIFEST_SUFFIX);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the hash of the given file's contents, rehashing only if its length
+	 * 	or modification time has changed since it was last hashed
+	 */
+	private String hash(File file) throws IOException
+	{
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		Stamp stamp = hashes.get(file.getName());
+		if (stamp != null && stamp.length == length && stamp.lastModified == lastModified)
+		{
+			return stamp.hash;
+		}
+
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new BrewdayException(e);
+		}
+
+		try (InputStream in = new FileInputStream(file))
+		{
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, read);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest())
+		{
+			sb.append(String.format("%02x", b));
+		}
+
+		String hash = sb.toString();
+		hashes.put(file.getName(), new Stamp(length, lastModified, hash));
+		return hash;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void mkdirs(File dir) throws IOException
+	{
+		if (!dir.exists() && !dir.mkdirs())
+		{
+			throw new IOException("can't create dir " + dir.getName());
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static class Stamp
+	{
+		private final long length;
+		private final long lastModified;
+		private final String hash;
+
+		public Stamp(long length, long lastModified, String hash)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
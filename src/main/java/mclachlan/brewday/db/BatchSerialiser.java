@@ -21,6 +21,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.batch.Batch;
 import mclachlan.brewday.db.v2.V2SerialiserMap;
@@ -68,9 +69,11 @@ public class BatchSerialiser implements V2SerialiserMap<Batch>
 
 		Volumes actualVolumes = new Volumes();
 
-		actualVolumes.setVolumes(V2Utils.deserialiseMap(
+		// batch volumes are run through the recipe, whose steps can add to
+		// them from several threads
+		actualVolumes.setVolumes(new ConcurrentHashMap<>(V2Utils.deserialiseMap(
 			measurements,
-			volumeSerialiser, db));
+			volumeSerialiser, db)));
 
 		try
 		{
@@ -87,4 +90,63 @@ public class BatchSerialiser implements V2SerialiserMap<Batch>
 			throw new BrewdayException(e);
 		}
 	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the recipe of a serialised batch, lower cased, eg for indexing
+	 */
+	public static Collection<String> getRecipeKey(Map map)
+	{
+		String recipe = (String)map.get("recipe");
+		return recipe == null ?
+			Collections.emptyList() :
+			Collections.singletonList(recipe.toLowerCase(Locale.ROOT));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the date of a serialised batch, eg for indexing
+	 */
+	public static Collection<LocalDate> getDate(Map map)
+	{
+		try
+		{
+			return Collections.singletonList(LocalDate.parse((String)map.get("date"), DATE_FORMAT));
+		}
+		catch (DateTimeParseException e)
+		{
+			throw new BrewdayException(e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the keys of the ingredients added anywhere in a serialised batch, as
+	 * 	per {@link IngredientAdditionSerialiser#getIngredientKey(Map)}
+	 */
+	public static Collection<String> getIngredientKeys(Map map)
+	{
+		Set<String> result = new HashSet<>();
+
+		Map<String, Map> measurements = (Map<String, Map>)map.get("measurements");
+		if (measurements != null)
+		{
+			for (Map volume : measurements.values())
+			{
+				List<Map> additions = (List<Map>)volume.get("ingredientAdditions");
+				if (additions != null)
+				{
+					for (Map addition : additions)
+					{
+						result.add(IngredientAdditionSerialiser.getIngredientKey(addition));
+					}
+				}
+			}
+		}
+
+		return result;
+	}
 }
@@ -18,26 +18,43 @@
 package mclachlan.brewday.db;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import mclachlan.brewday.Brewday;
 import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.Settings;
 import mclachlan.brewday.batch.Batch;
 import mclachlan.brewday.db.backends.git.GitBackend;
+import mclachlan.brewday.db.backends.git.GitMerge;
+import mclachlan.brewday.db.v2.JournalMapSilo;
+import mclachlan.brewday.db.v2.MappedMapSilo;
 import mclachlan.brewday.db.v2.MapSingletonSilo;
 import mclachlan.brewday.db.v2.PropertiesSilo;
 import mclachlan.brewday.db.v2.ReflectiveSerialiser;
 import mclachlan.brewday.db.v2.SimpleMapSilo;
+import mclachlan.brewday.db.v2.V2DataObject;
+import mclachlan.brewday.db.v2.V2Index;
+import mclachlan.brewday.db.v2.V2Schema;
+import mclachlan.brewday.db.v2.V2SiloSingleton;
+import mclachlan.brewday.db.v2.V2Snapshot;
 import mclachlan.brewday.equipment.EquipmentProfile;
 import mclachlan.brewday.ingredients.*;
 import mclachlan.brewday.inventory.InventoryLineItem;
 import mclachlan.brewday.math.*;
+import mclachlan.brewday.recipe.IngredientAddition;
 import mclachlan.brewday.recipe.Recipe;
 import mclachlan.brewday.style.Style;
 import mclachlan.brewday.util.Log;
+import mclachlan.brewday.util.StringUtils;
 
 /**
  *
@@ -57,11 +74,41 @@ public class Database
 	public static final String RECIPES_JSON = "recipes.json";
 	public static final String BATCHES_JSON = "batches.json";
 	public static final String SETTINGS_JSON = "settings.json";
+	public static final String RECIPES_JOURNAL = "recipes.journal";
+	public static final String BATCHES_JOURNAL = "batches.journal";
+	public static final String BATCHES_DAT = "batches.dat";
+	public static final String SNAPSHOT_DIR = "snapshot";
+	public static final String BACKUP_DIR = "backup";
+	public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	/** upper bound on the threads used by {@link #loadAll()} */
+	private static final int MAX_LOAD_THREADS = 8;
+
+	/** batches kept deserialised by the mapped batch store, if not configured */
+	private static final int DEFAULT_MAPPED_CACHE_SIZE = 100;
+
+	/** how long {@link #flushGitBackend()} waits for git, eg on exit */
+	private static final long GIT_FLUSH_TIMEOUT_SECONDS = 60;
+
+	/** where versions come from, shared so that no two dbs have the same one */
+	private static final AtomicLong versions = new AtomicLong();
 
 	private static Database instance = new Database();
 
+	/** stands in for the instance on threads running against a snapshot */
+	private static final ThreadLocal<Database> threadInstance = new ThreadLocal<>();
+
 	private final String dbDir;
 
+	/** see {@link #getVersion} */
+	private volatile long version = versions.incrementAndGet();
+
+	/** where reference data snapshots are kept, null if they are disabled */
+	private final File snapshotDir;
+
+	/** backup generations of the json and journal files */
+	private final BackupStore backupStore;
+
 	// non-beery data
 	private Settings settings;
 	private MapSingletonSilo settingsSilo;
@@ -76,11 +123,26 @@ public class Database
 	private Map<String, Recipe> recipes;
 	private Map<String, Batch> batches;
 
-	private final SimpleMapSilo<Recipe> recipeSilo;
+	private final JournalMapSilo<Recipe> recipeSilo;
 	private final SimpleMapSilo<Recipe> processTemplateSilo;
 	private final SimpleMapSilo<EquipmentProfile> equipmentSilo;
 	private final SimpleMapSilo<InventoryLineItem> inventorySilo;
-	private final SimpleMapSilo<Batch> batchSilo;
+	private final JournalMapSilo<Batch> batchSilo;
+
+	/** stores the batches instead of batches.json, null if not in use */
+	private final MappedMapSilo<Batch> mappedBatchSilo;
+
+	// indexes
+	private final V2Index<String, Recipe> recipesByTag;
+	private final V2Index<String, Recipe> recipesByIngredient;
+	private final V2Index<String, Batch> batchesByRecipe;
+	private final V2Index<LocalDate, Batch> batchesByDate;
+	private final V2Index<String, Batch> batchesByIngredient;
+	private final V2Index<String, Recipe> recipesByEquipmentProfile;
+	private final V2Index<String, Recipe> processTemplatesByEquipmentProfile;
+
+	// silo name -> the indexes over it, kept up to date with its changes
+	private final Map<String, List<V2Index<?, ?>>> indexes = new HashMap<>();
 
 	// reference data
 	private Map<String, Hop> hops;
@@ -103,6 +165,23 @@ public class Database
 	private GitBackend gitBackend;
 	private ReflectiveSerialiser<Water> waterSerialiser;
 
+	// held from staging a save until it has been written
+	private final Semaphore saveLock = new Semaphore(1);
+	private BackgroundSaver backgroundSaver;
+
+	// the maps handed out, by silo file name, and who to tell of changes to them
+	private final Map<String, DatabaseMap<?>> views = new HashMap<>();
+	private final List<DatabaseListener> listeners = new CopyOnWriteArrayList<>();
+
+	// the last snapshot taken, that the next one shares unchanged objects with
+	private DatabaseSnapshot lastSnapshot;
+	// silo name to the names of the objects changed since the last snapshot
+	private final Map<String, Set<String>> changedSinceSnapshot = new HashMap<>();
+	// the silos changed as a whole since the last snapshot, e.g. reloaded
+	private final Set<String> reloadedSinceSnapshot = new HashSet<>();
+	// the silos with changes published since they were last staged for a save
+	private final Set<String> changedSinceSave = new HashSet<>();
+
 	/*-------------------------------------------------------------------------*/
 	public Database()
 	{
@@ -110,15 +189,84 @@ public class Database
 	}
 
 	public Database(String dbDir)
+	{
+		this(dbDir,
+			Integer.parseInt(Brewday.getInstance().getAppConfig()
+				.getProperty(Brewday.BREWDAY_DB_JOURNAL_SIZE, "0")),
+			Boolean.parseBoolean(Brewday.getInstance().getAppConfig()
+				.getProperty(Brewday.BREWDAY_DB_SNAPSHOT, "false")),
+			Integer.parseInt(Brewday.getInstance().getAppConfig()
+				.getProperty(Brewday.BREWDAY_DB_LAZY_CACHE_SIZE, "0")),
+			Boolean.parseBoolean(Brewday.getInstance().getAppConfig()
+				.getProperty(Brewday.BREWDAY_DB_MAPPED_BATCHES, "false")),
+			Integer.parseInt(Brewday.getInstance().getAppConfig()
+				.getProperty(Brewday.BREWDAY_DB_BACKUP_GENERATIONS, "10")));
+	}
+
+	public Database(String dbDir, int maxJournalRecords)
+	{
+		this(dbDir, maxJournalRecords, false, 0, false, 10);
+	}
+
+	/**
+	 * @param maxJournalRecords
+	 * 	how many changes the recipe and batch journals hold before they are
+	 * 	compacted into their snapshot files. Zero rewrites the snapshots on
+	 * 	every save.
+	 * @param snapshots
+	 * 	true to load the reference data from binary snapshots while its JSON
+	 * 	files are unchanged
+	 * @param lazyCacheSize
+	 * 	if positive, recipes and batches are deserialised on first use and at
+	 * 	most this many of each are kept deserialised. Zero loads them all.
+	 * @param mappedBatches
+	 * 	true to store batches one record each in a data file
+	 * 	instead of batches.json, which is imported the first time
+	 * @param backupGenerations
+	 * 	how many generations of backups to keep
+	 */
+	public Database(
+		String dbDir,
+		int maxJournalRecords,
+		boolean snapshots,
+		int lazyCacheSize,
+		boolean mappedBatches,
+		int backupGenerations)
 	{
 		this.dbDir = dbDir;
+		this.snapshotDir = snapshots ? new File(dbDir, SNAPSHOT_DIR) : null;
+		this.backupStore = new BackupStore(new File(dbDir), new File(dbDir, BACKUP_DIR),
+			(dir, name) -> name.endsWith(".json") || name.endsWith(".journal"),
+			backupGenerations);
 
 		settingsSilo = new MapSingletonSilo();
 		stringsSilo = new PropertiesSilo();
 
-		recipeSilo = new SimpleMapSilo<>(new RecipeSerialiser());
+		recipeSilo = new JournalMapSilo<>(new RecipeSerialiser(),
+			new File(dbDir, RECIPES_JOURNAL), maxJournalRecords);
 		processTemplateSilo = new SimpleMapSilo<>(new RecipeSerialiser());
-		batchSilo = new SimpleMapSilo<>(new BatchSerialiser());
+		batchSilo = new JournalMapSilo<>(new BatchSerialiser(),
+			new File(dbDir, BATCHES_JOURNAL), maxJournalRecords);
+		recipeSilo.setMaxCached(lazyCacheSize);
+		batchSilo.setMaxCached(lazyCacheSize);
+		mappedBatchSilo = mappedBatches ?
+			new MappedMapSilo<>(new BatchSerialiser(), new File(dbDir, BATCHES_DAT),
+				lazyCacheSize > 0 ? lazyCacheSize : DEFAULT_MAPPED_CACHE_SIZE) : null;
+
+		recipesByTag = addIndex(RECIPES_JSON,
+			new V2Index<>(new RecipeSerialiser(), RecipeSerialiser::getTags));
+		recipesByIngredient = addIndex(RECIPES_JSON,
+			new V2Index<>(new RecipeSerialiser(), RecipeSerialiser::getIngredientKeys));
+		recipesByEquipmentProfile = addIndex(RECIPES_JSON,
+			new V2Index<>(new RecipeSerialiser(), RecipeSerialiser::getEquipmentProfileKey));
+		processTemplatesByEquipmentProfile = addIndex(PROCESSTEMPLATES_JSON,
+			new V2Index<>(new RecipeSerialiser(), RecipeSerialiser::getEquipmentProfileKey));
+		batchesByRecipe = addIndex(BATCHES_JSON,
+			new V2Index<>(new BatchSerialiser(), BatchSerialiser::getRecipeKey));
+		batchesByDate = addIndex(BATCHES_JSON,
+			new V2Index<>(new BatchSerialiser(), BatchSerialiser::getDate));
+		batchesByIngredient = addIndex(BATCHES_JSON,
+			new V2Index<>(new BatchSerialiser(), BatchSerialiser::getIngredientKeys));
 
 		InventoryLineItemSerialiser inventoryLineItemSerialiser =
 			new InventoryLineItemSerialiser();
@@ -296,83 +444,262 @@ public class Database
 		stylesSerialiser.addCustomSerialiser(BitternessUnit.class, new QuantityValueSerialiser<>(BitternessUnit.class));
 		stylesSerialiser.addCustomSerialiser(CarbonationUnit.class, new QuantityValueSerialiser<>(CarbonationUnit.class));
 		stylesSerialiser.addCustomSerialiser(PercentageUnit.class, new QuantityValueSerialiser<>(PercentageUnit.class));
+
+		for (Map.Entry<String, SimpleMapSilo<?>> e : getMapSilosByFile().entrySet())
+		{
+			e.getValue().setSchema(getSchema(e.getKey()));
+		}
+		if (mappedBatchSilo != null)
+		{
+			mappedBatchSilo.setSchema(batchSilo.getSchema());
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Objects saved at an older version of their silo's schema are upgraded
+	 * as they are read, and only written back at the current version once
+	 * they are changed. To change a serialiser's output incompatibly, add a
+	 * migration from the old form to the new one to its silo's schema here,
+	 * rather than rewriting the whole silo file with a one-off fixer.
+	 *
+	 * @return
+	 * 	the schema of the objects in the given silo file
+	 */
+	private static V2Schema getSchema(String fileName)
+	{
+		// no silo has been migrated yet, they are all at version 1
+		return new V2Schema();
 	}
 
 	/*-------------------------------------------------------------------------*/
+	/**
+	 * Loads every silo. The settings, strings and reference data silos are
+	 * independent of each other and are loaded in parallel. The saved data
+	 * silos resolve ingredients against the reference data, so they are
+	 * loaded in parallel once it is in place.
+	 */
 	public void loadAll()
 	{
+		ExecutorService executor = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors())));
+
 		try
 		{
-			BufferedReader settingsReader = getFileReader(dbDir+"/" + SETTINGS_JSON);
-			BufferedReader uiStringsReader = getFileReader("data/strings/ui.properties");
-			BufferedReader processStringsReader = getFileReader("data/strings/process.properties");
-			BufferedReader documentStringsReader = getFileReader("data/strings/document.properties");
-			BufferedReader fermentablesReader = getFileReader(dbDir+"/" + FERMENTABLES_JSON);
-			BufferedReader hopsReader = getFileReader(dbDir+"/" + HOPS_JSON);
-			BufferedReader yeastsReader = getFileReader(dbDir+"/" + YEASTS_JSON);
-			BufferedReader miscsReader = getFileReader(dbDir+"/" + MISCS_JSON);
-			BufferedReader watersReader = getFileReader(dbDir+"/" + WATERS_JSON);
-			BufferedReader waterParametersReader = getFileReader(dbDir+"/" + WATER_PARAMETERS_JSON);
-			BufferedReader stylesReader = getFileReader(dbDir+"/" + STYLES_JSON);
-			BufferedReader inventoryReader = getFileReader(dbDir+"/" + INVENTORY_JSON);
-			BufferedReader processTemplateReader = getFileReader(dbDir+"/" + PROCESSTEMPLATES_JSON);
-			BufferedReader equipmentsReader = getFileReader(dbDir+"/" + EQUIPMENTPROFILES_JSON);
-			BufferedReader recipesReader = getFileReader(dbDir+"/" + RECIPES_JSON);
-			BufferedReader batchesReader = getFileReader(dbDir+"/" + BATCHES_JSON);
-
-			Brewday.getInstance().getLog().log(Log.DEBUG, "db load settings");
-			settings = new Settings(settingsSilo.load(settingsReader, this));
-
-			Brewday.getInstance().getLog().log(Log.DEBUG, "db load strings");
-			uiStrings = stringsSilo.load(uiStringsReader, this);
-			processStrings = stringsSilo.load(processStringsReader, this);
-			documentStrings = stringsSilo.load(documentStringsReader, this);
-
-			Brewday.getInstance().getLog().log(Log.DEBUG, "db load ref data");
-			fermentables = fermentableSilo.load(fermentablesReader, this);
-			hops = hopsSilo.load(hopsReader, this);
-			yeasts = yeastsSilo.load(yeastsReader, this);
-			miscs = miscsSilo.load(miscsReader, this);
-			waters = watersSilo.load(watersReader, this);
-			waterParameters = waterParametersSilo.load(waterParametersReader, this);
-			styles = stylesSilo.load(stylesReader, this);
+			Brewday.getInstance().getLog().log(Log.DEBUG, "db load settings, strings and ref data");
+			Future<Map> settingsF = executor.submit(() -> loadSilo(dbDir + "/" + SETTINGS_JSON, settingsSilo));
+			Future<Properties> uiStringsF = executor.submit(() -> loadSilo("data/strings/ui.properties", stringsSilo));
+			Future<Properties> processStringsF = executor.submit(() -> loadSilo("data/strings/process.properties", stringsSilo));
+			Future<Properties> documentStringsF = executor.submit(() -> loadSilo("data/strings/document.properties", stringsSilo));
+			Future<Map<String, Fermentable>> fermentablesF = executor.submit(() -> loadReferenceSilo(FERMENTABLES_JSON, fermentableSilo));
+			Future<Map<String, Hop>> hopsF = executor.submit(() -> loadReferenceSilo(HOPS_JSON, hopsSilo));
+			Future<Map<String, Yeast>> yeastsF = executor.submit(() -> loadReferenceSilo(YEASTS_JSON, yeastsSilo));
+			Future<Map<String, Misc>> miscsF = executor.submit(() -> loadReferenceSilo(MISCS_JSON, miscsSilo));
+			Future<Map<String, Water>> watersF = executor.submit(() -> loadReferenceSilo(WATERS_JSON, watersSilo));
+			Future<Map<String, WaterParameters>> waterParametersF = executor.submit(() -> loadReferenceSilo(WATER_PARAMETERS_JSON, waterParametersSilo));
+			Future<Map<String, Style>> stylesF = executor.submit(() -> loadReferenceSilo(STYLES_JSON, stylesSilo));
+
+			settings = new Settings(get(settingsF));
+			uiStrings = get(uiStringsF);
+			processStrings = get(processStringsF);
+			documentStrings = get(documentStringsF);
+			fermentables = get(fermentablesF);
+			hops = get(hopsF);
+			yeasts = get(yeastsF);
+			miscs = get(miscsF);
+			waters = get(watersF);
+			waterParameters = get(waterParametersF);
+			styles = get(stylesF);
+
+			// the saved data refers to the reference data as it deserialises
+			addView(STYLES_JSON, Style.class, styles);
+			addView(WATERS_JSON, Water.class, waters);
+			addView(WATER_PARAMETERS_JSON, WaterParameters.class, waterParameters);
+			addView(FERMENTABLES_JSON, Fermentable.class, fermentables);
+			addView(HOPS_JSON, Hop.class, hops);
+			addView(YEASTS_JSON, Yeast.class, yeasts);
+			addView(MISCS_JSON, Misc.class, miscs);
 
 			Brewday.getInstance().getLog().log(Log.DEBUG, "db load saved data");
-			inventory = inventorySilo.load(inventoryReader, this);
-			processTemplates = processTemplateSilo.load(processTemplateReader, this);
-			equipmentProfiles = equipmentSilo.load(equipmentsReader, this);
-			recipes = recipeSilo.load(recipesReader, this);
-			batches = batchSilo.load(batchesReader, this);
-
-			settingsReader.close();
-			uiStringsReader.close();
-			processStringsReader.close();
-			documentStringsReader.close();
-			fermentablesReader.close();
-			hopsReader.close();
-			yeastsReader.close();
-			miscsReader.close();
-			watersReader.close();
-			waterParametersReader.close();
-			stylesReader.close();
-			inventoryReader.close();
-			processTemplateReader.close();
-			equipmentsReader.close();
-			recipesReader.close();
-			batchesReader.close();
-
-			// init backends
-			// sync the git backend
-
-			boolean aBoolean = Boolean.parseBoolean(getSettings().get(Settings.GIT_BACKEND_ENABLED));
-			if (aBoolean)
-			{
-				Brewday.getInstance().getLog().log(Log.DEBUG, "init git backend");
-				gitBackend = new GitBackend();
+			Future<Map<String, InventoryLineItem>> inventoryF = executor.submit(() -> loadSilo(INVENTORY_JSON, inventorySilo));
+			Future<Map<String, Recipe>> processTemplatesF = executor.submit(() -> loadSilo(PROCESSTEMPLATES_JSON, processTemplateSilo));
+			Future<Map<String, EquipmentProfile>> equipmentProfilesF = executor.submit(() -> loadSilo(EQUIPMENTPROFILES_JSON, equipmentSilo));
+			Future<Map<String, Recipe>> recipesF = executor.submit(() -> loadSilo(RECIPES_JSON, recipeSilo));
+			Future<Map<String, Batch>> batchesF = executor.submit(() ->
+				mappedBatchSilo != null ? loadMappedBatches() : loadSilo(BATCHES_JSON, batchSilo));
+
+			inventory = get(inventoryF);
+			processTemplates = get(processTemplatesF);
+			equipmentProfiles = get(equipmentProfilesF);
+			recipes = get(recipesF);
+			batches = get(batchesF);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		addView(EQUIPMENTPROFILES_JSON, EquipmentProfile.class, equipmentProfiles);
+		addView(PROCESSTEMPLATES_JSON, Recipe.class, processTemplates);
+		addView(INVENTORY_JSON, InventoryLineItem.class, inventory);
+		addView(RECIPES_JSON, Recipe.class, recipes);
+		addView(BATCHES_JSON, Batch.class, batches);
+		for (DatabaseMap<?> view : views.values())
+		{
+			view.fire(DatabaseEvent.Type.RELOADED, null, null, null);
+		}
+		fireEvent(new DatabaseEvent(DatabaseEvent.Type.RELOADED,
+			getSiloName(SETTINGS_JSON), null, null, null));
+
+		// init backends
+		// sync the git backend
+
+		boolean aBoolean = Boolean.parseBoolean(getSettings().get(Settings.GIT_BACKEND_ENABLED));
+		if (aBoolean)
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "init git backend");
+			gitBackend = new GitBackend();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <V extends V2DataObject> Map<String, V> loadSilo(
+		String fileName,
+		SimpleMapSilo<V> silo) throws IOException
+	{
+		try (BufferedReader reader = getFileReader(dbDir + "/" + fileName))
+		{
+			return silo.load(reader, this);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Loads a reference data silo from its snapshot if the snapshot was taken
+	 * from the current silo file. Otherwise loads the silo file and takes a
+	 * new snapshot of it.
+	 */
+	private <V extends V2DataObject> Map<String, V> loadReferenceSilo(
+		String fileName,
+		SimpleMapSilo<V> silo) throws IOException
+	{
+		if (snapshotDir == null)
+		{
+			return loadSilo(fileName, silo);
+		}
+
+		byte[] json = Files.readAllBytes(new File(dbDir, fileName).toPath());
+		String hash = V2Snapshot.hash(json);
+		File snapshot = new File(snapshotDir, fileName + SNAPSHOT_SUFFIX);
+
+		if (snapshot.exists())
+		{
+			try (InputStream in = new BufferedInputStream(new FileInputStream(snapshot)))
+			{
+				Map<String, V> result = silo.loadSnapshot(in, hash, this);
+				if (result != null)
+				{
+					return result;
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				Brewday.getInstance().getLog().log(Log.MEDIUM, "discarding snapshot " + snapshot);
+				Brewday.getInstance().getLog().log(Log.MEDIUM, e);
 			}
 		}
-		catch (IOException e)
+
+		Map<String, V> result;
+		try (BufferedReader reader = new BufferedReader(
+			new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8)))
+		{
+			result = silo.load(reader, this);
+		}
+
+		writeSnapshot(snapshot, hash, silo, result);
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Snapshots are only a cache, so a failure to write one is logged and
+	 * otherwise ignored.
+	 */
+	private <V extends V2DataObject> void writeSnapshot(
+		File snapshot,
+		String hash,
+		SimpleMapSilo<V> silo,
+		Map<String, V> map)
+	{
+		File temp = new File(snapshot.getPath() + ".tmp");
+
+		try
+		{
+			if (!snapshotDir.exists() && !snapshotDir.mkdirs() && !snapshotDir.exists())
+			{
+				throw new IOException("can't create dir " + snapshotDir);
+			}
+
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp)))
+			{
+				silo.writeSnapshot(out, hash, map, this);
+			}
+			moveIntoPlace(temp, snapshot);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Brewday.getInstance().getLog().log(Log.MEDIUM, "can't write snapshot " + snapshot);
+			Brewday.getInstance().getLog().log(Log.MEDIUM, e);
+			temp.delete();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Loads the batches from their mapped data file, first importing them
+	 * from batches.json if there is no data file yet.
+	 */
+	private Map<String, Batch> loadMappedBatches() throws IOException
+	{
+		if (!mappedBatchSilo.exists())
 		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "import " + BATCHES_JSON + " into " + BATCHES_DAT);
+			mappedBatchSilo.create(loadSilo(BATCHES_JSON, batchSilo), this);
+		}
+
+		return mappedBatchSilo.load(this);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <V> V loadSilo(
+		String path,
+		V2SiloSingleton<V> silo) throws Exception
+	{
+		try (BufferedReader reader = getFileReader(path))
+		{
+			return silo.load(reader, this);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <V> V get(Future<V> future)
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof BrewdayException)
+			{
+				throw (BrewdayException)e.getCause();
+			}
+			throw new BrewdayException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 			throw new BrewdayException(e);
 		}
 	}
@@ -388,172 +715,311 @@ public class Database
 	}
 
 	/*-------------------------------------------------------------------------*/
+	/**
+	 * Saves every silo that has changed since it was last loaded or saved.
+	 * Unchanged silos are neither rewritten nor backed up.
+	 */
 	public void saveAll()
 	{
-		StringWriter settingsBuffer = new StringWriter();
-		StringWriter inventoryBuffer = new StringWriter();
-		StringWriter equipmentBuffer = new StringWriter();
-		StringWriter recipesBuffer = new StringWriter();
-		StringWriter batchesBuffer = new StringWriter();
-		StringWriter processBuffer = new StringWriter();
-
-		StringWriter fermentablesBuffer = new StringWriter();
-		StringWriter hopsBuffer = new StringWriter();
-		StringWriter yeastBuffer = new StringWriter();
-		StringWriter waterBuffer = new StringWriter();
-		StringWriter waterParametersBuffer = new StringWriter();
-		StringWriter miscBuffer = new StringWriter();
-		StringWriter styleBuffer = new StringWriter();
+		writeSave(stageAll());
+	}
 
-		try
+	/**
+	 * Saves only the settings data.
+	 */
+	public void saveSettings()
+	{
+		writeSave(stageSettings());
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Saves everything on the background saver if there is one, otherwise
+	 * saves now.
+	 */
+	public void saveAllLater()
+	{
+		if (backgroundSaver != null)
 		{
-			// back up the current database
-			backupDb();
-
-			// marshall into memory. errors here will not overwrite any file contents
-			settingsSilo.save(new BufferedWriter(settingsBuffer), this.settings.getSettings());
-			inventorySilo.save(new BufferedWriter(inventoryBuffer), this.inventory, this);
-			processTemplateSilo.save(new BufferedWriter(processBuffer), this.processTemplates, this);
-			equipmentSilo.save(new BufferedWriter(equipmentBuffer), this.equipmentProfiles, this);
-			recipeSilo.save(new BufferedWriter(recipesBuffer), this.recipes, this);
-			batchSilo.save(new BufferedWriter(batchesBuffer), this.batches, this);
-
-			fermentableSilo.save(new BufferedWriter(fermentablesBuffer), this.fermentables, this);
-			hopsSilo.save(new BufferedWriter(hopsBuffer), this.hops, this);
-			yeastsSilo.save(new BufferedWriter(yeastBuffer), this.yeasts, this);
-			watersSilo.save(new BufferedWriter(waterBuffer), this.waters, this);
-			waterParametersSilo.save(new BufferedWriter(waterParametersBuffer), this.waterParameters, this);
-			miscsSilo.save(new BufferedWriter(miscBuffer), this.miscs, this);
-			stylesSilo.save(new BufferedWriter(styleBuffer), this.styles, this);
+			backgroundSaver.requestSaveAll();
 		}
-		catch (IOException e)
+		else
 		{
-			throw new BrewdayException(e);
+			saveAll();
 		}
+	}
 
-		try
+	/**
+	 * Saves the settings on the background saver if there is one, otherwise
+	 * saves them now.
+	 */
+	public void saveSettingsLater()
+	{
+		if (backgroundSaver != null)
 		{
-			// write to disk
-			writeToDisk(dbDir+"/" + SETTINGS_JSON, settingsBuffer.toString());
-			writeToDisk(dbDir+"/" + INVENTORY_JSON, inventoryBuffer.toString());
-			writeToDisk(dbDir+"/" + PROCESSTEMPLATES_JSON, processBuffer.toString());
-			writeToDisk(dbDir+"/" + EQUIPMENTPROFILES_JSON, equipmentBuffer.toString());
-			writeToDisk(dbDir+"/" + RECIPES_JSON, recipesBuffer.toString());
-			writeToDisk(dbDir+"/" + BATCHES_JSON, batchesBuffer.toString());
-
-			writeToDisk(dbDir+"/" + FERMENTABLES_JSON, fermentablesBuffer.toString());
-			writeToDisk(dbDir+"/" + HOPS_JSON, hopsBuffer.toString());
-			writeToDisk(dbDir+"/" + YEASTS_JSON, yeastBuffer.toString());
-			writeToDisk(dbDir+"/" + WATERS_JSON, waterBuffer.toString());
-			writeToDisk(dbDir+"/" + WATER_PARAMETERS_JSON, waterParametersBuffer.toString());
-			writeToDisk(dbDir+"/" + MISCS_JSON, miscBuffer.toString());
-			writeToDisk(dbDir+"/" + STYLES_JSON, styleBuffer.toString());
-
-			syncToGitBackend(Brewday.getInstance().getLog()::log);
+			backgroundSaver.requestSaveSettings();
 		}
-		catch (IOException e)
+		else
 		{
-			// At this point we assume that the data on disk is corrupt.
-			// Roll back to the backed up db state
-			try
+			saveSettings();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Marshalls every changed silo into a staged save, to be passed to
+	 * {@link #writeSave}. Must be called on the thread that edits the data.
+	 * Blocks until any save in progress has been written.
+	 */
+	StagedSave stageAll()
+	{
+		saveLock.acquireUninterruptibly();
+		StagedSave result = new StagedSave();
+
+		// file name -> temp file holding the new contents, for the silos that have changed
+		Map<String, File> staged = result.staged;
+		// journal -> records to append
+		Map<JournalMapSilo<?>, String> journals = result.journals;
+		// mapped silos with records to write
+		List<MappedMapSilo<?>> mapped = result.mapped;
+
+		try
+		{
+			// marshall into temp files. errors here will not overwrite any file contents
+			stageSettings(staged);
+			stageChanged(staged, INVENTORY_JSON, inventorySilo, this.inventory);
+			stageChanged(staged, PROCESSTEMPLATES_JSON, processTemplateSilo, this.processTemplates);
+			stageChanged(staged, EQUIPMENTPROFILES_JSON, equipmentSilo, this.equipmentProfiles);
+			stageJournal(staged, journals, RECIPES_JSON, recipeSilo, this.recipes);
+			if (mappedBatchSilo != null)
 			{
-				restoreDb();
+				if (mappedBatchSilo.stage(this.batches, this))
+				{
+					mapped.add(mappedBatchSilo);
+				}
 			}
-			catch (IOException ex)
+			else
 			{
-				throw new BrewdayException(e);
+				stageJournal(staged, journals, BATCHES_JSON, batchSilo, this.batches);
 			}
 
+			stageChanged(staged, FERMENTABLES_JSON, fermentableSilo, this.fermentables);
+			stageChanged(staged, HOPS_JSON, hopsSilo, this.hops);
+			stageChanged(staged, YEASTS_JSON, yeastsSilo, this.yeasts);
+			stageChanged(staged, WATERS_JSON, watersSilo, this.waters);
+			stageChanged(staged, WATER_PARAMETERS_JSON, waterParametersSilo, this.waterParameters);
+			stageChanged(staged, MISCS_JSON, miscsSilo, this.miscs);
+			stageChanged(staged, STYLES_JSON, stylesSilo, this.styles);
+			changedSinceSave.clear();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			deleteTempFiles(staged);
+			saveLock.release();
 			throw new BrewdayException(e);
 		}
+
+		return result;
 	}
 
-	/*-------------------------------------------------------------------------*/
-	private void writeToDisk(String fileName,
-		String fileContents) throws IOException
+	/**
+	 * Marshalls the settings into a staged save, to be passed to
+	 * {@link #writeSave}. Must be called on the thread that edits the data.
+	 */
+	StagedSave stageSettings()
 	{
-		FileWriter fileWriter = new FileWriter(fileName, StandardCharsets.UTF_8);
-		fileWriter.write(fileContents);
-		fileWriter.flush();
-		fileWriter.close();
+		saveLock.acquireUninterruptibly();
+		StagedSave result = new StagedSave();
+
+		try
+		{
+			// marshall into a temp file. errors here will not overwrite any file contents
+			stageSettings(result.staged);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			deleteTempFiles(result.staged);
+			saveLock.release();
+			throw new BrewdayException(e);
+		}
+
+		return result;
 	}
 
-	/*-------------------------------------------------------------------------*/
-	private void backupDb() throws IOException
+	/**
+	 * Writes a staged save to disk. Does not touch the data objects, so may
+	 * be called on any thread.
+	 */
+	void writeSave(StagedSave save)
 	{
-		copyFiles(dbDir, dbDir+"/backup/");
+		try
+		{
+			writeSilos(save.staged, save.journals, save.mapped);
+		}
+		finally
+		{
+			saveLock.release();
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public void restoreDb() throws IOException
+	/**
+	 * The marshalled changes of one save, between staging and writing.
+	 */
+	static class StagedSave
 	{
-		copyFiles(dbDir+"/backup", dbDir);
+		private final Map<String, File> staged = new LinkedHashMap<>();
+		private final Map<JournalMapSilo<?>, String> journals = new LinkedHashMap<>();
+		private final List<MappedMapSilo<?>> mapped = new ArrayList<>();
 	}
 
 	/*-------------------------------------------------------------------------*/
-	private void copyFiles(String src, String dest) throws IOException
+	private void stageSettings(Map<String, File> staged) throws IOException
 	{
-		File srcFile = new File(src);
-		File destDir = new File(dest);
-		if (!destDir.exists())
+		if (settingsSilo.isDirty(this.settings.getSettings()))
 		{
-			if (!destDir.mkdirs())
+			File temp = getTempFile(SETTINGS_JSON);
+			staged.put(SETTINGS_JSON, temp);
+
+			try (BufferedWriter writer = getFileWriter(temp))
 			{
-				throw new IOException("can't create dir " + destDir.getName());
+				settingsSilo.save(writer, this.settings.getSettings());
 			}
 		}
+	}
 
-		File[] files = srcFile.listFiles((dir, name) -> name.endsWith(".json"));
-
-		for (File f : files)
+	/*-------------------------------------------------------------------------*/
+	private <V extends V2DataObject> void stage(
+		Map<String, File> staged,
+		String fileName,
+		SimpleMapSilo<V> silo,
+		Map<String, V> map) throws IOException
+	{
+		if (silo.isDirty(map, this))
 		{
-			Files.copy(f.toPath(), new File(destDir, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			File temp = getTempFile(fileName);
+			staged.put(fileName, temp);
+
+			try (BufferedWriter writer = getFileWriter(temp))
+			{
+				silo.save(writer, map, this);
+			}
 		}
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public static Database getInstance()
+	/**
+	 * Stages a silo only if a change to it has been published since the last
+	 * save, or its state on disk is unknown. Its objects must only be edited
+	 * through the maps, or in place and published with {@link #objectChanged}.
+	 */
+	private <V extends V2DataObject> void stageChanged(
+		Map<String, File> staged,
+		String fileName,
+		SimpleMapSilo<V> silo,
+		Map<String, V> map) throws IOException
 	{
-		return instance;
+		if (silo.isStateKnown() && !changedSinceSave.contains(getSiloName(fileName)))
+		{
+			return;
+		}
+
+		stage(staged, fileName, silo, map);
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public Settings getSettings()
+	/**
+	 * Stages the changes to a journaled silo as journal records, or as a full
+	 * snapshot if the journal is due for compaction.
+	 */
+	private <V extends V2DataObject> void stageJournal(
+		Map<String, File> staged,
+		Map<JournalMapSilo<?>, String> journals,
+		String fileName,
+		JournalMapSilo<V> silo,
+		Map<String, V> map) throws IOException
 	{
-		return settings;
+		String records = silo.getJournalRecords(map, this);
+
+		if (records == null)
+		{
+			stage(staged, fileName, silo, map);
+		}
+		else if (!records.isEmpty())
+		{
+			journals.put(silo, records);
+		}
 	}
 
+	/*-------------------------------------------------------------------------*/
 	/**
-	 * Saves only the settings data.
+	 * Records a backup generation, then atomically replaces each silo file
+	 * with its staged temp file, then appends to the given journals, then
+	 * writes the given mapped silos. The mapped silos are not backed up.
+	 * Does nothing if there are no changes to write.
 	 */
-	public void saveSettings()
+	private void writeSilos(
+		Map<String, File> staged,
+		Map<JournalMapSilo<?>, String> journals,
+		List<MappedMapSilo<?>> mapped)
 	{
-		StringWriter settingsBuffer = new StringWriter();
+		if (staged.isEmpty() && journals.isEmpty() && mapped.isEmpty())
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "db save: no changes");
+			return;
+		}
+
+		Brewday.getInstance().getLog().log(Log.DEBUG,
+			"db save: " + staged.keySet() + " journals: " + journals.size() +
+				" mapped: " + mapped.size());
+
+		// the files that are about to change
+		Set<String> changed = new HashSet<>(staged.keySet());
+		if (!journals.isEmpty())
+		{
+			changed.add(RECIPES_JOURNAL);
+			changed.add(BATCHES_JOURNAL);
+		}
 
+		int generation;
 		try
 		{
-			// marshall into memory. errors here will not overwrite any file contents
-			settingsSilo.save(new BufferedWriter(settingsBuffer), this.settings.getSettings());
+			generation = backupStore.backup();
 		}
 		catch (IOException e)
 		{
+			deleteTempFiles(staged);
+			invalidateSilos();
 			throw new BrewdayException(e);
 		}
 
 		try
 		{
 			// write to disk
-			writeToDisk(dbDir+"/" + SETTINGS_JSON, settingsBuffer.toString());
+			for (Map.Entry<String, File> e : staged.entrySet())
+			{
+				moveIntoPlace(e.getValue(), new File(dbDir, e.getKey()));
+			}
+
+			for (Map.Entry<JournalMapSilo<?>, String> e : journals.entrySet())
+			{
+				e.getKey().appendJournal(e.getValue());
+			}
 
-			syncToGitBackend(Brewday.getInstance().getLog()::log);
+			for (MappedMapSilo<?> silo : mapped)
+			{
+				silo.write();
+			}
 		}
 		catch (IOException e)
 		{
 			// At this point we assume that the data on disk is corrupt.
 			// Roll back to the backed up db state
+			deleteTempFiles(staged);
+			invalidateSilos();
 			try
 			{
-				restoreDb();
+				backupStore.restore(generation, changed);
 			}
 			catch (IOException ex)
 			{
@@ -562,80 +1028,915 @@ public class Database
 
 			throw new BrewdayException(e);
 		}
-	}
+		finally
+		{
+			backupStore.changed(changed);
+		}
 
-	/*-------------------------------------------------------------------------*/
-	public void syncToGitBackend(GitBackend.OutputCollector outputCollector)
-	{
-		if (Boolean.parseBoolean(getSettings().get(Settings.GIT_BACKEND_ENABLED)))
+		Map<String, Set<String>> changes = getPendingChanges(staged.keySet(), mapped);
+
+		commitSilos();
+
+		// catch any edits made in place that were never published
+		for (Map.Entry<String, Set<String>> e : changes.entrySet())
 		{
-			Brewday.getInstance().getLog().log(Log.DEBUG, "git backend: sync to remote");
-			gitBackend.syncToRemote(new File(this.dbDir), outputCollector);
+			for (V2Index<?, ?> index : indexes.getOrDefault(e.getKey(), Collections.emptyList()))
+			{
+				if (e.getValue().isEmpty())
+				{
+					index.invalidate();
+				}
+				for (String name : e.getValue())
+				{
+					index.changed(name);
+				}
+			}
 		}
-	}
 
-	/*-------------------------------------------------------------------------*/
-	public void syncFromGitBackend(GitBackend.OutputCollector outputCollector)
-	{
-		if (Boolean.parseBoolean(getSettings().get(Settings.GIT_BACKEND_ENABLED)))
+		if (isGitBackendEnabled())
 		{
-			Brewday.getInstance().getLog().log(Log.DEBUG, "git backend: sync from remote");
-			gitBackend.syncFromRemote(new File(this.dbDir), outputCollector);
+			Set<String> gitFiles = new TreeSet<>(changed);
+			if (!mapped.isEmpty())
+			{
+				gitFiles.add(BATCHES_DAT);
+			}
+			gitBackend.requestSync(
+				new File(this.dbDir),
+				getSettings().get(Settings.GIT_REMOTE_REPO),
+				gitFiles,
+				changes,
+				Brewday.getInstance().getLog()::log);
 		}
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public void enableGitBackend(GitBackend.OutputCollector outputCollector)
+	private Collection<SimpleMapSilo<?>> getMapSilos()
 	{
-		Brewday.getInstance().getLog().log(Log.DEBUG, "init git backend");
-		this.gitBackend = new GitBackend();
-
-		this.gitBackend.enable(getLocalStorageDirectory(), getSettings().get(Settings.GIT_REMOTE_REPO), outputCollector);
+		return getMapSilosByFile().values();
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public void disableGitBackend(GitBackend.OutputCollector outputCollector)
+	private Map<String, SimpleMapSilo<?>> getMapSilosByFile()
 	{
-		this.gitBackend.disable(outputCollector);
-		this.gitBackend = null;
+		Map<String, SimpleMapSilo<?>> result = new LinkedHashMap<>();
+		result.put(INVENTORY_JSON, inventorySilo);
+		result.put(PROCESSTEMPLATES_JSON, processTemplateSilo);
+		result.put(EQUIPMENTPROFILES_JSON, equipmentSilo);
+		result.put(RECIPES_JSON, recipeSilo);
+		result.put(BATCHES_JSON, batchSilo);
+		result.put(FERMENTABLES_JSON, fermentableSilo);
+		result.put(HOPS_JSON, hopsSilo);
+		result.put(YEASTS_JSON, yeastsSilo);
+		result.put(WATERS_JSON, watersSilo);
+		result.put(WATER_PARAMETERS_JSON, waterParametersSilo);
+		result.put(MISCS_JSON, miscsSilo);
+		result.put(STYLES_JSON, stylesSilo);
+		return result;
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public Map<String, Recipe> getRecipes()
+	/**
+	 * @return
+	 * 	what the save about to be committed changes: the silo, named after its
+	 * 	file, to the names of the objects changed. The names are empty if they
+	 * 	are unknown.
+	 */
+	private Map<String, Set<String>> getPendingChanges(
+		Set<String> stagedFiles,
+		List<MappedMapSilo<?>> mapped)
+	{
+		Map<String, Set<String>> result = new TreeMap<>();
+
+		if (stagedFiles.contains(SETTINGS_JSON))
+		{
+			result.put(getSiloName(SETTINGS_JSON), new TreeSet<>());
+		}
+
+		for (Map.Entry<String, SimpleMapSilo<?>> e : getMapSilosByFile().entrySet())
+		{
+			Set<String> names = e.getValue().getPendingChanges();
+			if (names == null)
+			{
+				result.put(getSiloName(e.getKey()), new TreeSet<>());
+			}
+			else if (!names.isEmpty())
+			{
+				result.put(getSiloName(e.getKey()), names);
+			}
+		}
+
+		for (MappedMapSilo<?> silo : mapped)
+		{
+			result.put(getSiloName(BATCHES_JSON), silo.getPendingChanges());
+		}
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the name of the silo stored in the given file, as used for the kind
+	 * 	of object in {@link DatabaseEvent}s and commit messages
+	 */
+	public static String getSiloName(String fileName)
 	{
-		return recipes;
+		return fileName.substring(0, fileName.lastIndexOf('.'));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void commitSilos()
+	{
+		settingsSilo.commit();
+		for (SimpleMapSilo<?> silo : getMapSilos())
+		{
+			silo.commit();
+		}
+		if (mappedBatchSilo != null)
+		{
+			mappedBatchSilo.commit();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void invalidateSilos()
+	{
+		settingsSilo.invalidate();
+		for (SimpleMapSilo<?> silo : getMapSilos())
+		{
+			silo.invalidate();
+		}
+		if (mappedBatchSilo != null)
+		{
+			mappedBatchSilo.invalidate();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private File getTempFile(String fileName)
+	{
+		return new File(dbDir, fileName + ".tmp");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private BufferedWriter getFileWriter(File file) throws IOException
+	{
+		return new BufferedWriter(
+			new OutputStreamWriter(
+				new FileOutputStream(file),
+				StandardCharsets.UTF_8));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Replaces the target with the temp file. The temp file is synced to disk
+	 * first, so that a crash after the rename can't leave the target holding
+	 * data that was never written.
+	 */
+	private void moveIntoPlace(File temp, File target) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE))
+		{
+			channel.force(true);
+		}
+
+		try
+		{
+			Files.move(temp.toPath(), target.toPath(),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp.toPath(), target.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void deleteTempFiles(Map<String, File> staged)
+	{
+		for (File f : staged.values())
+		{
+			if (f.exists() && !f.delete())
+			{
+				Brewday.getInstance().getLog().log(Log.LOUD, "can't delete " + f);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Restores the db files from the latest backup generation, or from the
+	 * flat copy kept by older versions if there are no generations. The db
+	 * must be reloaded afterwards.
+	 */
+	public void restoreDb() throws IOException
+	{
+		List<Integer> generations = backupStore.getGenerations();
+		if (generations.isEmpty())
+		{
+			copyFiles(dbDir+"/"+BACKUP_DIR, dbDir, null);
+		}
+		else
+		{
+			restoreDb(generations.get(generations.size() - 1));
+		}
+	}
+
+	/**
+	 * Restores the db files as they were before the given save. The db must
+	 * be reloaded afterwards.
+	 *
+	 * @param generation
+	 * 	one of {@link #getBackupGenerations()}
+	 */
+	public void restoreDb(int generation) throws IOException
+	{
+		saveLock.acquireUninterruptibly();
+		try
+		{
+			backupStore.restore(generation, null);
+			invalidateSilos();
+		}
+		finally
+		{
+			saveLock.release();
+		}
+	}
+
+	/**
+	 * @return
+	 * 	the kept backup generations, oldest first
+	 */
+	public List<Integer> getBackupGenerations()
+	{
+		return backupStore.getGenerations();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Copies json files from src to dest.
+	 *
+	 * @param fileNames
+	 * 	the files to copy, or null to copy all of them
+	 */
+	private void copyFiles(String src, String dest,
+		Collection<String> fileNames) throws IOException
+	{
+		File srcFile = new File(src);
+		File destDir = new File(dest);
+		if (!destDir.exists())
+		{
+			if (!destDir.mkdirs())
+			{
+				throw new IOException("can't create dir " + destDir.getName());
+			}
+		}
+
+		File[] files = srcFile.listFiles((dir, name) ->
+			name.endsWith(".json") && (fileNames == null || fileNames.contains(name)));
+
+		for (File f : files)
+		{
+			Files.copy(f.toPath(), new File(destDir, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the live db, or the db that the calling thread is running against
+	 * 	(see {@link #withInstance})
+	 */
+	public static Database getInstance()
+	{
+		Database result = threadInstance.get();
+		return result != null ? result : instance;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs the given code with {@link #getInstance()} returning the given db on
+	 * the calling thread, eg so that process code run on a worker thread reads
+	 * the settings, equipment and styles of a {@link DatabaseSnapshot}.
+	 */
+	public static <T> T withInstance(Database db, Supplier<T> code)
+	{
+		Database before = threadInstance.get();
+		threadInstance.set(db);
+		try
+		{
+			return code.get();
+		}
+		finally
+		{
+			if (before == null)
+			{
+				threadInstance.remove();
+			}
+			else
+			{
+				threadInstance.set(before);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public Settings getSettings()
+	{
+		return settings;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public BackgroundSaver getBackgroundSaver()
+	{
+		return backgroundSaver;
+	}
+
+	/**
+	 * @param backgroundSaver
+	 * 	the saver used by {@link #saveAllLater()} and
+	 * 	{@link #saveSettingsLater()}, or null to save synchronously
+	 */
+	public void setBackgroundSaver(BackgroundSaver backgroundSaver)
+	{
+		this.backgroundSaver = backgroundSaver;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Commits every change in the db dir to the git backend, and pushes it.
+	 * The saves waiting to be committed are committed first.
+	 *
+	 * @return
+	 * 	completes when the sync is done, at once if the backend is disabled
+	 */
+	public CompletableFuture<Void> syncToGitBackend(GitBackend.OutputCollector outputCollector)
+	{
+		if (isGitBackendEnabled())
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "git backend: sync to remote");
+			gitBackend.flushPending();
+			return logFailure(gitBackend.syncToRemote(
+				new File(this.dbDir),
+				getSettings().get(Settings.GIT_REMOTE_REPO),
+				null,
+				GitBackend.COMMIT_MESSAGE,
+				outputCollector));
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Overwrites the db dir with the contents of the git backend. The db must
+	 * be reloaded afterwards.
+	 *
+	 * @return
+	 * 	completes when the sync is done, at once if the backend is disabled
+	 */
+	public CompletableFuture<Void> syncFromGitBackend(GitBackend.OutputCollector outputCollector)
+	{
+		if (isGitBackendEnabled())
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "git backend: sync from remote");
+			return logFailure(gitBackend.syncFromRemote(
+				new File(this.dbDir),
+				getSettings().get(Settings.GIT_REMOTE_REPO),
+				outputCollector));
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Merges the remote changes into the db, object by object, instead of
+	 * overwriting it; see {@link GitMerge}. Only the objects that changed
+	 * are reloaded.
+	 * <p>
+	 * Saves everything first. Must be called on the thread that edits the
+	 * data. The fetch and the merge run on the git thread; the merged
+	 * objects are then written into the db on the given data thread, before
+	 * the merge is pushed back on the git thread.
+	 *
+	 * @param dataThread
+	 * 	runs tasks on the thread that edits the data, e.g. Platform::runLater
+	 * @return
+	 * 	completes with the conflicts: kind of object (e.g. "recipes") to the
+	 * 	names of the objects. Empty if there were none, or if the backend is
+	 * 	disabled.
+	 */
+	public CompletableFuture<Map<String, Set<String>>> mergeFromGitBackend(
+		GitBackend.OutputCollector outputCollector,
+		Executor dataThread)
+	{
+		if (!isGitBackendEnabled())
+		{
+			return CompletableFuture.completedFuture(new TreeMap<>());
+		}
+
+		Brewday.getInstance().getLog().log(Log.DEBUG, "git backend: merge from remote");
+
+		File repo = new File(this.dbDir);
+		String remoteRepo = getSettings().get(Settings.GIT_REMOTE_REPO);
+		Map<String, SimpleMapSilo<?>> mergeOrder = getMergeOrder();
+		GitMerge merge = new GitMerge(gitBackend, repo, this);
+
+		saveAll();
+		gitBackend.flushPending();
+
+		return logFailure(merge.fetchAndMerge(remoteRepo, mergeOrder, outputCollector)
+			.thenCompose(changed ->
+			{
+				if (!changed)
+				{
+					outputCollector.append("already up to date\n");
+					return CompletableFuture.completedFuture(false);
+				}
+				return gitBackend.startMerge(repo, outputCollector).thenApply(v -> true);
+			})
+			.thenApplyAsync(changed ->
+			{
+				if (changed)
+				{
+					try
+					{
+						applyMerge(merge, mergeOrder, outputCollector);
+					}
+					catch (RuntimeException e)
+					{
+						gitBackend.abortMerge(repo, outputCollector);
+						throw e;
+					}
+				}
+				return changed;
+			}, dataThread)
+			.thenCompose(changed ->
+			{
+				if (!changed)
+				{
+					return CompletableFuture.completedFuture(new TreeMap<>());
+				}
+				return gitBackend.finishMerge(repo, remoteRepo,
+					merge.getCommitMessage(outputCollector), outputCollector)
+					.thenApply(v -> merge.getConflicts());
+			}));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes the merged objects and settings into the db, and saves it.
+	 */
+	private void applyMerge(GitMerge merge,
+		Map<String, SimpleMapSilo<?>> mergeOrder,
+		GitBackend.OutputCollector outputCollector)
+	{
+		for (Map.Entry<String, SimpleMapSilo<?>> e : mergeOrder.entrySet())
+		{
+			Map<String, Object> merged = merge.getChanges(e.getKey());
+			if (!merged.isEmpty())
+			{
+				outputCollector.append("merged " + e.getKey() + ": " +
+					String.join(", ", merged.keySet()) + "\n");
+				((SimpleMapSilo)e.getValue()).putSerialised(
+					view(e.getKey()), merged, this);
+			}
+		}
+		for (Map.Entry<String, Object> e : merge.getChanges(SETTINGS_JSON).entrySet())
+		{
+			settings.set(e.getKey(), (String)e.getValue());
+			fireEvent(new DatabaseEvent(DatabaseEvent.Type.UPDATED,
+				getSiloName(SETTINGS_JSON), e.getKey(), null, null));
+		}
+		saveAll();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the map silos by file, in an order in which each object is merged
+	 * 	after the objects it refers to
+	 */
+	private Map<String, SimpleMapSilo<?>> getMergeOrder()
+	{
+		Map<String, SimpleMapSilo<?>> result = new LinkedHashMap<>();
+		result.put(STYLES_JSON, stylesSilo);
+		result.put(WATERS_JSON, watersSilo);
+		result.put(WATER_PARAMETERS_JSON, waterParametersSilo);
+		result.put(FERMENTABLES_JSON, fermentableSilo);
+		result.put(HOPS_JSON, hopsSilo);
+		result.put(YEASTS_JSON, yeastsSilo);
+		result.put(MISCS_JSON, miscsSilo);
+		result.put(EQUIPMENTPROFILES_JSON, equipmentSilo);
+		result.put(PROCESSTEMPLATES_JSON, processTemplateSilo);
+		result.put(INVENTORY_JSON, inventorySilo);
+		result.put(RECIPES_JSON, recipeSilo);
+		result.put(BATCHES_JSON, batchSilo);
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <V extends V2DataObject> void addView(String fileName,
+		Class<V> type, Map<String, V> map)
+	{
+		views.put(fileName, new DatabaseMap<>(this, getSiloName(fileName), type, map));
+	}
+
+	/**
+	 * @return
+	 * 	the map handed out for the given silo file, null if not loaded
+	 */
+	private <V extends V2DataObject> DatabaseMap<V> view(String fileName)
+	{
+		return (DatabaseMap<V>)views.get(fileName);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Commits the saves waiting to be committed to the git backend, and waits
+	 * for the git syncs to finish, at most {@link #GIT_FLUSH_TIMEOUT_SECONDS}
+	 * so that a stalled push does not stop the app from exiting.
+	 */
+	public void flushGitBackend()
+	{
+		if (gitBackend != null)
+		{
+			try
+			{
+				gitBackend.flushPending();
+				if (!gitBackend.waitForSyncs(GIT_FLUSH_TIMEOUT_SECONDS,
+					java.util.concurrent.TimeUnit.SECONDS))
+				{
+					Brewday.getInstance().getLog().log(Log.LOUD,
+						"git backend: gave up waiting for syncs to finish");
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private boolean isGitBackendEnabled()
+	{
+		return gitBackend != null &&
+			Boolean.parseBoolean(getSettings().get(Settings.GIT_BACKEND_ENABLED));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <T> CompletableFuture<T> logFailure(CompletableFuture<T> sync)
+	{
+		sync.whenComplete((result, e) ->
+		{
+			if (e != null)
+			{
+				Brewday.getInstance().getLog().log(Log.LOUD, e);
+			}
+		});
+		return sync;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public void enableGitBackend(GitBackend.OutputCollector outputCollector)
+	{
+		Brewday.getInstance().getLog().log(Log.DEBUG, "init git backend");
+		this.gitBackend = new GitBackend();
+
+		String remoteRepo = getSettings().get(Settings.GIT_REMOTE_REPO);
+		this.gitBackend.enable(getLocalStorageDirectory(), remoteRepo, outputCollector);
+
+		// At this point the git backend is successfully enabled
+		// Store the settings related to it
+		settings.set(Settings.GIT_BACKEND_ENABLED, "true");
+		settings.set(Settings.GIT_REMOTE_REPO, remoteRepo);
+		saveSettings();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public void disableGitBackend(GitBackend.OutputCollector outputCollector)
+	{
+		this.gitBackend.disable(outputCollector);
+		this.gitBackend = null;
+
+		settings.set(Settings.GIT_BACKEND_ENABLED, "false");
+		settings.set(Settings.GIT_REMOTE_REPO, null);
+		saveSettings();
+
+		outputCollector.append(StringUtils.getUiString("settings.git.disable.complete"));
+		outputCollector.append("\n");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Registers a listener for changes made through the maps this db hands
+	 * out, reloads and merges.
+	 */
+	public void addListener(DatabaseListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(DatabaseListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Publishes an edit made to an object in place, which the maps can't see.
+	 * Does nothing if the object is not in the db.
+	 */
+	public void objectChanged(V2DataObject obj)
+	{
+		for (DatabaseMap<?> view : views.values())
+		{
+			if (view.holds(obj))
+			{
+				view.fire(DatabaseEvent.Type.UPDATED, obj.getName(), null, obj);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Takes an immutable snapshot of all the silos and the settings, for
+	 * reading on other threads while editing carries on. Must be called on
+	 * the data thread. The objects that have not changed since the last
+	 * snapshot are shared with it rather than copied again: only the objects
+	 * named by the events since then are serialised, so edits in place must
+	 * have been published with {@link #objectChanged}.
+	 */
+	public DatabaseSnapshot snapshot()
+	{
+		Map<String, SimpleMapSilo<?>> silos = getMergeOrder();
+		Map<String, Map<String, ?>> maps = new HashMap<>();
+		for (String fileName : silos.keySet())
+		{
+			maps.put(fileName, view(fileName).getMap());
+		}
+
+		lastSnapshot = new DatabaseSnapshot(this, silos, maps,
+			changedSinceSnapshot, reloadedSinceSnapshot, settings, lastSnapshot);
+		changedSinceSnapshot.clear();
+		reloadedSinceSnapshot.clear();
+		return lastSnapshot;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a number that changes with every change published to the listeners,
+	 * 	including edits in place published with {@link #objectChanged}. It
+	 * 	is never the same for two states of any db. Changes to the settings
+	 * 	are not published and do not change it.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	true if the objects of this db are never edited in place, as for a
+	 * 	snapshot, so that an unchanged {@link #getVersion} means nothing has
+	 * 	changed. False for the live db, whose objects are edited in place and
+	 * 	published later, if at all.
+	 */
+	public boolean isFrozen()
+	{
+		return false;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	void fireEvent(DatabaseEvent event)
+	{
+		version = versions.incrementAndGet();
+		changedSinceSave.add(event.getSilo());
+		updateIndexes(event);
+		updateSnapshotChanges(event);
+
+		for (DatabaseListener listener : listeners)
+		{
+			try
+			{
+				listener.databaseChanged(event);
+			}
+			catch (RuntimeException e)
+			{
+				// one broken listener must not stop the others, or the change
+				Brewday.getInstance().getLog().log(Log.LOUD, e);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <K extends Comparable<? super K>, V extends V2DataObject> V2Index<K, V> addIndex(
+		String fileName, V2Index<K, V> index)
+	{
+		indexes.computeIfAbsent(getSiloName(fileName), k -> new ArrayList<>()).add(index);
+		return index;
+	}
+
+	/**
+	 * Notes what the next snapshot has to take afresh from the live silos.
+	 */
+	private void updateSnapshotChanges(DatabaseEvent event)
+	{
+		if (lastSnapshot == null)
+		{
+			// the first snapshot takes everything
+			return;
+		}
+
+		if (event.getType() == DatabaseEvent.Type.RELOADED || event.getName() == null)
+		{
+			reloadedSinceSnapshot.add(event.getSilo());
+			return;
+		}
+
+		Set<String> names = changedSinceSnapshot.computeIfAbsent(
+			event.getSilo(), k -> new HashSet<>());
+		names.add(event.getName());
+		if (event.getOldName() != null)
+		{
+			names.add(event.getOldName());
+		}
+	}
+
+	/**
+	 * Marks what a change makes stale in the indexes. Renaming an ingredient
+	 * or equipment profile changes the keys of the objects that refer to it.
+	 */
+	private void updateIndexes(DatabaseEvent event)
+	{
+		for (V2Index<?, ?> index : indexes.getOrDefault(event.getSilo(), Collections.emptyList()))
+		{
+			if (event.getType() == DatabaseEvent.Type.RELOADED)
+			{
+				index.invalidate();
+			}
+			else
+			{
+				index.changed(event.getOldName());
+				index.changed(event.getName());
+			}
+		}
+
+		if (event.getType() == DatabaseEvent.Type.RENAMED)
+		{
+			IngredientAddition.Type type = getIngredientType(event.getSilo());
+			if (type != null)
+			{
+				String key = IngredientAdditionSerialiser.getIngredientKey(type, event.getOldName());
+				recipesByIngredient.changedKey(key);
+				batchesByIngredient.changedKey(key);
+			}
+			else if (event.getSilo().equals(getSiloName(EQUIPMENTPROFILES_JSON)))
+			{
+				String key = event.getOldName().toLowerCase(Locale.ROOT);
+				recipesByEquipmentProfile.changedKey(key);
+				processTemplatesByEquipmentProfile.changedKey(key);
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 * 	the type of ingredient held in the given silo, or null if it is not
+	 * 	an ingredient silo
+	 */
+	private static IngredientAddition.Type getIngredientType(String silo)
+	{
+		if (silo.equals(getSiloName(FERMENTABLES_JSON)))
+		{
+			return IngredientAddition.Type.FERMENTABLES;
+		}
+		else if (silo.equals(getSiloName(HOPS_JSON)))
+		{
+			return IngredientAddition.Type.HOPS;
+		}
+		else if (silo.equals(getSiloName(YEASTS_JSON)))
+		{
+			return IngredientAddition.Type.YEAST;
+		}
+		else if (silo.equals(getSiloName(MISCS_JSON)))
+		{
+			return IngredientAddition.Type.MISC;
+		}
+		else if (silo.equals(getSiloName(WATERS_JSON)))
+		{
+			return IngredientAddition.Type.WATER;
+		}
+		return null;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public Map<String, Recipe> getRecipes()
+	{
+		return view(RECIPES_JSON);
 	}
 
 	public Map<String, Recipe> getProcessTemplates()
 	{
-		return processTemplates;
+		return view(PROCESSTEMPLATES_JSON);
+	}
+
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the recipes with the given tag
+	 */
+	public List<Recipe> getRecipesWithTag(String tag)
+	{
+		return recipesByTag.find(tag, recipes, this);
+	}
+
+	/**
+	 * @return
+	 * 	the recipes that add the given ingredient in any step
+	 */
+	public List<Recipe> getRecipesUsing(IngredientAddition.Type type, String ingredient)
+	{
+		return recipesByIngredient.find(
+			IngredientAdditionSerialiser.getIngredientKey(type, ingredient), recipes, this);
 	}
 
+	/**
+	 * @return
+	 * 	the recipes that use the given equipment profile, ignoring case
+	 */
+	public List<Recipe> getRecipesWithEquipmentProfile(String profile)
+	{
+		return recipesByEquipmentProfile.find(profile.toLowerCase(Locale.ROOT), recipes, this);
+	}
+
+	/**
+	 * @return
+	 * 	the process templates that use the given equipment profile, ignoring
+	 * 	case
+	 */
+	public List<Recipe> getProcessTemplatesWithEquipmentProfile(String profile)
+	{
+		return processTemplatesByEquipmentProfile.find(
+			profile.toLowerCase(Locale.ROOT), processTemplates, this);
+	}
+
+	/**
+	 * @return
+	 * 	the batches of the given recipe, ignoring case
+	 */
+	public List<Batch> getBatchesOfRecipe(String recipe)
+	{
+		return batchesByRecipe.find(recipe.toLowerCase(Locale.ROOT), batches, this);
+	}
+
+	/**
+	 * @return
+	 * 	the batches dated in the given inclusive range, in date order
+	 */
+	public List<Batch> getBatchesBetween(LocalDate from, LocalDate to)
+	{
+		return batchesByDate.find(from, to, batches, this);
+	}
+
+	/**
+	 * @return
+	 * 	the batches that record adding the given ingredient
+	 */
+	public List<Batch> getBatchesUsing(IngredientAddition.Type type, String ingredient)
+	{
+		return batchesByIngredient.find(
+			IngredientAdditionSerialiser.getIngredientKey(type, ingredient), batches, this);
+	}
 
 	/*-------------------------------------------------------------------------*/
 	public Map<String, Hop> getHops()
 	{
-		return hops;
+		return view(HOPS_JSON);
 	}
 
 	public Map<String, Fermentable> getFermentables()
 	{
-		return fermentables;
+		return view(FERMENTABLES_JSON);
 	}
 
 	public Map<String, Yeast> getYeasts()
 	{
-		return yeasts;
+		return view(YEASTS_JSON);
 	}
 
 	public Map<String, Misc> getMiscs()
 	{
-		return miscs;
+		return view(MISCS_JSON);
 	}
 
 	public Map<String, Water> getWaters()
 	{
-		return waters;
+		return view(WATERS_JSON);
 	}
 
 	public ReflectiveSerialiser<Water> getWaterSerialiser()
@@ -645,27 +1946,27 @@ public class Database
 
 	public Map<String, WaterParameters> getWaterParameters()
 	{
-		return waterParameters;
+		return view(WATER_PARAMETERS_JSON);
 	}
 
 	public Map<String, Style> getStyles()
 	{
-		return styles;
+		return view(STYLES_JSON);
 	}
 
 	public Map<String, InventoryLineItem> getInventory()
 	{
-		return inventory;
+		return view(INVENTORY_JSON);
 	}
 
 	public Map<String, EquipmentProfile> getEquipmentProfiles()
 	{
-		return equipmentProfiles;
+		return view(EQUIPMENTPROFILES_JSON);
 	}
 
 	public Map<String, Batch> getBatches()
 	{
-		return batches;
+		return view(BATCHES_JSON);
 	}
 
 	public Properties getStrings(String name)
@@ -717,6 +2018,6 @@ public class Database
 	/*-------------------------------------------------------------------------*/
 	public File getLocalStorageBackupDirectory()
 	{
-		return new File(dbDir, "backup");
+		return new File(dbDir, BACKUP_DIR);
 	}
 }
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db;
+
+import mclachlan.brewday.db.v2.V2DataObject;
+
+/**
+ * A change to the data in the {@link Database}, see
+ * {@link Database#addListener}.
+ */
+public class DatabaseEvent
+{
+	public enum Type
+	{
+		/** an object was added */
+		ADDED,
+		/** an object was replaced or edited in place */
+		UPDATED,
+		/** an object was removed */
+		REMOVED,
+		/** an object was renamed, see {@link #getOldName()} */
+		RENAMED,
+		/** the whole silo was loaded again, there is no object */
+		RELOADED
+	}
+
+	private final Type type;
+	private final String silo;
+	private final String name;
+	private final String oldName;
+	private final V2DataObject object;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param silo
+	 * 	the kind of object, as named by its silo (e.g. "recipes")
+	 * @param name
+	 * 	the object's name, or null if the event is not about one object
+	 * @param oldName
+	 * 	the object's name before a rename, otherwise null
+	 * @param object
+	 * 	the object, or null if it was removed or the event is not about
+	 * 	one object
+	 */
+	public DatabaseEvent(
+		Type type,
+		String silo,
+		String name,
+		String oldName,
+		V2DataObject object)
+	{
+		this.type = type;
+		this.silo = silo;
+		this.name = name;
+		this.oldName = oldName;
+		this.object = object;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public Type getType()
+	{
+		return type;
+	}
+
+	public String getSilo()
+	{
+		return silo;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getOldName()
+	{
+		return oldName;
+	}
+
+	public V2DataObject getObject()
+	{
+		return object;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public String toString()
+	{
+		return type + " " + silo + (name == null ? "" : ": " + name) +
+			(oldName == null ? "" : " (was " + oldName + ")");
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db;
+
+import java.util.*;
+import mclachlan.brewday.db.v2.V2DataObject;
+
+/**
+ * The view of a silo's objects that the {@link Database} hands out. Adding,
+ * replacing and removing objects through it publishes the matching
+ * {@link DatabaseEvent}. Edits made to an object in place are not seen, they
+ * are published with {@link Database#objectChanged}.
+ */
+public class DatabaseMap<V extends V2DataObject> extends AbstractMap<String, V>
+{
+	private final Database db;
+	private final String silo;
+	private final Class<V> type;
+	private final Map<String, V> map;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param map
+	 * 	the silo's loaded map
+	 */
+	DatabaseMap(Database db, String silo, Class<V> type, Map<String, V> map)
+	{
+		this.db = db;
+		this.silo = silo;
+		this.type = type;
+		this.map = map;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public String getSilo()
+	{
+		return silo;
+	}
+
+	/**
+	 * @return
+	 * 	the silo's loaded map, whose changes are not published
+	 */
+	Map<String, V> getMap()
+	{
+		return map;
+	}
+
+	/**
+	 * @return
+	 * 	true if the given object is the one held under its name
+	 */
+	boolean holds(V2DataObject obj)
+	{
+		return type.isInstance(obj) &&
+			map.containsKey(obj.getName()) &&
+			map.get(obj.getName()) == obj;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Renames an object, publishing a single {@link DatabaseEvent.Type#RENAMED}
+	 * rather than a removal and an addition.
+	 */
+	public void rename(String oldName, String newName)
+	{
+		V v = map.remove(oldName);
+		if (v == null)
+		{
+			return;
+		}
+
+		v.setName(newName);
+		map.put(newName, v);
+		fire(DatabaseEvent.Type.RENAMED, newName, oldName, v);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public V get(Object key)
+	{
+		return map.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return map.containsKey(key);
+	}
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public V put(String name, V value)
+	{
+		boolean existed = map.containsKey(name);
+		V result = map.put(name, value);
+		fire(existed ? DatabaseEvent.Type.UPDATED : DatabaseEvent.Type.ADDED, name, null, value);
+		return result;
+	}
+
+	@Override
+	public V remove(Object key)
+	{
+		if (!map.containsKey(key))
+		{
+			return null;
+		}
+
+		V result = map.remove(key);
+		fire(DatabaseEvent.Type.REMOVED, (String)key, null, null);
+		return result;
+	}
+
+	@Override
+	public void clear()
+	{
+		List<String> names = new ArrayList<>(map.keySet());
+		map.clear();
+		for (String name : names)
+		{
+			fire(DatabaseEvent.Type.REMOVED, name, null, null);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		return new AbstractSet<Entry<String, V>>()
+		{
+			@Override
+			public Iterator<Entry<String, V>> iterator()
+			{
+				Iterator<Entry<String, V>> entries = map.entrySet().iterator();
+
+				return new Iterator<Entry<String, V>>()
+				{
+					private String last;
+
+					@Override
+					public boolean hasNext()
+					{
+						return entries.hasNext();
+					}
+
+					@Override
+					public Entry<String, V> next()
+					{
+						Entry<String, V> entry = entries.next();
+						last = entry.getKey();
+						return new ObservedEntry(entry);
+					}
+
+					@Override
+					public void remove()
+					{
+						entries.remove();
+						fire(DatabaseEvent.Type.REMOVED, last, null, null);
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return map.size();
+			}
+		};
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Does not read the value until asked to, the objects of a lazy map are
+	 * only deserialised when used.
+	 */
+	private class ObservedEntry implements Entry<String, V>
+	{
+		private final Entry<String, V> entry;
+
+		public ObservedEntry(Entry<String, V> entry)
+		{
+			this.entry = entry;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return entry.getKey();
+		}
+
+		@Override
+		public V getValue()
+		{
+			return entry.getValue();
+		}
+
+		@Override
+		public V setValue(V value)
+		{
+			V result = entry.setValue(value);
+			fire(DatabaseEvent.Type.UPDATED, entry.getKey(), null, value);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return entry.equals(o);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return entry.hashCode();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	void fire(DatabaseEvent.Type eventType, String name, String oldName, V2DataObject obj)
+	{
+		db.fireEvent(new DatabaseEvent(eventType, silo, name, oldName, obj));
+	}
+}
@@ -0,0 +1,587 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db;
+
+import java.util.*;
+import java.util.function.Supplier;
+import mclachlan.brewday.Settings;
+import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.v2.SimpleMapSilo;
+import mclachlan.brewday.db.v2.V2DataObject;
+import mclachlan.brewday.db.v2.V2SerialiserMap;
+import mclachlan.brewday.equipment.EquipmentProfile;
+import mclachlan.brewday.ingredients.*;
+import mclachlan.brewday.inventory.InventoryLineItem;
+import mclachlan.brewday.math.WaterParameters;
+import mclachlan.brewday.recipe.Recipe;
+import mclachlan.brewday.style.Style;
+
+/**
+ * The silos of a {@link Database} as they were at a point in time, taken
+ * with {@link Database#snapshot()}. A snapshot never changes, so it can be
+ * read on any thread while the data thread carries on editing.
+ * <p>
+ * Objects are held in their serialised form and deserialised on first
+ * lookup into copies that belong to the snapshot. Those copies are shared
+ * by every reader of the snapshot and must be treated as read only; use
+ * {@link #copyOf} for one that can be changed. Objects that have not changed
+ * since the previous snapshot are shared with it, so taking a snapshot after
+ * a few edits only copies the edited objects, as told by the db's events,
+ * and a silo with no events is shared whole.
+ * <p>
+ * Process code looks up the settings, equipment and styles through
+ * {@link Database#getInstance()}. Run it with {@link #read} to have it see
+ * the snapshot instead of the live db.
+ */
+public class DatabaseSnapshot
+{
+	/** the silos whose objects others refer to when they are deserialised */
+	private static final Set<String> REFERENCED = new HashSet<>(Arrays.asList(
+		Database.FERMENTABLES_JSON, Database.HOPS_JSON, Database.YEASTS_JSON,
+		Database.MISCS_JSON, Database.WATERS_JSON));
+
+	private final long time;
+	private final long version;
+	private final Settings settings;
+	private final Map<String, SnapshotMap<?>> silos = new HashMap<>();
+	private final Resolver resolver;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Must be called on the data thread.
+	 *
+	 * @param silos
+	 * 	silo file name to the silo and its loaded map, each after the silos
+	 * 	it refers to
+	 * @param changed
+	 * 	silo name to the names of the objects changed since the previous
+	 * 	snapshot
+	 * @param reloaded
+	 * 	the names of the silos that may have changed as a whole since the
+	 * 	previous snapshot
+	 * @param previous
+	 * 	the last snapshot taken of the db, to share unchanged objects with,
+	 * 	or null
+	 */
+	DatabaseSnapshot(
+		Database db,
+		Map<String, SimpleMapSilo<?>> silos,
+		Map<String, Map<String, ?>> maps,
+		Map<String, Set<String>> changed,
+		Set<String> reloaded,
+		Settings settings,
+		DatabaseSnapshot previous)
+	{
+		this.time = System.currentTimeMillis();
+		this.version = db.getVersion();
+		this.settings = new Settings(Collections.unmodifiableMap(
+			new HashMap<>(settings.getSettings())));
+		this.resolver = new Resolver(db, this);
+
+		boolean referencesShared = previous != null;
+		for (Map.Entry<String, SimpleMapSilo<?>> e : silos.entrySet())
+		{
+			String fileName = e.getKey();
+			String siloName = Database.getSiloName(fileName);
+			SnapshotMap<?> before = previous == null ? null : previous.silos.get(fileName);
+			boolean share = REFERENCED.contains(fileName) || referencesShared;
+
+			SnapshotMap<?> map = reloaded.contains(siloName) ?
+				takeAll(e.getValue(), maps.get(fileName), db, before, share) :
+				take(e.getValue(), maps.get(fileName), db, before,
+					changed.getOrDefault(siloName, Collections.emptySet()), share);
+			this.silos.put(fileName, map);
+
+			if (REFERENCED.contains(fileName) && map != before)
+			{
+				referencesShared = false;
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Takes the silo from the previous snapshot, serialising only the objects
+	 * changed since then.
+	 *
+	 * @param before
+	 * 	the silo in the previous snapshot, or null
+	 * @param changed
+	 * 	the names of the objects changed since the previous snapshot
+	 * @param share
+	 * 	true if the objects already deserialised in the previous snapshot
+	 * 	can be shared, false if only their serialised forms can be
+	 * @return
+	 * 	the previous snapshot's map if nothing in the silo has changed
+	 */
+	private <V extends V2DataObject> SnapshotMap<?> take(
+		SimpleMapSilo<V> silo,
+		Map<String, ?> map,
+		Database db,
+		SnapshotMap<?> before,
+		Set<String> changed,
+		boolean share)
+	{
+		if (before == null)
+		{
+			return takeAll(silo, map, db, null, share);
+		}
+		if (changed.isEmpty() && share)
+		{
+			return before;
+		}
+
+		Map<String, V> live = (Map<String, V>)map;
+		Map<String, Frozen<V>> old = ((SnapshotMap<V>)before).entries;
+
+		Map<String, Frozen<V>> entries = new LinkedHashMap<>(old);
+		boolean modified = !share;
+		for (String name : changed)
+		{
+			if (!live.containsKey(name))
+			{
+				modified |= entries.remove(name) != null;
+				continue;
+			}
+
+			Map body = silo.serialised(live, name, db);
+			String fingerprint = silo.fingerprint(live, name, body);
+			Frozen<V> prior = old.get(name);
+			if (prior == null || !prior.fingerprint.equals(fingerprint))
+			{
+				entries.put(name, new Frozen<>(body, fingerprint));
+				modified = true;
+			}
+		}
+
+		if (entries.size() != live.size())
+		{
+			// changed without an event, take it all to be safe
+			return takeAll(silo, map, db, before, share);
+		}
+		if (!modified)
+		{
+			return before;
+		}
+		if (!share)
+		{
+			entries.replaceAll((name, frozen) -> frozen == old.get(name) ?
+				new Frozen<>(frozen.body, frozen.fingerprint) : frozen);
+		}
+		return new SnapshotMap<>(silo.getSerialiser(), entries);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Takes the whole silo, serialising every object in it.
+	 *
+	 * @param before
+	 * 	the silo in the previous snapshot, or null
+	 * @param share
+	 * 	true if the objects already deserialised in the previous snapshot
+	 * 	can be shared, false if only their serialised forms can be
+	 * @return
+	 * 	the previous snapshot's map if nothing in the silo has changed
+	 */
+	private <V extends V2DataObject> SnapshotMap<?> takeAll(
+		SimpleMapSilo<V> silo,
+		Map<String, ?> map,
+		Database db,
+		SnapshotMap<?> before,
+		boolean share)
+	{
+		Map<String, V> live = (Map<String, V>)map;
+		Map<String, Frozen<V>> old = before == null ? Collections.emptyMap() :
+			((SnapshotMap<V>)before).entries;
+
+		Map<String, Frozen<V>> entries = new LinkedHashMap<>();
+		boolean changed = before == null || !share || old.size() != live.size();
+		for (Map.Entry<String, Map> e : silo.serialised(live, db))
+		{
+			String name = e.getKey();
+			Map body = e.getValue();
+			Frozen<V> prior = old.get(name);
+
+			Frozen<V> frozen;
+			if (prior != null && prior.body == body)
+			{
+				// an untouched lazily loaded object, no need to hash it
+				frozen = prior;
+			}
+			else
+			{
+				String fingerprint = silo.fingerprint(live, name, body);
+				frozen = prior != null && prior.fingerprint.equals(fingerprint) ?
+					prior : new Frozen<>(body, fingerprint);
+			}
+
+			if (frozen != prior)
+			{
+				changed = true;
+			}
+			else if (!share)
+			{
+				frozen = new Frozen<>(frozen.body, frozen.fingerprint);
+			}
+			entries.put(name, frozen);
+		}
+
+		if (!changed)
+		{
+			return before;
+		}
+		return new SnapshotMap<>(silo.getSerialiser(), entries);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	when this snapshot was taken, in milliseconds since the epoch
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * @return
+	 * 	the {@link Database#getVersion} of the db when this snapshot was taken
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return
+	 * 	the settings as they were, which can't be changed
+	 */
+	public Settings getSettings()
+	{
+		return settings;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs the given code with {@link Database#getInstance()} returning this
+	 * snapshot on the calling thread. Nothing can be saved through it.
+	 */
+	public <T> T read(Supplier<T> code)
+	{
+		return Database.withInstance(resolver, code);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a new copy of the named object as it was in this snapshot, that the
+	 * 	caller is free to change, or null if there was no such object
+	 */
+	public <V extends V2DataObject> V copyOf(String fileName, String name)
+	{
+		SnapshotMap<V> map = (SnapshotMap<V>)silos.get(fileName);
+		Frozen<V> frozen = map == null ? null : map.entries.get(name);
+		return frozen == null ? null : map.serialiser.fromMap((Map<String, ?>)frozen.body, resolver);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private <V extends V2DataObject> Map<String, V> get(String fileName)
+	{
+		return (Map<String, V>)silos.get(fileName);
+	}
+
+	public Map<String, Recipe> getRecipes()
+	{
+		return get(Database.RECIPES_JSON);
+	}
+
+	public Map<String, Recipe> getProcessTemplates()
+	{
+		return get(Database.PROCESSTEMPLATES_JSON);
+	}
+
+	public Map<String, Batch> getBatches()
+	{
+		return get(Database.BATCHES_JSON);
+	}
+
+	public Map<String, InventoryLineItem> getInventory()
+	{
+		return get(Database.INVENTORY_JSON);
+	}
+
+	public Map<String, EquipmentProfile> getEquipmentProfiles()
+	{
+		return get(Database.EQUIPMENTPROFILES_JSON);
+	}
+
+	public Map<String, Hop> getHops()
+	{
+		return get(Database.HOPS_JSON);
+	}
+
+	public Map<String, Fermentable> getFermentables()
+	{
+		return get(Database.FERMENTABLES_JSON);
+	}
+
+	public Map<String, Yeast> getYeasts()
+	{
+		return get(Database.YEASTS_JSON);
+	}
+
+	public Map<String, Misc> getMiscs()
+	{
+		return get(Database.MISCS_JSON);
+	}
+
+	public Map<String, Water> getWaters()
+	{
+		return get(Database.WATERS_JSON);
+	}
+
+	public Map<String, WaterParameters> getWaterParameters()
+	{
+		return get(Database.WATER_PARAMETERS_JSON);
+	}
+
+	public Map<String, Style> getStyles()
+	{
+		return get(Database.STYLES_JSON);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * An object in its serialised form, and its copy once deserialised.
+	 */
+	private static class Frozen<V extends V2DataObject>
+	{
+		private final Map body;
+		private final String fingerprint;
+		private V object;
+
+		public Frozen(Map body, String fingerprint)
+		{
+			this.body = body;
+			this.fingerprint = fingerprint;
+		}
+
+		public synchronized V get(V2SerialiserMap<V> serialiser, Database resolver)
+		{
+			if (object == null)
+			{
+				object = serialiser.fromMap((Map<String, ?>)body, resolver);
+			}
+			return object;
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * An unmodifiable map of a silo's objects, deserialised as they are
+	 * looked up. Iterating over the keys does not deserialise them.
+	 */
+	private class SnapshotMap<V extends V2DataObject> extends AbstractMap<String, V>
+	{
+		private final V2SerialiserMap<V> serialiser;
+		private final Map<String, Frozen<V>> entries;
+
+		public SnapshotMap(V2SerialiserMap<V> serialiser,
+			Map<String, Frozen<V>> entries)
+		{
+			this.serialiser = serialiser;
+			this.entries = entries;
+		}
+
+		@Override
+		public V get(Object key)
+		{
+			Frozen<V> frozen = entries.get(key);
+			return frozen == null ? null : frozen.get(serialiser, resolver);
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return entries.containsKey(key);
+		}
+
+		@Override
+		public int size()
+		{
+			return entries.size();
+		}
+
+		@Override
+		public Set<String> keySet()
+		{
+			return Collections.unmodifiableSet(entries.keySet());
+		}
+
+		@Override
+		public Set<Entry<String, V>> entrySet()
+		{
+			return new AbstractSet<Entry<String, V>>()
+			{
+				@Override
+				public Iterator<Entry<String, V>> iterator()
+				{
+					Iterator<Entry<String, Frozen<V>>> i = entries.entrySet().iterator();
+					return new Iterator<Entry<String, V>>()
+					{
+						@Override
+						public boolean hasNext()
+						{
+							return i.hasNext();
+						}
+
+						@Override
+						public Entry<String, V> next()
+						{
+							Entry<String, Frozen<V>> e = i.next();
+							return new SimpleImmutableEntry<>(e.getKey(),
+								e.getValue().get(serialiser, resolver));
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return entries.size();
+				}
+			};
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Stands in for the db while objects are deserialised, so that they
+	 * refer to the ingredients in the snapshot rather than the live ones, and
+	 * while code is run with {@link #read}. Only ever the instance of the
+	 * threads running that code, so nothing can load or save through it.
+	 */
+	private static class Resolver extends Database
+	{
+		private final Database live;
+		private final DatabaseSnapshot snapshot;
+
+		public Resolver(Database live, DatabaseSnapshot snapshot)
+		{
+			super(live.getLocalStorageDirectory().getPath(), 0, false, 0, false, 1);
+			this.live = live;
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public long getVersion()
+		{
+			return snapshot.getVersion();
+		}
+
+		@Override
+		public boolean isFrozen()
+		{
+			return true;
+		}
+
+		@Override
+		public Properties getStrings(String name)
+		{
+			return live.getStrings(name);
+		}
+
+		@Override
+		public Settings getSettings()
+		{
+			return snapshot.getSettings();
+		}
+
+		@Override
+		public Map<String, Recipe> getRecipes()
+		{
+			return snapshot.getRecipes();
+		}
+
+		@Override
+		public Map<String, Recipe> getProcessTemplates()
+		{
+			return snapshot.getProcessTemplates();
+		}
+
+		@Override
+		public Map<String, Batch> getBatches()
+		{
+			return snapshot.getBatches();
+		}
+
+		@Override
+		public Map<String, InventoryLineItem> getInventory()
+		{
+			return snapshot.getInventory();
+		}
+
+		@Override
+		public Map<String, EquipmentProfile> getEquipmentProfiles()
+		{
+			return snapshot.getEquipmentProfiles();
+		}
+
+		@Override
+		public Map<String, Hop> getHops()
+		{
+			return snapshot.getHops();
+		}
+
+		@Override
+		public Map<String, Fermentable> getFermentables()
+		{
+			return snapshot.getFermentables();
+		}
+
+		@Override
+		public Map<String, Yeast> getYeasts()
+		{
+			return snapshot.getYeasts();
+		}
+
+		@Override
+		public Map<String, Misc> getMiscs()
+		{
+			return snapshot.getMiscs();
+		}
+
+		@Override
+		public Map<String, Water> getWaters()
+		{
+			return snapshot.getWaters();
+		}
+
+		@Override
+		public Map<String, WaterParameters> getWaterParameters()
+		{
+			return snapshot.getWaterParameters();
+		}
+
+		@Override
+		public Map<String, Style> getStyles()
+		{
+			return snapshot.getStyles();
+		}
+	}
+}
@@ -99,6 +99,53 @@ public class IngredientAdditionSerialiser implements V2SerialiserMap<IngredientA
 		return result;
 	}
 
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a key identifying the ingredient that the given serialised addition
+	 * 	refers to, eg for indexing
+	 */
+	public static String getIngredientKey(Map map)
+	{
+		String type = (String)map.get("type");
+		String ingredient;
+
+		switch (IngredientAddition.Type.valueOf(type))
+		{
+			case FERMENTABLES:
+				ingredient = (String)map.get("fermentable");
+				break;
+			case HOPS:
+				ingredient = (String)map.get("hop");
+				break;
+			case WATER:
+				// a combined water profile is stored in full, under its own name
+				ingredient = "true".equals(map.get("isCombinedWater")) ?
+					(String)map.get("name") : (String)map.get("water");
+				break;
+			case YEAST:
+				ingredient = (String)map.get("yeast");
+				break;
+			case MISC:
+				ingredient = (String)map.get("misc");
+				break;
+			default:
+				throw new BrewdayException("Invalid type "+type);
+		}
+
+		return getIngredientKey(IngredientAddition.Type.valueOf(type), ingredient);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a key identifying the given ingredient, eg for indexing
+	 */
+	public static String getIngredientKey(IngredientAddition.Type type, String ingredient)
+	{
+		return type.name() + ":" + ingredient;
+	}
+
 	/*-------------------------------------------------------------------------*/
 	@Override
 	public IngredientAddition fromMap(Map<String, ?> map,
@@ -64,4 +64,54 @@ public class RecipeSerialiser implements V2SerialiserMap<Recipe>
 
 		return new Recipe(name, desc, equipmentProfile, tags, steps);
 	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the equipment profile of a serialised recipe in lower case, eg for
+	 * 	indexing
+	 */
+	public static Collection<String> getEquipmentProfileKey(Map map)
+	{
+		String profile = (String)map.get("equipmentProfile");
+		return profile == null ?
+			Collections.emptyList() :
+			Collections.singletonList(profile.toLowerCase(Locale.ROOT));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the tags of a serialised recipe, eg for indexing
+	 */
+	public static Collection<String> getTags(Map map)
+	{
+		List<String> tags = (List<String>)map.get("tags");
+		return tags == null ? Collections.emptyList() : new HashSet<>(tags);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the keys of the ingredients added anywhere in a serialised recipe, as
+	 * 	per {@link IngredientAdditionSerialiser#getIngredientKey(Map)}
+	 */
+	public static Collection<String> getIngredientKeys(Map map)
+	{
+		Set<String> result = new HashSet<>();
+
+		for (Map step : (List<Map>)map.get("steps"))
+		{
+			List<Map> ingredients = (List<Map>)step.get("ingredients");
+			if (ingredients != null)
+			{
+				for (Map ingredient : ingredients)
+				{
+					result.add(IngredientAdditionSerialiser.getIngredientKey(ingredient));
+				}
+			}
+		}
+
+		return result;
+	}
 }
@@ -18,23 +18,87 @@
 package mclachlan.brewday.db.backends.git;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 import mclachlan.brewday.Brewday;
 import mclachlan.brewday.BrewdayException;
-import mclachlan.brewday.Settings;
 import mclachlan.brewday.db.Database;
 import mclachlan.brewday.util.Log;
-import mclachlan.brewday.util.StringUtils;
 
 /**
- *
+ * Keeps the db dir in a git repo, optionally pushed to a remote repo.
+ * <p>
+ * Syncs run one at a time on a dedicated thread, in the order they were
+ * requested, and each returns a future that completes when its git
+ * commands have finished. Every git command is waited for and its exit
+ * status checked.
+ * <p>
+ * Saves are committed in batches: {@link #requestSync} collects the changes
+ * and commits them all at once after the commit delay, or when
+ * {@link #flushPending()} is called.
+ * <p>
+ * Remote changes are either taken wholesale with {@link #syncFromRemote}, or
+ * merged: {@link #fetch} the remote, read the files at each revision with
+ * {@link #exportFile}, merge them, then {@link #startMerge}, write the merged
+ * files and {@link #finishMerge}.
  */
 public class GitBackend
 {
+	public static final String BRANCH = "master";
+	public static final String COMMIT_MESSAGE = "Brewday auto commit";
+	public static final String MERGE_MESSAGE = "Brewday merge";
+	private static final String REMOTE_BRANCH = "origin/" + BRANCH;
+
+	/** how long a single git command may take */
+	private static final long TIMEOUT_SECONDS = 300;
+
+	/** how long to wait for the output of a finished or killed command */
+	private static final long OUTPUT_TIMEOUT_MILLIS = 5000;
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r ->
+	{
+		Thread result = new Thread(r, "brewday-git");
+		result.setDaemon(true);
+		return result;
+	});
+
+	/** milliseconds from the first uncommitted save to its commit */
+	private final long commitDelay;
+
+	// changes waiting to be committed, guarded by this
+	private final Set<String> pendingFiles = new TreeSet<>();
+	private final Map<String, Set<String>> pendingChanges = new TreeMap<>();
+	private File pendingRepo;
+	private String pendingRemote;
+	private OutputCollector pendingOutput;
+	private ScheduledFuture<?> pendingCommit;
+	/** saves are left to the merge commit between startMerge and finishMerge */
+	private boolean merging;
+
+	/*-------------------------------------------------------------------------*/
+	public GitBackend()
+	{
+		this(Long.parseLong(Brewday.getInstance().getAppConfig()
+			.getProperty(Brewday.BREWDAY_DB_GIT_COMMIT_DELAY, "0")));
+	}
+
+	/**
+	 * @param commitDelay
+	 * 	milliseconds to collect saves for before committing them. Zero
+	 * 	commits every save.
+	 */
+	public GitBackend(long commitDelay)
+	{
+		this.commitDelay = commitDelay;
+	}
+
 	/*-------------------------------------------------------------------------*/
 
 	/**
+	 * Creates the local repo, commits the current contents and pushes them to
+	 * the remote repo. Runs on the calling thread.
+	 *
 	 * @param localRepo  The directory to be the local git repo
 	 * @param remoteRepo The URL of the remote repo, or null if there is no
 	 *                   remote repo
@@ -46,46 +110,39 @@ public class GitBackend
 	{
 		// https://superuser.com/questions/1412078/bring-a-local-folder-to-remote-git-repo
 
-		// git init
-		// git add .
-		// git commit -m "Brewday enabling git backend"
-		// git remote add origin <URL>
-		// git remote -v
-		// git push origin master (--force?????)
-
 		Brewday.getInstance().getLog().log(Log.DEBUG, "enabling git backend");
 
 		outputCollector.append("-----------------------------------------\n");
 
 		try
 		{
-//			runCmd(localRepo, "git config --list --show-origin", envp);
-			runCmd(localRepo, "git init", outputCollector);
+			git(localRepo, outputCollector, "init");
+			git(localRepo, outputCollector, "symbolic-ref", "HEAD", "refs/heads/" + BRANCH);
+			if (runGit(localRepo, outputCollector, "config", "user.email") != 0)
+			{
+				// commits need an author
+				git(localRepo, outputCollector, "config", "user.name", "Brewday");
+				git(localRepo, outputCollector, "config", "user.email", "brewday@localhost");
+			}
 
 			// write gitignore file
 			PrintWriter pw = new PrintWriter(new FileOutputStream(new File(localRepo, ".gitignore")));
 			pw.println("/sensitive");
+			pw.println("/" + Database.SNAPSHOT_DIR);
+			pw.println("/" + Database.BACKUP_DIR);
 			pw.flush();
 			pw.close();
 
-			runCmd(localRepo, "git add .", outputCollector);
-			runCmd(localRepo, "git commit -m \"Brewday enabling git backend\"", outputCollector);
+			git(localRepo, outputCollector, "add", "-A");
+			commit(localRepo, "Brewday enabling git backend", outputCollector);
 			if (remoteRepo != null)
 			{
-				runCmd(localRepo, "git remote rm origin", outputCollector);
-				runCmd(localRepo, "git remote add origin " + remoteRepo, outputCollector);
-				runCmd(localRepo, "git remote -v", outputCollector);
-				runCmd(localRepo, "git push origin master --force", outputCollector);
+				// fails if there is no origin yet
+				runGit(localRepo, outputCollector, "remote", "rm", "origin");
+				git(localRepo, outputCollector, "remote", "add", "origin", remoteRepo);
+				git(localRepo, outputCollector, "remote", "-v");
+				git(localRepo, outputCollector, "push", "origin", BRANCH, "--force");
 			}
-
-			// At this point the git backend is successfully enabled
-			// Store the settings related to it
-
-			Settings settings = Database.getInstance().getSettings();
-			settings.set(Settings.GIT_BACKEND_ENABLED, "true");
-			settings.set(Settings.GIT_REMOTE_REPO, remoteRepo);
-
-			Database.getInstance().saveSettings();
 		}
 		catch (Exception e)
 		{
@@ -98,175 +155,684 @@ public class GitBackend
 	{
 		outputCollector.append("-----------------------------------------\n");
 
-		Settings settings = Database.getInstance().getSettings();
-		settings.set(Settings.GIT_BACKEND_ENABLED, "false");
-		settings.set(Settings.GIT_REMOTE_REPO, null);
+		flushPending();
+		executor.shutdown();
+	}
 
-		Database.getInstance().saveSettings();
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Queues a save for the next commit, which is made once the commit delay
+	 * has passed since the first save it holds.
+	 *
+	 * @param files
+	 * 	the files the save wrote, relative to the local repo
+	 * @param changes
+	 * 	what the save changed, for the commit message: kind of object (e.g.
+	 * 	"recipes") to the names of the objects. The names may be empty if not
+	 * 	known.
+	 */
+	public synchronized void requestSync(
+		File localRepo,
+		String remoteRepo,
+		Collection<String> files,
+		Map<String, ? extends Collection<String>> changes,
+		OutputCollector outputCollector)
+	{
+		pendingFiles.addAll(files);
+		for (Map.Entry<String, ? extends Collection<String>> e : changes.entrySet())
+		{
+			pendingChanges.computeIfAbsent(e.getKey(), k -> new TreeSet<>()).addAll(e.getValue());
+		}
+		pendingRepo = localRepo;
+		pendingRemote = remoteRepo;
+		pendingOutput = outputCollector;
 
-		outputCollector.append(StringUtils.getUiString("settings.git.disable.complete"));
-		outputCollector.append("\n");
+		if (merging)
+		{
+			return;
+		}
+		else if (commitDelay <= 0)
+		{
+			flushPending();
+		}
+		else if (pendingCommit == null)
+		{
+			pendingCommit = executor.schedule(this::flushPending, commitDelay, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public void syncToRemote(File localRepo, OutputCollector outputCollector)
+	/**
+	 * Commits the queued saves now.
+	 *
+	 * @return
+	 * 	completes when the commit and push are done
+	 */
+	public synchronized CompletableFuture<Void> flushPending()
 	{
-		// git push origin master
+		if (pendingCommit != null)
+		{
+			pendingCommit.cancel(false);
+			pendingCommit = null;
+		}
 
-		try
+		if (pendingFiles.isEmpty())
 		{
-			outputCollector.append("-----------------------------------------\n");
+			return CompletableFuture.completedFuture(null);
+		}
 
-			String remoteRepo = Database.getInstance().getSettings().get(Settings.GIT_REMOTE_REPO);
+		CompletableFuture<Void> result = syncToRemote(
+			pendingRepo,
+			pendingRemote,
+			pendingFiles,
+			getCommitMessage(pendingChanges),
+			pendingOutput);
 
-			runCmd(localRepo, "git add .", outputCollector);
-			runCmd(localRepo, "git commit -m \"Brewday auto commit\"", outputCollector);
-			if (remoteRepo != null)
+		result.whenComplete((v, e) ->
+		{
+			if (e != null)
 			{
-				runCmd(localRepo, "git push origin master", outputCollector);
+				Brewday.getInstance().getLog().log(Log.LOUD, e);
 			}
+		});
+
+		pendingFiles.clear();
+		pendingChanges.clear();
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a commit message whose subject names the kinds of object changed and
+	 * 	whose body lists the objects
+	 */
+	public static String getCommitMessage(Map<String, ? extends Collection<String>> changes)
+	{
+		if (changes.isEmpty())
+		{
+			return COMMIT_MESSAGE;
 		}
-		catch (Exception e)
+
+		StringBuilder result = new StringBuilder(COMMIT_MESSAGE);
+		result.append(": ").append(String.join(", ", changes.keySet()));
+		result.append("\n");
+
+		for (Map.Entry<String, ? extends Collection<String>> e : changes.entrySet())
 		{
-			throw new BrewdayException(e);
+			if (!e.getValue().isEmpty())
+			{
+				result.append("\n").append(e.getKey()).append(": ");
+				result.append(String.join(", ", e.getValue()));
+			}
 		}
+
+		return result.toString().trim();
 	}
 
 	/*-------------------------------------------------------------------------*/
-	public void syncFromRemote(File localRepo, OutputCollector outputCollector)
+	/**
+	 * Commits the given files if they have changed, and pushes to the remote
+	 * repo if there is one.
+	 *
+	 * @param files
+	 * 	the files to commit, relative to the local repo, or null to commit
+	 * 	every change in it
+	 * @return
+	 * 	completes when the commit and push are done
+	 */
+	public CompletableFuture<Void> syncToRemote(
+		File localRepo,
+		String remoteRepo,
+		Collection<String> files,
+		String message,
+		OutputCollector outputCollector)
 	{
-		// git fetch origin
-		// git reset --hard origin/master
+		List<String> paths = files == null ? null : new ArrayList<>(files);
 
-		try
+		return submit(() ->
 		{
 			outputCollector.append("-----------------------------------------\n");
+			checkRepo(localRepo);
+
+			if (paths == null)
+			{
+				git(localRepo, outputCollector, "add", "-A", "--", ".");
+			}
+			else
+			{
+				// a file that is gone can't be added, only removed
+				List<String> existing = new ArrayList<>();
+				List<String> gone = new ArrayList<>();
+				for (String path : paths)
+				{
+					if (new File(localRepo, path).exists())
+					{
+						existing.add(path);
+					}
+					else
+					{
+						gone.add(path);
+					}
+				}
+
+				if (!existing.isEmpty())
+				{
+					git(localRepo, outputCollector,
+						withPaths(existing, "add", "-A", "--"));
+				}
+				if (!gone.isEmpty())
+				{
+					git(localRepo, outputCollector,
+						withPaths(gone, "rm", "--cached", "--ignore-unmatch", "--quiet", "--"));
+				}
+			}
 
-			String remoteRepo = Database.getInstance().getSettings().get(Settings.GIT_REMOTE_REPO);
+			if (commit(localRepo, message, outputCollector) && remoteRepo != null)
+			{
+				git(localRepo, outputCollector, "push", "origin", BRANCH);
+			}
+		});
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Overwrites the local repo with the remote repo, or with the last local
+	 * commit if there is no remote repo.
+	 *
+	 * @return
+	 * 	completes when the local repo has been updated
+	 */
+	public CompletableFuture<Void> syncFromRemote(
+		File localRepo,
+		String remoteRepo,
+		OutputCollector outputCollector)
+	{
+		return submit(() ->
+		{
+			outputCollector.append("-----------------------------------------\n");
+			checkRepo(localRepo);
 
 			if (remoteRepo != null)
 			{
-				runCmd(localRepo, "git fetch origin", outputCollector);
-				runCmd(localRepo, "git reset --hard origin/master", outputCollector);
+				git(localRepo, outputCollector, "fetch", "origin");
+				git(localRepo, outputCollector, "reset", "--hard", REMOTE_BRANCH);
 			}
 			else
 			{
-				runCmd(localRepo, "git reset --hard HEAD", outputCollector);
+				git(localRepo, outputCollector, "reset", "--hard", "HEAD");
 			}
-		}
-		catch (Exception e)
+		});
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Commits every local change, without pushing it, and fetches the remote
+	 * repo.
+	 *
+	 * @return
+	 * 	completes with the revisions to merge
+	 */
+	public CompletableFuture<Revisions> fetch(
+		File localRepo,
+		String remoteRepo,
+		OutputCollector outputCollector)
+	{
+		return call(() -> fetchNow(localRepo, remoteRepo, outputCollector));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * As {@link #fetch}, on the calling thread, which must be the git thread.
+	 */
+	Revisions fetchNow(
+		File localRepo,
+		String remoteRepo,
+		OutputCollector outputCollector) throws IOException, InterruptedException
+	{
+		outputCollector.append("-----------------------------------------\n");
+		checkRepo(localRepo);
+
+		git(localRepo, outputCollector, "add", "-A", "--", ".");
+		commit(localRepo, COMMIT_MESSAGE, outputCollector);
+
+		String remote = null, base = null;
+		if (remoteRepo != null)
 		{
-			throw new BrewdayException(e);
+			git(localRepo, outputCollector, "fetch", "origin");
+			remote = gitOutput(localRepo, outputCollector, "rev-parse", "--verify", "--quiet", REMOTE_BRANCH);
+			if (remote != null)
+			{
+				// none if the histories are unrelated
+				base = gitOutput(localRepo, outputCollector, "merge-base", "HEAD", REMOTE_BRANCH);
+			}
 		}
+
+		return new Revisions(
+			base,
+			gitOutput(localRepo, outputCollector, "rev-parse", "HEAD"),
+			remote);
 	}
 
 	/*-------------------------------------------------------------------------*/
-//	public void rollback()
-//	{
-	// git reset --hard HEAD~1
-//	}
+	/**
+	 * Writes a file as it was at the given revision.
+	 *
+	 * @param path
+	 * 	the file, relative to the local repo
+	 * @return
+	 * 	completes with false if the file did not exist at that revision
+	 */
+	public CompletableFuture<Boolean> exportFile(
+		File localRepo,
+		String revision,
+		String path,
+		File dest)
+	{
+		return call(() -> exportFileNow(localRepo, revision, path, dest));
+	}
 
 	/*-------------------------------------------------------------------------*/
-	private static String[] getEnvP()
+	/**
+	 * As {@link #exportFile}, on the calling thread, which must be the git
+	 * thread.
+	 */
+	boolean exportFileNow(
+		File localRepo,
+		String revision,
+		String path,
+		File dest) throws IOException, InterruptedException
 	{
-		// set up the env vars to use spawning the process
-		Map<String, String> env = System.getenv();
-		String[] envp = new String[env.size()];
+		String object = revision + ":" + path;
+		if (runGit(localRepo, s -> {}, "cat-file", "-e", object) != 0)
+		{
+			return false;
+		}
 
-		int i = 0;
-		for (String key : env.keySet())
+		Process p = new ProcessBuilder("git", "cat-file", "blob", object)
+			.directory(localRepo)
+			.redirectOutput(dest)
+			.redirectError(ProcessBuilder.Redirect.DISCARD)
+			.start();
+		p.getOutputStream().close();
+		waitFor(p, "cat-file blob " + object);
+		if (p.exitValue() != 0)
 		{
-			envp[i++] = key + "=" + env.get(key);
+			throw new BrewdayException("git cat-file blob " + object + " failed: " + p.exitValue());
 		}
-		return envp;
+		return true;
 	}
 
 	/*-------------------------------------------------------------------------*/
-	private void runCmd(File workingDir, String cmd,
-		OutputCollector outputCollector) throws Exception
+	/**
+	 * Starts a merge of the fetched remote branch that leaves the local files
+	 * as they are, to be overwritten with the merged files. Saves are not
+	 * committed until {@link #finishMerge} or {@link #abortMerge}.
+	 */
+	public synchronized CompletableFuture<Void> startMerge(
+		File localRepo,
+		OutputCollector outputCollector)
 	{
-		outputCollector.append(cmd);
-		outputCollector.append("\n");
-		Process p = Runtime.getRuntime().exec(cmd, getEnvP(), workingDir);
+		if (pendingCommit != null)
+		{
+			pendingCommit.cancel(false);
+			pendingCommit = null;
+		}
+		merging = true;
+
+		return submit(() ->
+		{
+			checkRepo(localRepo);
+			git(localRepo, outputCollector,
+				"merge", "--strategy=ours", "--no-commit", "--no-ff", REMOTE_BRANCH);
+		});
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Commits the merged files and any saves since {@link #startMerge} as the
+	 * merge commit, and pushes it.
+	 */
+	public synchronized CompletableFuture<Void> finishMerge(
+		File localRepo,
+		String remoteRepo,
+		String message,
+		OutputCollector outputCollector)
+	{
+		// the merge commit takes every change in the repo
+		merging = false;
+		pendingFiles.clear();
+		pendingChanges.clear();
 
-		new Appender(outputCollector, p.getInputStream()).start();
-		new Appender(outputCollector, p.getErrorStream()).start();
+		return submit(() ->
+		{
+			checkRepo(localRepo);
+			git(localRepo, outputCollector, "add", "-A", "--", ".");
+
+			// a merge commit is made even if nothing changed locally
+			git(localRepo, outputCollector, "commit", "-m", message);
 
-		p.waitFor(100, TimeUnit.MILLISECONDS);
-//		outputCollector.append(getResults( p.getInputStream()));
-//		outputCollector.append(getResults(p.getErrorStream()));
+			if (remoteRepo != null)
+			{
+				git(localRepo, outputCollector, "push", "origin", BRANCH);
+			}
+		});
 	}
 
 	/*-------------------------------------------------------------------------*/
-/*
-	private static String getResults(InputStream stream) throws IOException
+	/**
+	 * Abandons a merge started with {@link #startMerge}. The local files are
+	 * left as they are, and committed by the next sync.
+	 */
+	public synchronized CompletableFuture<Void> abortMerge(
+		File localRepo,
+		OutputCollector outputCollector)
 	{
-		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-		StringBuilder sb = new StringBuilder();
+		merging = false;
+
+		CompletableFuture<Void> result = submit(() ->
+		{
+			checkRepo(localRepo);
+			if (new File(localRepo, ".git/MERGE_HEAD").exists())
+			{
+				// unlike --abort, leaves the local files alone
+				git(localRepo, outputCollector, "merge", "--quit");
+			}
+		});
+
+		// the saves held back by the merge
+		flushPending();
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Waits for the syncs requested so far to finish.
+	 */
+	public void waitForSyncs() throws InterruptedException
+	{
+		try
+		{
+			submit(() -> {}).get();
+		}
+		catch (ExecutionException e)
+		{
+			// nothing to fail
+		}
+	}
 
-		String line = "";
-		while ((line = reader.readLine()) != null)
+	/**
+	 * Waits at most the given time for the syncs requested so far to finish.
+	 *
+	 * @return
+	 * 	false if they had not finished in time
+	 */
+	public boolean waitForSyncs(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		try
+		{
+			submit(() -> {}).get(timeout, unit);
+			return true;
+		}
+		catch (ExecutionException e)
+		{
+			// nothing to fail
+			return true;
+		}
+		catch (TimeoutException e)
 		{
-			sb.append(line).append("\n");
+			return false;
 		}
+	}
 
-		return sb.toString();
+	/*-------------------------------------------------------------------------*/
+	private CompletableFuture<Void> submit(GitTask task)
+	{
+		return call(() ->
+		{
+			task.run();
+			return null;
+		});
 	}
- */
 
 	/*-------------------------------------------------------------------------*/
+	<T> CompletableFuture<T> call(Callable<T> task)
+	{
+		CompletableFuture<T> result = new CompletableFuture<>();
+		executor.execute(() ->
+		{
+			try
+			{
+				result.complete(task.call());
+			}
+			catch (Exception e)
+			{
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
 
+	/*-------------------------------------------------------------------------*/
 	/**
-	 * Interface to collect cmd output
+	 * Checks that the dir is a repo of its own, so that a sync never commits
+	 * to or resets a repo that merely contains it.
 	 */
-	public interface OutputCollector
+	private void checkRepo(File localRepo)
 	{
-		void append(String s);
+		if (!new File(localRepo, ".git").exists())
+		{
+			throw new BrewdayException("not a git repo: " + localRepo);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Commits whatever is staged.
+	 *
+	 * @return
+	 * 	true if there was anything to commit
+	 */
+	private boolean commit(File localRepo, String message,
+		OutputCollector outputCollector) throws IOException, InterruptedException
+	{
+		// exits with 1 if there are staged changes
+		if (runGit(localRepo, outputCollector, "diff", "--cached", "--quiet") == 0)
+		{
+			outputCollector.append("nothing to commit\n");
+			return false;
+		}
+
+		git(localRepo, outputCollector, "commit", "-m", message);
+		return true;
 	}
 
 	/*-------------------------------------------------------------------------*/
+	private static String[] withPaths(List<String> paths, String... args)
+	{
+		List<String> result = new ArrayList<>(Arrays.asList(args));
+		result.addAll(paths);
+		return result.toArray(new String[0]);
+	}
 
-	private static class Appender extends Thread
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs a git command, failing if it does not succeed.
+	 */
+	private void git(File workingDir, OutputCollector outputCollector,
+		String... args) throws IOException, InterruptedException
 	{
-		private final OutputCollector oc;
-		private final InputStream is;
+		int exit = runGit(workingDir, outputCollector, args);
+		if (exit != 0)
+		{
+			throw new BrewdayException("git " + String.join(" ", args) + " failed: " + exit);
+		}
+	}
 
-		public Appender(OutputCollector oc, InputStream is)
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs a git command that prints a single value, eg a revision.
+	 *
+	 * @return
+	 * 	the value, or null if the command did not succeed
+	 */
+	private String gitOutput(File workingDir, OutputCollector outputCollector,
+		String... args) throws IOException, InterruptedException
+	{
+		StringBuilder output = new StringBuilder();
+		if (runGit(workingDir, outputCollector, output::append, args) != 0)
 		{
-			this.oc = oc;
-			this.is = is;
+			return null;
 		}
 
-		@Override
-		public void run()
+		outputCollector.append(output.toString());
+		String result = output.toString().trim();
+		return result.isEmpty() ? null : result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs a git command to completion, copying its output to the collector.
+	 * The output is read on a thread of its own, so that a command that hangs
+	 * with its output open is still killed once it times out.
+	 *
+	 * @return
+	 * 	the exit status
+	 */
+	private int runGit(File workingDir, OutputCollector outputCollector,
+		String... args) throws IOException, InterruptedException
+	{
+		return runGit(workingDir, outputCollector, outputCollector, args);
+	}
+
+	/**
+	 * @param output
+	 * 	receives the output of the command, the collector only the command
+	 */
+	private int runGit(File workingDir, OutputCollector outputCollector,
+		OutputCollector output, String... args) throws IOException, InterruptedException
+	{
+		List<String> cmd = new ArrayList<>();
+		cmd.add("git");
+		cmd.addAll(Arrays.asList(args));
+
+		outputCollector.append(String.join(" ", cmd));
+		outputCollector.append("\n");
+
+		ProcessBuilder pb = new ProcessBuilder(cmd)
+			.directory(workingDir)
+			.redirectErrorStream(true);
+		// fail rather than wait for credentials that no one will type
+		pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+
+		Process p = pb.start();
+		p.getOutputStream().close();
+
+		Thread reader = new Thread(() ->
 		{
-			try
+			try (BufferedReader br = new BufferedReader(
+				new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8)))
 			{
-				InputStreamReader isr = new InputStreamReader(is);
-				BufferedReader br = new BufferedReader(isr);
-				String line = null;
+				String line;
 				while ((line = br.readLine()) != null)
 				{
-					oc.append(line);
-					oc.append("\n");
+					output.append(line);
+					output.append("\n");
 				}
 			}
-			catch (IOException ioe)
+			catch (IOException e)
 			{
-				throw new BrewdayException(ioe);
+				// the process was killed
 			}
+		}, "brewday-git-output");
+		reader.setDaemon(true);
+		reader.start();
+
+		try
+		{
+			waitFor(p, String.join(" ", args));
+		}
+		finally
+		{
+			// a helper left running by git, eg ssh, may hold the output open
+			reader.join(OUTPUT_TIMEOUT_MILLIS);
 		}
+		return p.exitValue();
 	}
 
 	/*-------------------------------------------------------------------------*/
+	private void waitFor(Process p, String command) throws InterruptedException
+	{
+		if (!p.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+		{
+			p.descendants().forEach(ProcessHandle::destroyForcibly);
+			p.destroyForcibly();
+			throw new BrewdayException("git " + command + " timed out");
+		}
+	}
 
-	public static void main(String[] args)
+	/*-------------------------------------------------------------------------*/
+
+	/**
+	 * Interface to collect cmd output
+	 */
+	public interface OutputCollector
 	{
-		Database.getInstance().loadAll();
-		GitBackend b = new GitBackend();
+		void append(String s);
+	}
 
-		b.enable(new File(args[0]), "https://github.com/alan-mcl/brewday_data_test.git", System.out::println);
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * The revisions of a three-way merge.
+	 */
+	public static class Revisions
+	{
+		private final String base, local, remote;
 
-		b.syncToRemote(new File(args[0]), System.out::println);
+		public Revisions(String base, String local, String remote)
+		{
+			this.base = base;
+			this.local = local;
+			this.remote = remote;
+		}
+
+		/**
+		 * @return
+		 * 	the common ancestor, or null if there is none
+		 */
+		public String getBase()
+		{
+			return base;
+		}
+
+		public String getLocal()
+		{
+			return local;
+		}
+
+		/**
+		 * @return
+		 * 	the fetched remote branch, or null if there is none
+		 */
+		public String getRemote()
+		{
+			return remote;
+		}
+
+		/**
+		 * @return
+		 * 	true if the remote has nothing that the local repo does not
+		 */
+		public boolean isUpToDate()
+		{
+			return remote == null || remote.equals(base) || remote.equals(local);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private interface GitTask
+	{
+		void run() throws Exception;
 	}
 }
@@ -0,0 +1,275 @@
+/*
+ * This file is part of brewday.
+ *
+ * brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.backends.git;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.BatchSerialiser;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.v2.JournalMapSilo;
+import mclachlan.brewday.db.v2.MappedMapSilo;
+import mclachlan.brewday.db.v2.SimpleMapSilo;
+import mclachlan.brewday.db.v2.V2LazyMap;
+import mclachlan.brewday.db.v2.V2Merge;
+import mclachlan.brewday.db.v2.V2Schema;
+import mclachlan.brewday.db.v2.V2Utils;
+
+/**
+ * Three-way merges the db files between the revisions of a
+ * {@link GitBackend#fetch}, object by object. An object changed only
+ * remotely is taken from the remote; one changed differently on both sides
+ * is a conflict, and the local version is kept.
+ * <p>
+ * Only reads the revisions: the caller writes the changes into the db
+ * between {@link GitBackend#startMerge} and {@link GitBackend#finishMerge}.
+ */
+public class GitMerge
+{
+	private final GitBackend gitBackend;
+	private final File repo;
+	private final Database db;
+
+	// file name -> object name -> merged object, or null to remove it
+	private final Map<String, Map<String, Object>> changes = new LinkedHashMap<>();
+	// kind of object -> names of the conflicting objects
+	private final Map<String, Set<String>> conflicts = new TreeMap<>();
+
+	/*-------------------------------------------------------------------------*/
+	public GitMerge(GitBackend gitBackend, File repo, Database db)
+	{
+		this.gitBackend = gitBackend;
+		this.repo = repo;
+		this.db = db;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Fetches the remote and merges each map silo and then the settings, all
+	 * on the git thread. Leaves the db alone.
+	 *
+	 * @param silos
+	 * 	the map silos by file, in an order in which each object is merged
+	 * 	after the objects it refers to
+	 * @return
+	 * 	completes with false if the local repo was already up to date, and
+	 * 	there is nothing to merge
+	 */
+	public CompletableFuture<Boolean> fetchAndMerge(String remoteRepo,
+		Map<String, SimpleMapSilo<?>> silos,
+		GitBackend.OutputCollector outputCollector)
+	{
+		return gitBackend.call(() ->
+		{
+			GitBackend.Revisions revisions =
+				gitBackend.fetchNow(repo, remoteRepo, outputCollector);
+			if (revisions.isUpToDate())
+			{
+				return false;
+			}
+			merge(revisions, silos);
+			return true;
+		});
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void merge(GitBackend.Revisions revisions,
+		Map<String, SimpleMapSilo<?>> silos) throws IOException, InterruptedException
+	{
+		File temp = Files.createTempDirectory("brewday_merge").toFile();
+		try
+		{
+			for (Map.Entry<String, SimpleMapSilo<?>> e : silos.entrySet())
+			{
+				String fileName = e.getKey();
+				add(fileName, new V2Merge(
+					readRevision(revisions.getBase(), fileName, e.getValue(), temp),
+					readRevision(revisions.getLocal(), fileName, e.getValue(), temp),
+					readRevision(revisions.getRemote(), fileName, e.getValue(), temp)));
+			}
+
+			add(Database.SETTINGS_JSON, new V2Merge(
+				readSettings(revisions.getBase(), temp),
+				readSettings(revisions.getLocal(), temp),
+				readSettings(revisions.getRemote(), temp)));
+		}
+		finally
+		{
+			for (File f : temp.listFiles())
+			{
+				f.delete();
+			}
+			temp.delete();
+		}
+	}
+
+	private void add(String fileName, V2Merge merge)
+	{
+		changes.put(fileName, merge.getChanges());
+		if (!merge.getConflicts().isEmpty())
+		{
+			conflicts.put(Database.getSiloName(fileName), merge.getConflicts());
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the merged objects to write for the given file: serialised objects,
+	 * 	or setting values, by name, and null for the ones to remove
+	 */
+	public Map<String, Object> getChanges(String fileName)
+	{
+		return changes.get(fileName);
+	}
+
+	/**
+	 * @return
+	 * 	the conflicts: kind of object (e.g. "recipes") to the names of the
+	 * 	objects. Empty if there were none.
+	 */
+	public Map<String, Set<String>> getConflicts()
+	{
+		return conflicts;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the merge commit message, listing the conflicts
+	 */
+	public String getCommitMessage(GitBackend.OutputCollector outputCollector)
+	{
+		StringBuilder message = new StringBuilder(GitBackend.MERGE_MESSAGE);
+		if (!conflicts.isEmpty())
+		{
+			message.append("\n\nconflicts, kept local:");
+			for (Map.Entry<String, Set<String>> e : conflicts.entrySet())
+			{
+				String conflict = e.getKey() + ": " + String.join(", ", e.getValue());
+				message.append("\n").append(conflict);
+				outputCollector.append("conflict, kept local " + conflict + "\n");
+			}
+		}
+		return message.toString();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Reads a map silo, and its journal if it has one, as it was at the given
+	 * git revision. Batches are read from the mapped data file instead if
+	 * the revision has one.
+	 *
+	 * @param revision
+	 * 	the revision, or null for none
+	 * @return
+	 * 	the serialised objects by name, empty if the silo did not exist
+	 */
+	private Map<String, Map> readRevision(String revision, String fileName,
+		SimpleMapSilo<?> silo, File temp) throws IOException, InterruptedException
+	{
+		Map<String, Map> result = new HashMap<>();
+		if (revision == null)
+		{
+			return result;
+		}
+
+		if (Database.BATCHES_JSON.equals(fileName))
+		{
+			File dat = new File(temp, Database.BATCHES_DAT);
+			if (gitBackend.exportFileNow(repo, revision, Database.BATCHES_DAT, dat))
+			{
+				MappedMapSilo<Batch> mapped = new MappedMapSilo<>(new BatchSerialiser(), dat, 1);
+				mapped.setSchema(silo.getSchema());
+				try
+				{
+					V2LazyMap<Batch> map = (V2LazyMap<Batch>)mapped.load(db);
+					for (String name : map.keySet())
+					{
+						result.put(name, map.getSerialised(name));
+					}
+				}
+				finally
+				{
+					mapped.close();
+				}
+				return result;
+			}
+		}
+
+		int[] generation = {0};
+		File json = new File(temp, fileName);
+		if (gitBackend.exportFileNow(repo, revision, fileName, json))
+		{
+			try (BufferedReader reader = getFileReader(json))
+			{
+				result = silo.readSerialised(reader, db,
+					header -> generation[0] = V2Schema.getJournalGeneration(header));
+			}
+		}
+
+		String journalName =
+			Database.RECIPES_JSON.equals(fileName) ? Database.RECIPES_JOURNAL :
+			Database.BATCHES_JSON.equals(fileName) ? Database.BATCHES_JOURNAL : null;
+		File journal = journalName == null ? null : new File(temp, journalName);
+		if (journal != null && gitBackend.exportFileNow(repo, revision, journalName, journal))
+		{
+			try (BufferedReader reader = getFileReader(journal))
+			{
+				JournalMapSilo.replayJournal(reader, revision + ":" + journalName,
+					silo.getSchema(), generation[0], result);
+			}
+		}
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the settings as they were at the given git revision, empty if there
+	 * 	were none
+	 */
+	private Map<String, Object> readSettings(String revision,
+		File temp) throws IOException, InterruptedException
+	{
+		File json = new File(temp, Database.SETTINGS_JSON);
+		if (revision == null ||
+			!gitBackend.exportFileNow(repo, revision, Database.SETTINGS_JSON, json))
+		{
+			return new HashMap<>();
+		}
+
+		try (BufferedReader reader = getFileReader(json))
+		{
+			return V2Utils.getMap(reader);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static BufferedReader getFileReader(File file) throws FileNotFoundException
+	{
+		return new BufferedReader(
+			new InputStreamReader(
+				new FileInputStream(file),
+				StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import mclachlan.brewday.Brewday;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.util.Log;
+
+/**
+ * A map silo backed by a snapshot file plus an append-only journal. Each
+ * save appends one JSON record per added, changed or removed object to the
+ * journal; the snapshot is only rewritten when the journal is compacted.
+ * Loading reads the snapshot and then replays the journal over it.
+ * <p>
+ * Each compaction writes the snapshot with the next journal generation in
+ * its header, and each journal record carries the generation of the
+ * snapshot it was written against. Records from an older generation are
+ * already absorbed into the snapshot and are skipped on replay, so a crash
+ * between moving a new snapshot into place and deleting the old journal
+ * does not undo later changes. Each record also carries the schema version
+ * of its object, see {@link V2Schema}.
+ * <p>
+ * A crash part way through an append can leave a torn record at the end of
+ * the journal. It is cut off when the journal is next loaded.
+ */
+public class JournalMapSilo<V extends V2DataObject> extends SimpleMapSilo<V>
+{
+	private static final String OP = "op";
+	private static final String PUT = "put";
+	private static final String REMOVE = "remove";
+	private static final String NAME = "name";
+	private static final String OBJ = "obj";
+
+	private final File journalFile;
+	private final int maxJournalRecords;
+	private static final Gson GSON = new Gson();
+
+	/** records in the journal file */
+	private int journalRecords;
+
+	/** journal generation of the snapshot on disk */
+	private int generation;
+
+	/** staged by the last save, applied on commit */
+	private int pendingRecords;
+	private boolean pendingCompaction;
+	private int pendingGeneration;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param journalFile
+	 * 	the journal file, beside the snapshot
+	 * @param maxJournalRecords
+	 * 	the journal is compacted into the snapshot once it would exceed this
+	 * 	many records. Zero disables journaling, every save rewrites the
+	 * 	snapshot.
+	 */
+	public JournalMapSilo(
+		V2SerialiserMap<V> serialiser,
+		File journalFile,
+		int maxJournalRecords)
+	{
+		super(serialiser);
+		this.journalFile = journalFile;
+		this.maxJournalRecords = maxJournalRecords;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public Map<String, V> load(BufferedReader reader,
+		Database db) throws IOException
+	{
+		generation = 0;
+		Map<String, V> result = super.load(reader, db);
+		Map<String, String> fingerprints = getFingerprints();
+
+		journalRecords = 0;
+		pendingRecords = 0;
+		pendingCompaction = false;
+
+		if (!journalFile.exists())
+		{
+			return result;
+		}
+
+		truncateTornRecord();
+
+		try (BufferedReader journal = new BufferedReader(
+			new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8)))
+		{
+			journalRecords = readJournal(journal, journalFile.toString(), generation,
+				(name, obj, version) ->
+				{
+					if (obj != null)
+					{
+						putLoaded(result, fingerprints, obj, version, db);
+					}
+					else
+					{
+						result.remove(name);
+						fingerprints.remove(name);
+					}
+				});
+		}
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	protected void loadedHeader(Map header)
+	{
+		generation = V2Schema.getJournalGeneration(header);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	protected Map<String, ?> getHeaderFields()
+	{
+		return pendingGeneration > 0 ?
+			Collections.singletonMap(V2Schema.JOURNAL_GENERATION, pendingGeneration) :
+			Collections.emptyMap();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Cuts off anything after the last complete record in the journal, ie
+	 * a torn append from a crash, so that the next append does not run on
+	 * from it.
+	 */
+	private void truncateTornRecord() throws IOException
+	{
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw"))
+		{
+			long length = file.length();
+			long end = length;
+			while (end > 0)
+			{
+				file.seek(end - 1);
+				if (file.read() == '\n')
+				{
+					break;
+				}
+				end--;
+			}
+
+			if (end < length)
+			{
+				Brewday.getInstance().getLog().log(Log.LOUD,
+					"truncating torn journal record " + journalFile + " at " + end);
+				file.setLength(end);
+				file.getFD().sync();
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Replays a journal over serialised objects, eg as read by
+	 * {@link #readSerialised}.
+	 *
+	 * @param generation
+	 * 	the journal generation in the header of the snapshot the objects were
+	 * 	read from, see {@link V2Schema#getJournalGeneration}
+	 * @param schema
+	 * 	upgrades the objects recorded at older versions
+	 * @param objects
+	 * 	serialised objects by name, updated in place
+	 */
+	public static void replayJournal(BufferedReader journal, String source,
+		V2Schema schema, int generation, Map<String, Map> objects) throws IOException
+	{
+		readJournal(journal, source, generation, (name, obj, version) ->
+		{
+			if (obj != null)
+			{
+				objects.put(name, schema.upgrade(obj, version));
+			}
+			else
+			{
+				objects.remove(name);
+			}
+		});
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Passes each journal record to the consumer in order: the object name,
+	 * the serialised object or null for a removal, and the schema version
+	 * it was recorded at. Records from before the given generation are
+	 * skipped. A corrupt last record, torn by a crash mid-append, is ignored;
+	 * a corrupt record anywhere else throws a {@link V2Exception}.
+	 *
+	 * @return
+	 * 	the number of records in the journal, including the skipped ones
+	 */
+	private static int readJournal(BufferedReader journal, String source,
+		int generation, RecordConsumer consumer) throws IOException
+	{
+		String line;
+		int lineNr = 0;
+		int records = 0;
+		while ((line = journal.readLine()) != null)
+		{
+			lineNr++;
+			if (line.isBlank())
+			{
+				continue;
+			}
+
+			Map record;
+			try
+			{
+				record = GSON.fromJson(line, Map.class);
+			}
+			catch (JsonSyntaxException e)
+			{
+				String next;
+				while ((next = journal.readLine()) != null)
+				{
+					if (!next.isBlank())
+					{
+						// records after it were written, so this was not torn
+						throw new V2Exception("corrupt journal record " + source + ":" + lineNr, e);
+					}
+				}
+
+				// a torn write at the end of the journal, from a crash mid-append
+				Brewday.getInstance().getLog().log(Log.LOUD,
+					"ignoring corrupt journal record " + source + ":" + lineNr);
+				break;
+			}
+
+			records++;
+			if (V2Schema.getJournalGeneration(record) < generation)
+			{
+				// already absorbed into the snapshot
+				continue;
+			}
+
+			String name = (String)record.get(NAME);
+			if (PUT.equals(record.get(OP)))
+			{
+				consumer.accept(name, (Map)record.get(OBJ), V2Schema.getVersion(record));
+			}
+			else if (REMOVE.equals(record.get(OP)))
+			{
+				consumer.accept(name, null, V2Schema.getVersion(record));
+			}
+			else
+			{
+				throw new V2Exception("invalid journal record " + source + ":" + lineNr);
+			}
+		}
+
+		return records;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public boolean isDirty(Map<String, V> map, Database db)
+	{
+		// a full save compacts the journal, so the snapshot must be rewritten
+		// to absorb it even if nothing has changed since the last save
+		return journalRecords > 0 || journalFile.exists() || super.isDirty(map, db);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes a full snapshot, which compacts the journal on commit. The
+	 * snapshot starts the next journal generation if journaling is on or
+	 * there is a journal to absorb.
+	 */
+	@Override
+	public void save(BufferedWriter writer, Map<String, V> map,
+		Database db) throws IOException
+	{
+		pendingGeneration = maxJournalRecords > 0 || journalFile.exists() ?
+			generation + 1 : 0;
+		super.save(writer, map, db);
+		pendingRecords = 0;
+		pendingCompaction = true;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Marshals the changes since the last load or commit as journal records.
+	 * Call {@link #appendJournal} to write them and {@link #commit()} once
+	 * they are on disk.
+	 *
+	 * @return
+	 * 	the records to append, empty if nothing has changed, or null if the
+	 * 	journal is due for compaction and the silo should be saved in full
+	 * 	with {@link #save}
+	 */
+	public String getJournalRecords(Map<String, V> map, Database db)
+	{
+		Map<String, String> fingerprints = getFingerprints();
+		if (fingerprints == null || maxJournalRecords <= 0)
+		{
+			return null;
+		}
+
+		StringBuilder records = new StringBuilder();
+		Map<String, String> current = new HashMap<>();
+		int count = 0;
+
+		for (Map.Entry<String, Map> e : serialised(map, db))
+		{
+			String fingerprint = fingerprint(map, e.getKey(), e.getValue());
+			current.put(e.getKey(), fingerprint);
+
+			if (!fingerprint.equals(fingerprints.get(e.getKey())))
+			{
+				Map<String, Object> record = new LinkedHashMap<>();
+				record.put(OP, PUT);
+				record.put(NAME, e.getKey());
+				record.put(V2Schema.JOURNAL_GENERATION, generation);
+				getSchema().stamp(record);
+				record.put(OBJ, e.getValue());
+				records.append(GSON.toJson(record)).append('\n');
+				count++;
+			}
+		}
+
+		for (String name : fingerprints.keySet())
+		{
+			if (!current.containsKey(name))
+			{
+				Map<String, Object> record = new LinkedHashMap<>();
+				record.put(OP, REMOVE);
+				record.put(NAME, name);
+				record.put(V2Schema.JOURNAL_GENERATION, generation);
+				records.append(GSON.toJson(record)).append('\n');
+				count++;
+			}
+		}
+
+		if (journalRecords + count > maxJournalRecords)
+		{
+			return null;
+		}
+
+		setPendingFingerprints(current);
+		pendingRecords = count;
+		pendingCompaction = false;
+
+		return records.toString();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Appends the given records to the journal and forces them to disk. On
+	 * failure the journal is truncated back to its previous length. If the
+	 * journal does not end with a complete record, the torn record is cut
+	 * off first, so that only its last record can ever be corrupt.
+	 */
+	public void appendJournal(String records) throws IOException
+	{
+		if (journalFile.exists())
+		{
+			truncateTornRecord();
+		}
+		long length = journalFile.length();
+
+		try (FileOutputStream out = new FileOutputStream(journalFile, true))
+		{
+			try
+			{
+				out.write(records.getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				out.getFD().sync();
+			}
+			catch (IOException e)
+			{
+				out.getChannel().truncate(length);
+				throw e;
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public void commit()
+	{
+		super.commit();
+
+		if (pendingCompaction)
+		{
+			// the snapshot now holds everything in the journal
+			if (journalFile.exists() && !journalFile.delete())
+			{
+				throw new V2Exception("can't delete journal " + journalFile);
+			}
+			journalRecords = 0;
+			generation = pendingGeneration;
+		}
+		else
+		{
+			journalRecords += pendingRecords;
+		}
+
+		pendingRecords = 0;
+		pendingCompaction = false;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public void invalidate()
+	{
+		super.invalidate();
+		pendingRecords = 0;
+		pendingCompaction = false;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private interface RecordConsumer
+	{
+		void accept(String name, Map obj, int version);
+	}
+}
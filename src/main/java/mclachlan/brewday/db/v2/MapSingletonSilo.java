@@ -17,6 +17,7 @@
 
 package mclachlan.brewday.db.v2;
 
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.util.Map;
 import java.io.BufferedReader;
@@ -28,16 +29,61 @@ import mclachlan.brewday.db.Database;
  */
 public class MapSingletonSilo implements V2SiloSingleton<Map>
 {
+	/** fingerprint as last loaded or saved, null if unknown */
+	private String fingerprint;
+	private String pendingFingerprint;
+
 	@Override
 	public Map load(BufferedReader reader,
 		Database database) throws IOException
 	{
-		return (Map)V2Utils.getMap(reader);
+		Map result = V2Utils.getMap(reader);
+		fingerprint = V2Utils.fingerprint(result);
+		pendingFingerprint = null;
+		return result;
 	}
 
+	/**
+	 * Call {@link #commit()} once the written data is safely on disk.
+	 */
 	@Override
 	public void save(BufferedWriter writer, Map obj) throws IOException
 	{
-		V2Utils.writeJson((Map)obj, writer);
+		JsonWriter jsonWriter = V2Utils.getJsonWriter(writer);
+		V2Utils.writeObject(obj, jsonWriter);
+		jsonWriter.flush();
+
+		pendingFingerprint = V2Utils.fingerprint(obj);
+	}
+
+	/**
+	 * @return
+	 * 	true if this silo has changed since it was last loaded or committed
+	 */
+	public boolean isDirty(Map obj)
+	{
+		return !V2Utils.fingerprint(obj).equals(fingerprint);
+	}
+
+	/**
+	 * Accepts the state marshalled by the last {@link #save} as the state on
+	 * disk.
+	 */
+	public void commit()
+	{
+		if (pendingFingerprint != null)
+		{
+			fingerprint = pendingFingerprint;
+			pendingFingerprint = null;
+		}
+	}
+
+	/**
+	 * Forgets the state on disk, so that the next save always writes.
+	 */
+	public void invalidate()
+	{
+		fingerprint = null;
+		pendingFingerprint = null;
 	}
 }
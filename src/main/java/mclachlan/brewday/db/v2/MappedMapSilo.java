@@ -0,0 +1,761 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import mclachlan.brewday.Brewday;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.util.Log;
+
+/**
+ * A map silo that stores each object as a record in a data file, so that
+ * one object can be read or replaced without touching the others.
+ * <p>
+ * A changed object is appended as a new record and its old record is marked
+ * dead; a removed object's record is marked dead. Loading scans only the
+ * record headers to build an index of name to offset, and returns a
+ * {@link V2LazyMap} that reads each body from the file on first use.
+ * Records are read with positional reads rather than through a memory
+ * mapping, since a mapped file can't be truncated or replaced on Windows
+ * until the mapping is garbage collected.
+ * Saving appends only the objects that have changed. The file is compacted
+ * when dead records outweigh live ones.
+ * <p>
+ * Record layout: length (of the rest of the record), CRC32 (of name,
+ * fingerprint and body), status, name, fingerprint, JSON body. The body is
+ * stamped with its schema version, see {@link V2Schema}, and the
+ * fingerprint is of the body without the stamp. If a crash
+ * leaves two live records for one object, the later one wins. A torn record
+ * at the end of the file is discarded.
+ * <p>
+ * The {@link V2SiloMap} methods read and write the usual JSON array, for
+ * importing and exporting.
+ */
+public class MappedMapSilo<V extends V2DataObject> implements V2SiloMap<V>
+{
+	private static final int MAGIC = 0x42444D31; // "BDM1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte DEAD = 0;
+	private static final byte LIVE = 1;
+
+	/** offset of the status byte within a record */
+	private static final int STATUS_OFFSET = 8;
+
+	/** don't bother compacting files with less dead space than this */
+	private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+	private final V2SerialiserMap<V> serialiser;
+	private final File dataFile;
+	private final int maxCached;
+	private final Gson gson = new Gson();
+	private V2Schema schema = new V2Schema();
+
+	private FileChannel channel;
+
+	/** live records by object name */
+	private Map<String, Record> index;
+	private long fileLength, liveBytes, deadBytes;
+
+	/** staged by the last {@link #stage}, written by {@link #write} */
+	private List<byte[]> pendingRecords = new ArrayList<>();
+	private List<String> pendingNames = new ArrayList<>();
+	private Set<String> pendingRemovals = new HashSet<>();
+
+	/** written by the last {@link #write}, applied to the index on commit */
+	private Map<String, Record> writtenRecords = new HashMap<>();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param maxCached
+	 * 	how many objects the loaded map keeps deserialised
+	 */
+	public MappedMapSilo(
+		V2SerialiserMap<V> serialiser,
+		File dataFile,
+		int maxCached)
+	{
+		this.serialiser = serialiser;
+		this.dataFile = dataFile;
+		this.maxCached = maxCached;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public void setSchema(V2Schema schema)
+	{
+		this.schema = schema;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Reads a JSON array of objects, eg for importing into this silo.
+	 */
+	@Override
+	public Map<String, V> load(BufferedReader reader,
+		Database db) throws IOException
+	{
+		Map<String, V> result = new HashMap<>();
+		V2Schema.readObjects(reader, (map, version) ->
+		{
+			V v = (V)serialiser.fromMap(schema.upgrade(map, version), db);
+			result.put(v.getName(), v);
+		});
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes the objects as a JSON array, eg for exporting from this silo.
+	 */
+	@Override
+	public void save(BufferedWriter writer, Map<String, V> map,
+		Database db) throws IOException
+	{
+		JsonWriter jsonWriter = V2Utils.getJsonWriter(writer);
+		jsonWriter.beginArray();
+		schema.writeHeader(jsonWriter);
+		for (V v : map.values())
+		{
+			V2Utils.writeObject(serialiser.toMap(v, db), jsonWriter);
+		}
+		jsonWriter.endArray();
+		jsonWriter.flush();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	true if the data file exists
+	 */
+	public boolean exists()
+	{
+		return dataFile.exists();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Opens the data file, creating it if need be, and indexes it.
+	 *
+	 * @return
+	 * 	a map that reads each object from the data file on first use
+	 */
+	public synchronized Map<String, V> load(Database db) throws IOException
+	{
+		open();
+
+		V2LazyMap<V> result = new V2LazyMap<>(serialiser, db, maxCached, this::readBody);
+		for (String name : index.keySet())
+		{
+			result.putUnloaded(name);
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Creates the data file holding the given objects, eg when first
+	 * importing them. The file is written in full before it is moved into
+	 * place, so a failed import leaves no data file behind.
+	 */
+	public synchronized void create(Map<String, V> map, Database db) throws IOException
+	{
+		close();
+
+		File temp = new File(dataFile.getPath() + ".tmp");
+		try
+		{
+			try (FileChannel out = FileChannel.open(temp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE))
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				out.write(header);
+
+				for (V v : map.values())
+				{
+					Map serialised = serialiser.toMap(v, db);
+					ByteBuffer record = ByteBuffer.wrap(
+						encode(v.getName(), V2Utils.fingerprint(serialised), serialised));
+					while (record.hasRemaining())
+					{
+						out.write(record);
+					}
+				}
+				out.force(true);
+			}
+
+			moveIntoPlace(temp);
+		}
+		finally
+		{
+			temp.delete();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Marshals the objects that have been added or changed since the last
+	 * load or commit, and notes those that have been removed. Call
+	 * {@link #write} to write them and {@link #commit()} once they are on
+	 * disk.
+	 *
+	 * @return
+	 * 	true if there is anything to write
+	 */
+	public synchronized boolean stage(Map<String, V> map, Database db)
+	{
+		pendingRecords.clear();
+		pendingNames.clear();
+		pendingRemovals.clear();
+
+		V2LazyMap<V> lazyMap = map instanceof V2LazyMap ? (V2LazyMap<V>)map : null;
+
+		for (Map.Entry<String, V> e : map.entrySet())
+		{
+			String name = e.getKey();
+			if (lazyMap != null && lazyMap.isPristine(name) && index.containsKey(name))
+			{
+				// untouched since it was read from this file
+				continue;
+			}
+
+			Map serialised = lazyMap != null ?
+				lazyMap.getSerialised(name) : serialiser.toMap(e.getValue(), db);
+			String fingerprint = V2Utils.fingerprint(serialised);
+
+			Record current = index.get(name);
+			if (current == null || !current.fingerprint.equals(fingerprint))
+			{
+				pendingRecords.add(encode(name, fingerprint, serialised));
+				pendingNames.add(name);
+			}
+		}
+
+		for (String name : index.keySet())
+		{
+			if (!map.containsKey(name))
+			{
+				pendingRemovals.add(name);
+			}
+		}
+
+		return !pendingRecords.isEmpty() || !pendingRemovals.isEmpty();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the names of the objects added, changed or removed by the last
+	 * 	{@link #stage}
+	 */
+	public synchronized Set<String> getPendingChanges()
+	{
+		Set<String> result = new TreeSet<>(pendingNames);
+		result.addAll(pendingRemovals);
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Appends the staged records and forces them to disk, then marks the
+	 * records they replace dead.
+	 */
+	public synchronized void write() throws IOException
+	{
+		writtenRecords.clear();
+
+		long position = fileLength;
+		for (int i=0; i<pendingRecords.size(); i++)
+		{
+			byte[] record = pendingRecords.get(i);
+			writeFully(ByteBuffer.wrap(record), position);
+
+			String name = pendingNames.get(i);
+			String fingerprint = decodeFingerprint(record);
+			writtenRecords.put(name, new Record(position, record.length, fingerprint));
+			position += record.length;
+		}
+		channel.force(false);
+
+		for (String name : writtenRecords.keySet())
+		{
+			markDead(index.get(name));
+		}
+		for (String name : pendingRemovals)
+		{
+			markDead(index.get(name));
+		}
+		channel.force(false);
+
+		fileLength = position;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Accepts the records written by the last {@link #write} as the state on
+	 * disk, compacting the data file if it is mostly dead records.
+	 */
+	public synchronized void commit()
+	{
+		for (Map.Entry<String, Record> e : writtenRecords.entrySet())
+		{
+			Record old = index.put(e.getKey(), e.getValue());
+			if (old != null)
+			{
+				liveBytes -= old.length;
+				deadBytes += old.length;
+			}
+			liveBytes += e.getValue().length;
+		}
+		for (String name : pendingRemovals)
+		{
+			Record old = index.remove(name);
+			if (old != null)
+			{
+				liveBytes -= old.length;
+				deadBytes += old.length;
+			}
+		}
+
+		writtenRecords.clear();
+		pendingRecords.clear();
+		pendingNames.clear();
+		pendingRemovals.clear();
+
+		if (deadBytes > MIN_COMPACTION_BYTES && deadBytes > liveBytes)
+		{
+			try
+			{
+				compact();
+			}
+			catch (IOException e)
+			{
+				// the uncompacted file is still good
+				Brewday.getInstance().getLog().log(Log.MEDIUM, "can't compact " + dataFile);
+				Brewday.getInstance().getLog().log(Log.MEDIUM, e);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Forgets the staged changes and re-reads the index from disk, so that
+	 * the next {@link #stage} compares against what is actually there.
+	 */
+	public synchronized void invalidate()
+	{
+		writtenRecords.clear();
+		pendingRecords.clear();
+		pendingNames.clear();
+		pendingRemovals.clear();
+
+		try
+		{
+			open();
+		}
+		catch (IOException e)
+		{
+			throw new V2Exception(e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public synchronized void close() throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+			channel = null;
+			index = null;
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void open() throws IOException
+	{
+		close();
+
+		boolean created = !dataFile.exists();
+		channel = FileChannel.open(dataFile.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		if (created || channel.size() == 0)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(header, 0);
+			channel.force(false);
+		}
+
+		scan();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Builds the index from the record headers, and truncates a torn record
+	 * from the end of the file.
+	 */
+	private void scan() throws IOException
+	{
+		index = new HashMap<>();
+		liveBytes = 0;
+		deadBytes = 0;
+		fileLength = channel.size();
+
+		ByteBuffer header = fileLength < HEADER_SIZE ? null : read(0, HEADER_SIZE);
+		if (header == null ||
+			header.getInt(0) != MAGIC ||
+			header.getInt(4) != VERSION)
+		{
+			throw new V2Exception("not a brewday data file: " + dataFile);
+		}
+
+		long position = HEADER_SIZE;
+		while (position < fileLength)
+		{
+			Record record = readHeader(position);
+			if (record == null)
+			{
+				break;
+			}
+
+			boolean live = record.live;
+			boolean lastRecord = position + record.length == fileLength;
+			boolean replacement = live && index.containsKey(record.name);
+
+			// only records appended by a save that did not complete can be
+			// torn. Check the ones that matter without reading every body
+			if ((lastRecord || replacement) && !checkCrc(record))
+			{
+				if (lastRecord)
+				{
+					break;
+				}
+				live = false;
+			}
+
+			if (live)
+			{
+				Record old = index.put(record.name, record);
+				if (old != null)
+				{
+					// a crash between appending a record and killing the old one
+					markDead(old);
+					liveBytes -= old.length;
+					deadBytes += old.length;
+				}
+				liveBytes += record.length;
+			}
+			else
+			{
+				deadBytes += record.length;
+			}
+
+			position += record.length;
+		}
+
+		if (position < fileLength)
+		{
+			Brewday.getInstance().getLog().log(Log.LOUD,
+				"discarding torn record at " + dataFile + ":" + position);
+			channel.truncate(position);
+			channel.force(false);
+			fileLength = position;
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the record at the given offset, or null if it runs past the end of the
+	 * 	file
+	 */
+	private Record readHeader(long position) throws IOException
+	{
+		if (position + STATUS_OFFSET + 3 > fileLength)
+		{
+			return null;
+		}
+
+		ByteBuffer fixed = read(position, STATUS_OFFSET + 3);
+		int length = fixed.getInt(0);
+		if (length < STATUS_OFFSET + 4 || position + length > fileLength)
+		{
+			return null;
+		}
+
+		int nameLength = fixed.getShort(STATUS_OFFSET + 1) & 0xFFFF;
+		if (STATUS_OFFSET + 4 + nameLength > length)
+		{
+			return null;
+		}
+
+		ByteBuffer names = read(position + STATUS_OFFSET + 3, nameLength + 1);
+		int fingerprintLength = names.get(nameLength) & 0xFF;
+		if (STATUS_OFFSET + 4 + nameLength + fingerprintLength > length)
+		{
+			return null;
+		}
+
+		String name = new String(names.array(), 0, nameLength, StandardCharsets.UTF_8);
+		String fingerprint = new String(
+			read(position + STATUS_OFFSET + 4 + nameLength, fingerprintLength).array(),
+			StandardCharsets.UTF_8);
+
+		Record result = new Record(position, length, fingerprint);
+		result.name = name;
+		result.live = fixed.get(STATUS_OFFSET) == LIVE;
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Reads an object's body from the data file, upgraded to the current
+	 * schema version.
+	 */
+	private synchronized Map readBody(String name)
+	{
+		Record record = index.get(name);
+		if (record == null)
+		{
+			return null;
+		}
+
+		ByteBuffer bytes;
+		try
+		{
+			bytes = read(record.offset, record.length);
+		}
+		catch (IOException e)
+		{
+			throw new V2Exception(e);
+		}
+
+		if (!checkCrc(bytes))
+		{
+			throw new V2Exception("corrupt record " + dataFile + ":" + record.offset);
+		}
+
+		int nameLength = bytes.getShort(STATUS_OFFSET + 1) & 0xFFFF;
+		int fingerprintLength = bytes.get(STATUS_OFFSET + 3 + nameLength) & 0xFF;
+		int bodyOffset = STATUS_OFFSET + 4 + nameLength + fingerprintLength;
+
+		String json = new String(bytes.array(), bodyOffset,
+			record.length - bodyOffset, StandardCharsets.UTF_8);
+		Map body = gson.fromJson(json, Map.class);
+		int version = V2Schema.getVersion(body);
+		body.remove(V2Schema.SCHEMA_VERSION);
+		if (version == schema.getVersion())
+		{
+			return body;
+		}
+
+		// so that the record only counts as changed if it is changed after loading
+		body = schema.upgrade(body, version);
+		Record upgraded = new Record(record.offset, record.length, V2Utils.fingerprint(body));
+		upgraded.name = record.name;
+		index.put(name, upgraded);
+		return body;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private boolean checkCrc(Record record) throws IOException
+	{
+		return checkCrc(read(record.offset, record.length));
+	}
+
+	/**
+	 * @param record
+	 * 	the bytes of a whole record
+	 */
+	private static boolean checkCrc(ByteBuffer record)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), STATUS_OFFSET + 1, record.capacity() - STATUS_OFFSET - 1);
+
+		return (int)crc.getValue() == record.getInt(4);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private byte[] encode(String name, String fingerprint, Map serialised)
+	{
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] fingerprintBytes = fingerprint.getBytes(StandardCharsets.UTF_8);
+		Map stamped = new LinkedHashMap(serialised);
+		schema.stamp(stamped);
+		byte[] body = gson.toJson(stamped).getBytes(StandardCharsets.UTF_8);
+
+		if (nameBytes.length > 0xFFFF)
+		{
+			throw new V2Exception("name too long: " + name);
+		}
+
+		int length = STATUS_OFFSET + 4 + nameBytes.length + fingerprintBytes.length + body.length;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(length);
+		buffer.putInt(0); // crc, filled in below
+		buffer.put(LIVE);
+		buffer.putShort((short)nameBytes.length);
+		buffer.put(nameBytes);
+		buffer.put((byte)fingerprintBytes.length);
+		buffer.put(fingerprintBytes);
+		buffer.put(body);
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), STATUS_OFFSET + 1, length - STATUS_OFFSET - 1);
+		buffer.putInt(4, (int)crc.getValue());
+
+		return buffer.array();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private String decodeFingerprint(byte[] record)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		int nameLength = buffer.getShort(STATUS_OFFSET + 1) & 0xFFFF;
+		int fingerprintLength = buffer.get(STATUS_OFFSET + 3 + nameLength) & 0xFF;
+		return new String(record, STATUS_OFFSET + 4 + nameLength,
+			fingerprintLength, StandardCharsets.UTF_8);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void markDead(Record record) throws IOException
+	{
+		if (record != null)
+		{
+			writeFully(ByteBuffer.wrap(new byte[]{DEAD}), record.offset + STATUS_OFFSET);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Copies the live records to a new file and swaps it into place.
+	 */
+	private void compact() throws IOException
+	{
+		Brewday.getInstance().getLog().log(Log.DEBUG, "compacting " + dataFile);
+
+		File temp = new File(dataFile.getPath() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.WRITE))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			out.write(header);
+
+			List<Record> live = new ArrayList<>(index.values());
+			live.sort(Comparator.comparingLong(r -> r.offset));
+			for (Record record : live)
+			{
+				long position = record.offset;
+				long end = record.offset + record.length;
+				while (position < end)
+				{
+					position += channel.transferTo(position, end - position, out);
+				}
+			}
+			out.force(true);
+		}
+
+		close();
+		try
+		{
+			moveIntoPlace(temp);
+		}
+		finally
+		{
+			temp.delete();
+			open();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void moveIntoPlace(File temp) throws IOException
+	{
+		try
+		{
+			Files.move(temp.toPath(), dataFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp.toPath(), dataFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the given bytes of the data file, in a buffer backed by an array
+	 */
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer result = ByteBuffer.allocate(length);
+		while (result.hasRemaining())
+		{
+			int read = channel.read(result, position + result.position());
+			if (read < 0)
+			{
+				throw new EOFException(dataFile + ":" + position);
+			}
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void writeFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			position += channel.write(buffer, position);
+		}
+	}
+
+
+	/*-------------------------------------------------------------------------*/
+	private static class Record
+	{
+		private final long offset;
+		private final int length;
+		private final String fingerprint;
+		private String name;
+		private boolean live;
+
+		public Record(long offset, int length, String fingerprint)
+		{
+			this.offset = offset;
+			this.length = length;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
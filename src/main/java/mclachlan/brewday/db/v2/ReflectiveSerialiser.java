@@ -17,21 +17,32 @@
 
 package mclachlan.brewday.db.v2;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.function.*;
 import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.db.Database;
 
 /**
- *
+ * Serialises the named bean properties of a class. The getters, setters and
+ * value converters are looked up once per serialiser, on first use, and
+ * reused for every object.
  */
 public class ReflectiveSerialiser<E extends V2DataObject> implements V2SerialiserMap<E>
 {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
 	private Class<E> clazz;
 	private List<String> fields;
 	private Map<Class, V2SerialiserObject> customSerialisers;
 
+	/** built on first use, discarded when a custom serialiser is added */
+	private volatile Plan plan;
+
 	/*-------------------------------------------------------------------------*/
 	public ReflectiveSerialiser(Class<E> clazz, String... fields)
 	{
@@ -44,72 +55,132 @@ public class ReflectiveSerialiser<E extends V2DataObject> implements V2Serialise
 	@Override
 	public Map toMap(E e, Database db)
 	{
-		try
+		Map<String, Object> result = new HashMap<>();
+
+		for (Accessor accessor : getPlan().accessors)
 		{
-			Map<String, Object> result = new HashMap<>();
+			Object value;
+			try
+			{
+				value = accessor.getter.invokeExact((Object)e);
+			}
+			catch (Throwable t)
+			{
+				throw new BrewdayException("Error getting field [" + accessor.field + "]", t);
+			}
 
-			for (String field : fields)
+			if (value == null)
 			{
-				Method method = null;
-				try
+				result.put(accessor.field, null);
+			}
+			else
+			{
+				V2SerialiserObject customSerialiser = customSerialisers.get(value.getClass());
+
+				if (customSerialiser != null)
 				{
-					method = clazz.getMethod("get" + getMethodSuffix(field));
+					result.put(accessor.field, customSerialiser.toObj(value));
 				}
-				catch (NoSuchMethodException ex)
+				else if (Enum.class.isAssignableFrom(value.getClass()))
 				{
-					method = clazz.getMethod("is"+getMethodSuffix(field));
+					// use name() here so that toString() can be used for the UI
+					result.put(accessor.field, ((Enum<?>)value).name());
 				}
-				catch (SecurityException ex)
+				else
 				{
-					throw new RuntimeException(ex);
+					result.put(accessor.field, value.toString());
 				}
+			}
+		}
 
-				Object value = method.invoke(e);
+		return result;
+	}
 
-				if (value == null)
-				{
-					result.put(field, null);
-				}
-				else
-				{
-					V2SerialiserObject customSerialiser = customSerialisers.get(value.getClass());
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public E fromMap(Map<String, ?> map, Database db)
+	{
+		Plan plan = getPlan();
 
-					if (customSerialiser != null)
-					{
-						result.put(field, customSerialiser.toObj(value));
-					}
-					else if (Enum.class.isAssignableFrom(value.getClass()))
-					{
-						// use name() here so that toString() can be used for the UI
-						result.put(field, ((Enum<?>)value).name());
-					}
-					else
-					{
-						result.put(field, value.toString());
-					}
-				}
+		E result;
+		try
+		{
+			result = (E)plan.constructor.invoke();
+		}
+		catch (Throwable t)
+		{
+			throw new BrewdayException(t);
+		}
+
+		for (Accessor accessor : plan.accessors)
+		{
+			Object value = map.get(accessor.field);
+
+			if (value == null && accessor.skipNull)
+			{
+				continue;
 			}
 
-			return result;
+			try
+			{
+				accessor.setter.invokeExact((Object)result, accessor.converter.apply(value));
+			}
+			catch (Throwable t)
+			{
+				throw new BrewdayException("Error setting field [" +accessor.field+
+					"] paramType [" +accessor.parameterType+
+					"] setMethod [" +accessor.setMethod+
+					"]", t);
+			}
 		}
-		catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex)
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private Plan getPlan()
+	{
+		Plan result = plan;
+		if (result == null)
 		{
-			throw new BrewdayException(ex);
+			synchronized (this)
+			{
+				result = plan;
+				if (result == null)
+				{
+					result = buildPlan();
+					plan = result;
+				}
+			}
 		}
+		return result;
 	}
 
 	/*-------------------------------------------------------------------------*/
-	@Override
-	public E fromMap(Map<String, ?> map, Database db)
+	private Plan buildPlan()
 	{
 		try
 		{
-			E result = clazz.newInstance();
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Method[] methods = clazz.getMethods();
+
+			MethodHandle constructor = lookup.findConstructor(
+				clazz, MethodType.methodType(void.class));
 
+			List<Accessor> accessors = new ArrayList<>();
 			for (String field : fields)
 			{
+				Method getMethod;
+				try
+				{
+					getMethod = clazz.getMethod("get" + getMethodSuffix(field));
+				}
+				catch (NoSuchMethodException ex)
+				{
+					getMethod = clazz.getMethod("is"+getMethodSuffix(field));
+				}
+
 				String setMethodName = "set" + getMethodSuffix(field);
-				Method[] methods = clazz.getMethods();
 				Method setMethod = null;
 				for (Method m : methods)
 				{
@@ -120,84 +191,91 @@ public class ReflectiveSerialiser<E extends V2DataObject> implements V2Serialise
 					}
 				}
 
-				Object value = map.get(field);
-				Class parameterType = setMethod.getParameterTypes()[0];
-
-				try
+				if (setMethod == null)
 				{
-					if (parameterType == String.class)
-					{
-						setMethod.invoke(result, (String)value);
-					}
-					else if (parameterType == Integer.class || parameterType == int.class)
-					{
-						setMethod.invoke(result, Integer.valueOf((String)value));
-					}
-					else if (parameterType == Short.class|| parameterType == short.class)
-					{
-						setMethod.invoke(result, Short.valueOf((String)value));
-					}
-					else if (parameterType == Byte.class|| parameterType == byte.class)
-					{
-						setMethod.invoke(result, Byte.valueOf((String)value));
-					}
-					else if (parameterType == Double.class || parameterType == double.class)
-					{
-						setMethod.invoke(result, Double.valueOf((String)value));
-					}
-					else if (parameterType == Float.class|| parameterType == float.class)
-					{
-						setMethod.invoke(result, Float.valueOf((String)value));
-					}
-					else if (parameterType == Boolean.class || parameterType == boolean.class)
-					{
-						setMethod.invoke(result, Boolean.valueOf((String)value));
-					}
-					else if (parameterType == Character.class || parameterType == char.class)
-					{
-						setMethod.invoke(result, Character.valueOf(value.toString().charAt(0)));
-					}
-					else if (Enum.class.isAssignableFrom(parameterType))
-					{
-						if (value != null)
-						{
-							setMethod.invoke(result, Enum.valueOf(parameterType, (String)value));
-						}
-					}
-					else
-					{
-						V2SerialiserObject customSerialiser = customSerialisers.get(parameterType);
-
-						if (customSerialiser != null)
-						{
-							// honestly this probably won't work
-							Object val = customSerialiser.fromObj(value);
-							setMethod.invoke(result, parameterType.cast(val));
-						}
-						else
-						{
-							setMethod.invoke(result, value);
-						}
-					}
-				}
-				catch (IllegalAccessException | IllegalArgumentException |
-					InvocationTargetException e)
-				{
-					throw new BrewdayException("Error setting field [" +field+
-						"] paramType [" +parameterType+
-						"] setMethod [" +setMethod+
-						"]", e);
+					throw new BrewdayException("No set method for field [" + field + "] in " + clazz);
 				}
+
+				Class parameterType = setMethod.getParameterTypes()[0];
+
+				accessors.add(new Accessor(
+					field,
+					lookup.unreflect(getMethod).asType(GETTER_TYPE),
+					lookup.unreflect(setMethod).asType(SETTER_TYPE),
+					setMethod,
+					parameterType,
+					getConverter(parameterType),
+					Enum.class.isAssignableFrom(parameterType)));
 			}
 
-			return result;
+			return new Plan(constructor, accessors);
 		}
-		catch (InstantiationException | IllegalAccessException e)
+		catch (NoSuchMethodException | IllegalAccessException e)
 		{
 			throw new BrewdayException(e);
 		}
 	}
 
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a function to convert a serialised value to the given setter parameter
+	 * 	type
+	 */
+	private Function<Object, Object> getConverter(Class parameterType)
+	{
+		if (parameterType == String.class)
+		{
+			return value -> (String)value;
+		}
+		else if (parameterType == Integer.class || parameterType == int.class)
+		{
+			return value -> Integer.valueOf((String)value);
+		}
+		else if (parameterType == Short.class|| parameterType == short.class)
+		{
+			return value -> Short.valueOf((String)value);
+		}
+		else if (parameterType == Byte.class|| parameterType == byte.class)
+		{
+			return value -> Byte.valueOf((String)value);
+		}
+		else if (parameterType == Double.class || parameterType == double.class)
+		{
+			return value -> Double.valueOf((String)value);
+		}
+		else if (parameterType == Float.class|| parameterType == float.class)
+		{
+			return value -> Float.valueOf((String)value);
+		}
+		else if (parameterType == Boolean.class || parameterType == boolean.class)
+		{
+			return value -> Boolean.valueOf((String)value);
+		}
+		else if (parameterType == Character.class || parameterType == char.class)
+		{
+			return value -> Character.valueOf(value.toString().charAt(0));
+		}
+		else if (Enum.class.isAssignableFrom(parameterType))
+		{
+			return value -> Enum.valueOf(parameterType, (String)value);
+		}
+		else
+		{
+			V2SerialiserObject customSerialiser = customSerialisers.get(parameterType);
+
+			if (customSerialiser != null)
+			{
+				// honestly this probably won't work
+				return value -> parameterType.cast(customSerialiser.fromObj(value));
+			}
+			else
+			{
+				return value -> value;
+			}
+		}
+	}
+
 	/*-------------------------------------------------------------------------*/
 	private String getMethodSuffix(String field)
 	{
@@ -209,7 +287,54 @@ public class ReflectiveSerialiser<E extends V2DataObject> implements V2Serialise
 		Class<?> clazz,
 		V2SerialiserObject<?> serialiser)
 	{
-		this.customSerialisers.put(clazz, serialiser);
+		synchronized (this)
+		{
+			this.customSerialisers.put(clazz, serialiser);
+			this.plan = null;
+		}
 	}
 
+	/*-------------------------------------------------------------------------*/
+	private static class Plan
+	{
+		private final MethodHandle constructor;
+		private final List<Accessor> accessors;
+
+		private Plan(MethodHandle constructor, List<Accessor> accessors)
+		{
+			this.constructor = constructor;
+			this.accessors = accessors;
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static class Accessor
+	{
+		private final String field;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+		private final Method setMethod;
+		private final Class parameterType;
+		private final Function<Object, Object> converter;
+		/** enum fields are left at their default when the value is absent */
+		private final boolean skipNull;
+
+		private Accessor(
+			String field,
+			MethodHandle getter,
+			MethodHandle setter,
+			Method setMethod,
+			Class parameterType,
+			Function<Object, Object> converter,
+			boolean skipNull)
+		{
+			this.field = field;
+			this.getter = getter;
+			this.setter = setter;
+			this.setMethod = setMethod;
+			this.parameterType = parameterType;
+			this.converter = converter;
+			this.skipNull = skipNull;
+		}
+	}
 }
@@ -17,10 +17,10 @@
 
 package mclachlan.brewday.db.v2;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
 import java.util.*;
+import java.util.function.*;
 import mclachlan.brewday.db.Database;
 
 /**
@@ -30,42 +30,498 @@ public class SimpleMapSilo<V extends V2DataObject> implements V2SiloMap<V>
 {
 	private V2SerialiserMap<V> serialiser;
 
+	/**
+	 * Object name to fingerprint, as last loaded or saved. Null if the state on
+	 * disk is unknown, in which case the next save always writes.
+	 */
+	private Map<String, String> fingerprints;
+	private Map<String, String> pendingFingerprints;
+
+	/**
+	 * If positive, objects are loaded lazily into a {@link V2LazyMap} that
+	 * keeps this many deserialised.
+	 */
+	private int maxCached;
+
+	/** the version objects are saved at, and how to upgrade older ones */
+	private V2Schema schema = new V2Schema();
+
 	/*-------------------------------------------------------------------------*/
 	public SimpleMapSilo(V2SerialiserMap<V> serialiser)
 	{
 		this.serialiser = serialiser;
 	}
 
+	/*-------------------------------------------------------------------------*/
+	public V2SerialiserMap<V> getSerialiser()
+	{
+		return serialiser;
+	}
+
+	public V2Schema getSchema()
+	{
+		return schema;
+	}
+
+	public void setSchema(V2Schema schema)
+	{
+		this.schema = schema;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param maxCached
+	 * 	if positive, {@link #load} returns a {@link V2LazyMap} that keeps this
+	 * 	many objects deserialised. Lazy loading requires each serialised object
+	 * 	to hold its name under "name".
+	 */
+	public void setMaxCached(int maxCached)
+	{
+		this.maxCached = maxCached;
+	}
+
 	/*-------------------------------------------------------------------------*/
 	@Override
 	public Map<String, V> load(BufferedReader reader,
 		Database db) throws IOException
 	{
-		Map<String, V> result = new HashMap<String, V>();
+		Map<String, V> result;
+		if (maxCached > 0)
+		{
+			V2LazyMap<V> lazyMap = new V2LazyMap<>(serialiser, db, maxCached);
+			lazyMap.setSchema(schema, this::upgraded);
+			result = lazyMap;
+		}
+		else
+		{
+			result = new HashMap<>();
+		}
+		Map<String, String> loaded = new HashMap<>();
+
+		V2Schema.readObjects(reader, this::loadedHeader, (map, version) ->
+			putLoaded(result, loaded, map, version, db));
+
+		fingerprints = loaded;
+		pendingFingerprints = null;
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Adds a serialised object as loaded from disk to the given map,
+	 * deserialising it unless the map is lazy, and notes its fingerprint.
+	 * An object saved at an older version is upgraded as it is deserialised.
+	 * Its fingerprint is of the upgraded form, so it only counts as changed
+	 * if it is changed after loading.
+	 *
+	 * @param version
+	 * 	the schema version the object was saved at
+	 */
+	protected void putLoaded(Map<String, V> result, Map<String, String> fingerprints,
+		Map map, int version, Database db)
+	{
+		if (result instanceof V2LazyMap)
+		{
+			// upgraded on first use, see upgraded()
+			String name = (String)map.get("name");
+			((V2LazyMap<V>)result).putSerialised(name, map, version);
+			fingerprints.put(name, V2Utils.fingerprint(map));
+			return;
+		}
+
+		map = schema.upgrade(map, version);
+		V v = (V)serialiser.fromMap(map, db);
+		result.put(v.getName(), v);
+		fingerprints.put(v.getName(), V2Utils.fingerprint(map));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Takes the fingerprint of a lazily loaded object once it is upgraded, so
+	 * that it only counts as changed if it is changed after loading.
+	 */
+	private void upgraded(String name, Map body)
+	{
+		String fingerprint = V2Utils.fingerprint(body);
+		if (fingerprints != null && fingerprints.containsKey(name))
+		{
+			fingerprints.put(name, fingerprint);
+		}
+		if (pendingFingerprints != null && pendingFingerprints.containsKey(name))
+		{
+			pendingFingerprints.put(name, fingerprint);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Reads a silo file without loading it into this silo, eg an old version
+	 * of it to merge with.
+	 *
+	 * @return
+	 * 	the serialised objects by name, upgraded to the current version.
+	 * 	Objects are only deserialised if their name is not held under "name".
+	 */
+	public Map<String, Map> readSerialised(BufferedReader reader,
+		Database db) throws IOException
+	{
+		return readSerialised(reader, db, header -> {});
+	}
+
+	/**
+	 * As {@link #readSerialised(BufferedReader, Database)}, passing the file
+	 * header to the given consumer first, see {@link V2Schema#readObjects}.
+	 */
+	public Map<String, Map> readSerialised(BufferedReader reader,
+		Database db, Consumer<Map> header) throws IOException
+	{
+		Map<String, Map> result = new HashMap<>();
+		V2Schema.readObjects(reader, header, (read, version) ->
+		{
+			Map map = schema.upgrade(read, version);
+			Object name = map.get("name");
+			result.put(name instanceof String ?
+				(String)name : serialiser.fromMap(map, db).getName(), map);
+		});
+		return result;
+	}
 
-		List<Map> objects = V2Utils.getObjects(reader);
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Puts serialised objects into a loaded map, eg the changes from a merge.
+	 * They count as changed at the next save.
+	 *
+	 * @param changes
+	 * 	object name to its serialised form, or to null to remove it
+	 */
+	public void putSerialised(Map<String, V> map, Map<String, ?> changes,
+		Database db)
+	{
+		for (Map.Entry<String, ?> e : changes.entrySet())
+		{
+			if (e.getValue() == null)
+			{
+				map.remove(e.getKey());
+			}
+			else
+			{
+				map.put(e.getKey(), (V)serialiser.fromMap((Map)e.getValue(), db));
+			}
+		}
+	}
 
-		for (Map map : objects)
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	each object in the map by name, in its serialised form. Each object is
+	 * 	serialised as the iteration reaches it. The objects of a
+	 * 	{@link V2LazyMap} are not deserialised to do so.
+	 */
+	public Iterable<Map.Entry<String, Map>> serialised(Map<String, V> map,
+		Database db)
+	{
+		if (map instanceof V2LazyMap)
+		{
+			V2LazyMap<V> lazyMap = (V2LazyMap<V>)map;
+			return () -> new Iterator<Map.Entry<String, Map>>()
+			{
+				private final Iterator<String> names = lazyMap.keySet().iterator();
+
+				@Override
+				public boolean hasNext()
+				{
+					return names.hasNext();
+				}
+
+				@Override
+				public Map.Entry<String, Map> next()
+				{
+					String name = names.next();
+					return new AbstractMap.SimpleImmutableEntry<>(name, lazyMap.getSerialised(name));
+				}
+			};
+		}
+		else
+		{
+			return () -> new Iterator<Map.Entry<String, Map>>()
+			{
+				private final Iterator<V> values = map.values().iterator();
+
+				@Override
+				public boolean hasNext()
+				{
+					return values.hasNext();
+				}
+
+				@Override
+				public Map.Entry<String, Map> next()
+				{
+					V v = values.next();
+					return new AbstractMap.SimpleImmutableEntry<>(v.getName(), serialiser.toMap(v, db));
+				}
+			};
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the named object in the map in its serialised form. The objects of a
+	 * 	{@link V2LazyMap} are not deserialised to do so.
+	 */
+	public Map serialised(Map<String, V> map, String name, Database db)
+	{
+		return map instanceof V2LazyMap ?
+			((V2LazyMap<V>)map).getSerialised(name) : serialiser.toMap(map.get(name), db);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the fingerprint of the given serialised object. Objects of a
+	 * 	{@link V2LazyMap} that are untouched since loading are not hashed
+	 * 	again.
+	 */
+	public String fingerprint(Map<String, V> map, String name, Map serialised)
+	{
+		if (fingerprints != null &&
+			map instanceof V2LazyMap &&
+			((V2LazyMap<V>)map).isPristine(name))
+		{
+			String result = fingerprints.get(name);
+			if (result != null)
+			{
+				return result;
+			}
+		}
+
+		return V2Utils.fingerprint(serialised);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Loads from a {@link V2Snapshot}.
+	 *
+	 * @param sourceHash
+	 * 	the hash of the current contents of the silo file
+	 * @return
+	 * 	null if the snapshot was not taken from the current silo file
+	 */
+	public Map<String, V> loadSnapshot(InputStream in, String sourceHash,
+		Database db) throws IOException
+	{
+		Map<String, V> result = new HashMap<String, V>();
+		Map<String, String> loaded = new HashMap<>();
+
+		boolean current = V2Snapshot.read(in, getSnapshotHash(sourceHash), (map, fingerprint) ->
 		{
 			V v = (V)serialiser.fromMap(map, db);
 
 			result.put(v.getName(), v);
+			loaded.put(v.getName(), fingerprint);
+		});
+
+		if (!current)
+		{
+			return null;
 		}
 
+		fingerprints = loaded;
+		pendingFingerprints = null;
+
 		return result;
 	}
 
 	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes a {@link V2Snapshot} of the given objects, which must be as just
+	 * loaded from the silo file with the given hash.
+	 */
+	public void writeSnapshot(OutputStream out, String sourceHash,
+		Map<String, V> map, Database db) throws IOException
+	{
+		List<Map> objects = new ArrayList<>(map.size());
+		List<String> objectFingerprints = new ArrayList<>(map.size());
+
+		for (V v : map.values())
+		{
+			objects.add(V2Utils.normalise(serialiser.toMap(v, db)));
+			objectFingerprints.add(fingerprints.get(v.getName()));
+		}
+
+		V2Snapshot.write(out, getSnapshotHash(sourceHash), objects, objectFingerprints);
+	}
+
+	/**
+	 * @return
+	 * 	the source hash to tag a snapshot with. A snapshot holds objects at
+	 * 	the version they were serialised at, so it is out of date once the
+	 * 	schema moves on even if the silo file has not changed.
+	 */
+	private String getSnapshotHash(String sourceHash)
+	{
+		return schema.getVersion() > 1 ? sourceHash + "/" + schema.getVersion() : sourceHash;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Streams the objects to the writer one at a time. Call {@link #commit()}
+	 * once the written data is safely on disk.
+	 */
 	@Override
 	public void save(BufferedWriter writer, Map<String, V> map,
 		Database db) throws IOException
 	{
-		List<Map> list = new ArrayList<>();
-		for (V v : map.values())
+		Map<String, String> current = new HashMap<>();
+
+		JsonWriter jsonWriter = V2Utils.getJsonWriter(writer);
+		jsonWriter.beginArray();
+		schema.writeHeader(jsonWriter, getHeaderFields());
+		for (Map.Entry<String, Map> e : serialised(map, db))
 		{
-			list.add(serialiser.toMap(v, db));
+			current.put(e.getKey(), fingerprint(map, e.getKey(), e.getValue()));
+			V2Utils.writeObject(e.getValue(), jsonWriter);
 		}
+		jsonWriter.endArray();
+		jsonWriter.flush();
+
+		pendingFingerprints = current;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	true if an object has been added, removed or changed since this silo
+	 * 	was last loaded or committed
+	 */
+	public boolean isDirty(Map<String, V> map, Database db)
+	{
+		if (fingerprints == null || fingerprints.size() != map.size())
+		{
+			return true;
+		}
+
+		for (Map.Entry<String, Map> e : serialised(map, db))
+		{
+			String fingerprint = fingerprint(map, e.getKey(), e.getValue());
+			if (!fingerprint.equals(fingerprints.get(e.getKey())))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return
+	 * 	true if the state on disk is known, so that a map with no changes
+	 * 	published since the last save need not be checked with
+	 * 	{@link #isDirty}
+	 */
+	public boolean isStateKnown()
+	{
+		return fingerprints != null;
+	}
 
-		V2Utils.writeJson(list, writer);
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Accepts the state marshalled by the last {@link #save} as the state on
+	 * disk.
+	 */
+	public void commit()
+	{
+		if (pendingFingerprints != null)
+		{
+			fingerprints = pendingFingerprints;
+			pendingFingerprints = null;
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the names of the objects added, changed or removed by the state that
+	 * 	the next {@link #commit()} will accept, or null if the state on disk
+	 * 	is unknown
+	 */
+	public Set<String> getPendingChanges()
+	{
+		if (pendingFingerprints == null)
+		{
+			return Collections.emptySet();
+		}
+		if (fingerprints == null)
+		{
+			return null;
+		}
+
+		Set<String> result = new TreeSet<>();
+		for (Map.Entry<String, String> e : pendingFingerprints.entrySet())
+		{
+			if (!e.getValue().equals(fingerprints.get(e.getKey())))
+			{
+				result.add(e.getKey());
+			}
+		}
+		for (String name : fingerprints.keySet())
+		{
+			if (!pendingFingerprints.containsKey(name))
+			{
+				result.add(name);
+			}
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Forgets the state on disk, so that the next save always writes.
+	 */
+	public void invalidate()
+	{
+		fingerprints = null;
+		pendingFingerprints = null;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	object name to fingerprint as last loaded or committed, or null if
+	 * 	the state on disk is unknown
+	 */
+	protected Map<String, String> getFingerprints()
+	{
+		return fingerprints;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Sets the fingerprints that the next {@link #commit()} will accept.
+	 */
+	protected void setPendingFingerprints(Map<String, String> pendingFingerprints)
+	{
+		this.pendingFingerprints = pendingFingerprints;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Called by {@link #load} with the header of the file, empty if it has
+	 * none.
+	 */
+	protected void loadedHeader(Map header)
+	{
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	fields to write in the file header on {@link #save}, besides the
+	 * 	schema version
+	 */
+	protected Map<String, ?> getHeaderFields()
+	{
+		return Collections.emptyMap();
 	}
 }
@@ -0,0 +1,236 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import java.util.*;
+import java.util.function.*;
+import mclachlan.brewday.db.Database;
+
+/**
+ * A secondary index over a map of data objects, from keys derived from each
+ * object's serialised form to the names of the objects with those keys.
+ * <p>
+ * The index is maintained from the changes it is told of: a query only
+ * re-indexes the objects passed to {@link #changed} since the last one, so
+ * costs as much as the changes and the objects found. The whole map is
+ * indexed on the first query, after {@link #invalidate()}, and whenever
+ * the number of objects shows that it was changed unannounced. The
+ * untouched objects of a {@link V2LazyMap} are not deserialised to do so.
+ */
+public class V2Index<K extends Comparable<? super K>, V extends V2DataObject>
+{
+	private final V2SerialiserMap<V> serialiser;
+	private final Function<Map, Collection<K>> keyFunction;
+
+	/** the map indexed. A query on another map rebuilds the index */
+	private Map<String, V> indexed;
+
+	private final TreeMap<K, Set<String>> namesByKey = new TreeMap<>();
+	private final Map<String, Collection<K>> keysByName = new HashMap<>();
+
+	/** names to re-index on the next query */
+	private final Set<String> stale = new HashSet<>();
+
+	/** false if the whole map is to be re-indexed on the next query */
+	private boolean complete;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param keyFunction
+	 * 	the keys to index a serialised object under. It is given either the
+	 * 	serialiser's output or the map parsed back from JSON, so should only
+	 * 	rely on strings, lists and maps
+	 */
+	public V2Index(
+		V2SerialiserMap<V> serialiser,
+		Function<Map, Collection<K>> keyFunction)
+	{
+		this.serialiser = serialiser;
+		this.keyFunction = keyFunction;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the objects in the map with the given key
+	 */
+	public synchronized List<V> find(K key, Map<String, V> map, Database db)
+	{
+		return find(key, key, map, db);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the objects in the map with a key in the given inclusive range, in
+	 * 	key order
+	 */
+	public synchronized List<V> find(K from, K to, Map<String, V> map, Database db)
+	{
+		List<V> result = new ArrayList<>();
+		for (String name : findNames(from, to, map, db))
+		{
+			result.add(map.get(name));
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the names of the objects in the map with a key in the given inclusive
+	 * 	range, in key order. No object is deserialised to find them.
+	 */
+	public synchronized Set<String> findNames(K from, K to, Map<String, V> map, Database db)
+	{
+		refresh(map, db);
+
+		Set<String> result = new LinkedHashSet<>();
+		for (Set<String> s : namesByKey.subMap(from, true, to, true).values())
+		{
+			result.addAll(s);
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Marks the named object to be re-indexed, because it has been added,
+	 * changed or removed.
+	 */
+	public synchronized void changed(String name)
+	{
+		if (name != null)
+		{
+			stale.add(name);
+		}
+	}
+
+	/**
+	 * Marks the objects with the given key to be re-indexed, because
+	 * something they refer to has changed in a way that changes their keys.
+	 */
+	public synchronized void changedKey(K key)
+	{
+		Set<String> names = namesByKey.get(key);
+		if (names != null)
+		{
+			stale.addAll(names);
+		}
+	}
+
+	/**
+	 * Marks the whole map to be re-indexed.
+	 */
+	public synchronized void invalidate()
+	{
+		complete = false;
+		stale.clear();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void refresh(Map<String, V> map, Database db)
+	{
+		if (map != indexed)
+		{
+			namesByKey.clear();
+			keysByName.clear();
+			indexed = map;
+			complete = false;
+		}
+
+		if (complete)
+		{
+			for (String name : stale)
+			{
+				if (map.containsKey(name))
+				{
+					index(name, map, db);
+				}
+				else
+				{
+					unindex(name);
+				}
+			}
+			stale.clear();
+
+			if (keysByName.size() == map.size())
+			{
+				return;
+			}
+		}
+
+		V2LazyMap<V> lazyMap = map instanceof V2LazyMap ? (V2LazyMap<V>)map : null;
+
+		for (String name : map.keySet())
+		{
+			if (lazyMap != null && lazyMap.isPristine(name) && keysByName.containsKey(name))
+			{
+				continue;
+			}
+			index(name, map, db);
+		}
+
+		if (keysByName.size() > map.size())
+		{
+			for (String name : new ArrayList<>(keysByName.keySet()))
+			{
+				if (!map.containsKey(name))
+				{
+					unindex(name);
+				}
+			}
+		}
+
+		stale.clear();
+		complete = true;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void index(String name, Map<String, V> map, Database db)
+	{
+		Map serialised = map instanceof V2LazyMap ?
+			((V2LazyMap<V>)map).getSerialised(name) : serialiser.toMap(map.get(name), db);
+
+		unindex(name);
+		Collection<K> keys = keyFunction.apply(serialised);
+		keysByName.put(name, keys);
+		for (K key : keys)
+		{
+			namesByKey.computeIfAbsent(key, k -> new HashSet<>()).add(name);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void unindex(String name)
+	{
+		Collection<K> keys = keysByName.remove(name);
+		if (keys != null)
+		{
+			for (K key : keys)
+			{
+				Set<String> names = namesByKey.get(key);
+				names.remove(name);
+				if (names.isEmpty())
+				{
+					namesByKey.remove(key);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,423 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.function.*;
+import mclachlan.brewday.db.Database;
+
+/**
+ * A map of data objects that keeps each object in its serialised form until
+ * it is first looked up. Only the most recently used objects are kept
+ * deserialised; older ones are serialised back, so no changes to them are
+ * lost. An evicted object that is still referenced elsewhere remains the
+ * live copy: it is returned again by the next lookup, and saved in place of
+ * its serialised form. Each time it is serialised, e.g. to save it, its
+ * stored form is brought up to date, so what was saved is kept once it is
+ * no longer referenced. Changes made to an evicted object since it was last
+ * serialised are only kept while it is referenced, so code that edits an
+ * object should hold on to it until it has been saved.
+ * <p>
+ * Iterating over the values deserialises each object in turn, iterating
+ * over the keys does not. Objects loaded at an older schema version are
+ * upgraded when they are first read.
+ */
+public class V2LazyMap<V extends V2DataObject> extends AbstractMap<String, V>
+{
+	private final V2SerialiserMap<V> serialiser;
+	private final Database db;
+
+	/**
+	 * name to serialised object, in load order. Stale while the object is
+	 * live, null if it has yet to be read
+	 */
+	private final Map<String, Map> bodies = new LinkedHashMap<>();
+
+	/** reads the bodies of objects added with {@link #putUnloaded}, or null */
+	private final Function<String, Map> bodyLoader;
+
+	/** names whose body is exactly as loaded and was never deserialised */
+	private final Set<String> pristine = new HashSet<>();
+
+	/** names whose body was loaded at an older schema version, to that version */
+	private final Map<String, Integer> versions = new HashMap<>();
+
+	/** upgrades the bodies loaded at older versions, or null */
+	private V2Schema schema;
+	private BiConsumer<String, Map> upgraded;
+
+	/** the most recently used deserialised objects */
+	private final LinkedHashMap<String, V> cache;
+
+	/** objects evicted from the cache, kept while referenced elsewhere */
+	private final Map<String, WeakReference<V>> evicted = new HashMap<>();
+
+	private final EntrySet entrySet = new EntrySet();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param maxCached
+	 * 	how many objects to keep deserialised
+	 */
+	public V2LazyMap(V2SerialiserMap<V> serialiser, Database db, int maxCached)
+	{
+		this(serialiser, db, maxCached, null);
+	}
+
+	/**
+	 * @param bodyLoader
+	 * 	reads an object's serialised form by name, for objects added with
+	 * 	{@link #putUnloaded}
+	 */
+	public V2LazyMap(
+		V2SerialiserMap<V> serialiser,
+		Database db,
+		int maxCached,
+		Function<String, Map> bodyLoader)
+	{
+		this.serialiser = serialiser;
+		this.db = db;
+		this.bodyLoader = bodyLoader;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+			{
+				if (size() > maxCached)
+				{
+					evict(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param schema
+	 * 	upgrades the objects added at older versions with
+	 * 	{@link #putSerialised(String, Map, int)}
+	 * @param upgraded
+	 * 	told of each object's name and body once it is upgraded, or null
+	 */
+	public void setSchema(V2Schema schema, BiConsumer<String, Map> upgraded)
+	{
+		this.schema = schema;
+		this.upgraded = upgraded;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Adds an object in its serialised form, as loaded from disk.
+	 */
+	public void putSerialised(String name, Map body)
+	{
+		bodies.put(name, body);
+		pristine.add(name);
+		versions.remove(name);
+		cache.remove(name);
+		evicted.remove(name);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Adds an object in its serialised form, as loaded from disk at the given
+	 * version of the schema. It is upgraded when it is first read, and still
+	 * counts as pristine until it is deserialised.
+	 */
+	public void putSerialised(String name, Map body, int version)
+	{
+		putSerialised(name, body);
+		if (schema != null && version != schema.getVersion())
+		{
+			versions.put(name, version);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Adds an object whose serialised form is to be read by the body loader
+	 * when it is first needed.
+	 */
+	public void putUnloaded(String name)
+	{
+		putSerialised(name, null);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the named object in its serialised form, without deserialising it
+	 */
+	public Map getSerialised(String name)
+	{
+		V v = getLive(name);
+		if (v != null)
+		{
+			Map result = serialiser.toMap(v, db);
+			if (!cache.containsKey(name))
+			{
+				// evicted but still referenced: keep what is about to be saved
+				bodies.put(name, V2Utils.normalise(result));
+			}
+			return result;
+		}
+		return getBody(name);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	true if the named object is exactly as loaded, and has never been
+	 * 	deserialised, so cannot have changed
+	 */
+	public boolean isPristine(String name)
+	{
+		return pristine.contains(name);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public V get(Object key)
+	{
+		if (!(key instanceof String) || !bodies.containsKey(key))
+		{
+			return null;
+		}
+
+		String name = (String)key;
+		V v = getLive(name);
+		if (v == null)
+		{
+			v = (V)serialiser.fromMap(getBody(name), db);
+			pristine.remove(name);
+		}
+
+		evicted.remove(name);
+		cache.put(name, v);
+		return v;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return bodies.containsKey(key);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public V put(String name, V value)
+	{
+		V result = get(name);
+
+		bodies.put(name, null);
+		pristine.remove(name);
+		versions.remove(name);
+		evicted.remove(name);
+		cache.put(name, value);
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public V remove(Object key)
+	{
+		V result = get(key);
+
+		bodies.remove(key);
+		pristine.remove(key);
+		versions.remove(key);
+		cache.remove(key);
+		evicted.remove(key);
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public void clear()
+	{
+		bodies.clear();
+		pristine.clear();
+		versions.clear();
+		cache.clear();
+		evicted.clear();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public int size()
+	{
+		return bodies.size();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		return entrySet;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the deserialised object, if it is cached or still referenced, or null
+	 */
+	private V getLive(String name)
+	{
+		V v = cache.get(name);
+		if (v == null)
+		{
+			WeakReference<V> ref = evicted.get(name);
+			if (ref != null)
+			{
+				v = ref.get();
+			}
+		}
+		return v;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private Map getBody(String name)
+	{
+		Map result = bodies.get(name);
+		if (result == null && bodyLoader != null)
+		{
+			result = bodyLoader.apply(name);
+		}
+
+		Integer version = versions.remove(name);
+		if (version != null)
+		{
+			result = schema.upgrade(result, version);
+			bodies.put(name, result);
+			if (upgraded != null)
+			{
+				upgraded.accept(name, result);
+			}
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void evict(String name, V v)
+	{
+		bodies.put(name, V2Utils.normalise(serialiser.toMap(v, db)));
+		evicted.put(name, new WeakReference<>(v));
+
+		// drop the references cleared by the GC
+		evicted.values().removeIf(ref -> ref.get() == null);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private class EntrySet extends AbstractSet<Entry<String, V>>
+	{
+		@Override
+		public Iterator<Entry<String, V>> iterator()
+		{
+			Iterator<String> names = bodies.keySet().iterator();
+
+			return new Iterator<Entry<String, V>>()
+			{
+				private String current;
+
+				@Override
+				public boolean hasNext()
+				{
+					return names.hasNext();
+				}
+
+				@Override
+				public Entry<String, V> next()
+				{
+					current = names.next();
+					return new LazyEntry(current);
+				}
+
+				@Override
+				public void remove()
+				{
+					names.remove();
+					pristine.remove(current);
+					versions.remove(current);
+					cache.remove(current);
+					evicted.remove(current);
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return bodies.size();
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * An entry that deserialises its value when asked for it.
+	 */
+	private class LazyEntry implements Entry<String, V>
+	{
+		private final String name;
+
+		public LazyEntry(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return name;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return get(name);
+		}
+
+		@Override
+		public V setValue(V value)
+		{
+			return put(name, value);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Entry))
+			{
+				return false;
+			}
+			Entry<?, ?> e = (Entry<?, ?>)o;
+			return name.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return name.hashCode() ^ Objects.hashCode(getValue());
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import java.util.*;
+
+/**
+ * Three-way merge of a silo, object by object. Objects are keyed by name and
+ * compared by {@link V2Utils#fingerprint}, so only whole objects are merged:
+ * <ul>
+ *    <li>changed on one side only: that side's version is taken
+ *    <li>changed the same way on both sides: nothing to do
+ *    <li>changed differently on both sides: a conflict, the local version
+ *    is kept
+ * </ul>
+ * A removal counts as a change.
+ */
+public class V2Merge
+{
+	/** object name to the merged version, or null if it is to be removed */
+	private final Map<String, Object> changes = new TreeMap<>();
+	private final Set<String> conflicts = new TreeSet<>();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param base
+	 * 	the objects as they were at the common ancestor
+	 * @param local
+	 * 	the local objects
+	 * @param remote
+	 * 	the remote objects
+	 */
+	public V2Merge(
+		Map<String, ?> base,
+		Map<String, ?> local,
+		Map<String, ?> remote)
+	{
+		Set<String> names = new TreeSet<>();
+		names.addAll(base.keySet());
+		names.addAll(local.keySet());
+		names.addAll(remote.keySet());
+
+		for (String name : names)
+		{
+			String baseFingerprint = V2Utils.fingerprint(base.get(name));
+			String localFingerprint = V2Utils.fingerprint(local.get(name));
+			String remoteFingerprint = V2Utils.fingerprint(remote.get(name));
+
+			if (localFingerprint.equals(remoteFingerprint) ||
+				remoteFingerprint.equals(baseFingerprint))
+			{
+				// nothing new from the remote
+				continue;
+			}
+
+			if (localFingerprint.equals(baseFingerprint))
+			{
+				changes.put(name, remote.get(name));
+			}
+			else
+			{
+				conflicts.add(name);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the remote changes to apply locally: object name to its new version,
+	 * 	or to null if it is to be removed
+	 */
+	public Map<String, Object> getChanges()
+	{
+		return changes;
+	}
+
+	/**
+	 * @return
+	 * 	the names of the objects changed differently on both sides
+	 */
+	public Set<String> getConflicts()
+	{
+		return conflicts;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The version of a silo's serialised form, and the migrations that bring
+ * objects saved at older versions up to it. Migrations work on the
+ * serialised form, so upgrading an object does not deserialise it.
+ * <p>
+ * A silo file at a version after the first starts with a header object,
+ * <code>{"schemaVersion": N}</code>. A file without one is at version 1, so
+ * files stay as they were until a silo's first migration is added. Journal
+ * records and mapped records carry their own version the same way, as
+ * objects are written back one at a time. The header of a journaled silo
+ * also holds the generation of its journal, see {@link JournalMapSilo}.
+ * <p>
+ * To change a serialiser's output incompatibly, add a migration from the
+ * previous version's form to the new one, eg in place of a one-off fixer
+ * that rewrites the whole file.
+ */
+public class V2Schema
+{
+	/** the key of the version, in file headers and records */
+	public static final String SCHEMA_VERSION = "schemaVersion";
+
+	/** the key of the journal generation, in file headers and journal records */
+	public static final String JOURNAL_GENERATION = "journalGeneration";
+
+	/** the keys that a file header may hold */
+	private static final Set<String> HEADER_KEYS = new HashSet<>(
+		Arrays.asList(SCHEMA_VERSION, JOURNAL_GENERATION));
+
+	/** migration i upgrades from version i+1 to i+2 */
+	private final List<UnaryOperator<Map>> migrations = new ArrayList<>();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Adds the migration to the next version. The migration may change the
+	 * given object in place, and must return it in its parsed JSON form, see
+	 * {@link V2Utils#normalise}.
+	 *
+	 * @return
+	 * 	this schema
+	 */
+	public V2Schema addMigration(UnaryOperator<Map> migration)
+	{
+		migrations.add(migration);
+		return this;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the current version, 1 if there are no migrations
+	 */
+	public int getVersion()
+	{
+		return migrations.size() + 1;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param version
+	 * 	the version the object was saved at
+	 * @return
+	 * 	the object at the current version
+	 */
+	public Map upgrade(Map obj, int version)
+	{
+		if (version > getVersion())
+		{
+			throw new V2Exception("schema version " + version +
+				" is newer than this version of Brewday supports (" + getVersion() + ")");
+		}
+
+		for (int i = version - 1; i < migrations.size(); i++)
+		{
+			obj = migrations.get(i).apply(obj);
+		}
+		return obj;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes the header of a silo file at the current version, if it needs
+	 * one.
+	 */
+	public void writeHeader(JsonWriter writer) throws IOException
+	{
+		writeHeader(writer, Collections.emptyMap());
+	}
+
+	/**
+	 * Writes the header of a silo file at the current version, with the
+	 * given extra fields, if it needs one.
+	 */
+	public void writeHeader(JsonWriter writer,
+		Map<String, ?> fields) throws IOException
+	{
+		Map<String, Object> header = new LinkedHashMap<>();
+		if (getVersion() > 1)
+		{
+			header.put(SCHEMA_VERSION, getVersion());
+		}
+		header.putAll(fields);
+
+		if (!header.isEmpty())
+		{
+			V2Utils.writeObject(header, writer);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Stamps an object written on its own, eg a journal record, with the
+	 * current version, if it needs it.
+	 */
+	public void stamp(Map record)
+	{
+		if (getVersion() > 1)
+		{
+			record.put(SCHEMA_VERSION, getVersion());
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the version an object or record was written at, 1 if it has none
+	 */
+	public static int getVersion(Map record)
+	{
+		Object version = record.get(SCHEMA_VERSION);
+		return version instanceof Number ? ((Number)version).intValue() : 1;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Streams the objects of a silo file to the consumer, with the version
+	 * they were saved at. They are not upgraded.
+	 */
+	public static void readObjects(BufferedReader reader,
+		ObjIntConsumer<Map> consumer) throws IOException
+	{
+		readObjects(reader, header -> {}, consumer);
+	}
+
+	/**
+	 * As {@link #readObjects(BufferedReader, ObjIntConsumer)}, passing the
+	 * file header to the given consumer first. The header is empty if the
+	 * file has none.
+	 */
+	public static void readObjects(BufferedReader reader,
+		Consumer<Map> header, ObjIntConsumer<Map> consumer) throws IOException
+	{
+		int[] version = {1};
+		boolean[] first = {true};
+
+		V2Utils.readObjects(reader, map ->
+		{
+			if (first[0])
+			{
+				first[0] = false;
+				if (!map.isEmpty() && HEADER_KEYS.containsAll(map.keySet()))
+				{
+					version[0] = getVersion(map);
+					header.accept(map);
+					return;
+				}
+				header.accept(Collections.emptyMap());
+			}
+			consumer.accept(map, version[0]);
+		});
+
+		if (first[0])
+		{
+			header.accept(Collections.emptyMap());
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the journal generation in a file header or journal record, 0 if it
+	 * 	has none
+	 */
+	public static int getJournalGeneration(Map record)
+	{
+		Object generation = record.get(JOURNAL_GENERATION);
+		return generation instanceof Number ? ((Number)generation).intValue() : 0;
+	}
+}
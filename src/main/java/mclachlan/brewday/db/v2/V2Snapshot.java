@@ -0,0 +1,282 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.db.v2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * A compact binary copy of a silo file, used to skip the JSON parse on
+ * startup. A snapshot records the hash of the JSON it was made from, and is
+ * only read back while that JSON is unchanged.
+ * <p>
+ * Layout: magic, version, source hash, a table of every distinct string,
+ * then the objects. Strings (map keys included) are written once in the
+ * table and referred to by index, so repeated values such as enum names,
+ * origins and suppliers cost a few bytes each. Numbers are stored as
+ * doubles, as Gson would parse them from the JSON.
+ */
+public class V2Snapshot
+{
+	private static final int MAGIC = 0x42445331; // "BDS1"
+	private static final int VERSION = 1;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte NUMBER = 2;
+	private static final byte TRUE = 3;
+	private static final byte FALSE = 4;
+	private static final byte MAP = 5;
+	private static final byte LIST = 6;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the hash of a silo file's contents, to be recorded in its snapshot
+	 */
+	public static String hash(byte[] source)
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return Base64.getEncoder().encodeToString(md.digest(source));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new V2Exception(e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes a snapshot.
+	 *
+	 * @param sourceHash
+	 * 	the {@link #hash} of the JSON the objects were loaded from
+	 * @param objects
+	 * 	the serialised objects, each paired with its fingerprint
+	 */
+	public static void write(
+		OutputStream out,
+		String sourceHash,
+		List<Map> objects,
+		List<String> fingerprints) throws IOException
+	{
+		// encode the objects first, to build the string table
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream bodyOut = new DataOutputStream(body);
+
+		writeVarInt(objects.size(), bodyOut);
+		for (int i=0; i<objects.size(); i++)
+		{
+			writeValue(objects.get(i), bodyOut, strings);
+			writeString(fingerprints.get(i), bodyOut, strings);
+		}
+		bodyOut.flush();
+
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeUTF(sourceHash);
+		writeVarInt(strings.size(), dos);
+		for (String s : strings.keySet())
+		{
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length, dos);
+			dos.write(bytes);
+		}
+		body.writeTo(dos);
+		dos.flush();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Reads a snapshot, passing each object and its fingerprint to the given
+	 * consumer.
+	 *
+	 * @return
+	 * 	false, without reading any objects, if this is not a snapshot of the
+	 * 	current version taken from JSON with the given hash
+	 */
+	public static boolean read(
+		InputStream in,
+		String sourceHash,
+		BiConsumer<Map, String> consumer) throws IOException
+	{
+		DataInputStream dis = new DataInputStream(in);
+
+		if (dis.readInt() != MAGIC ||
+			dis.readInt() != VERSION ||
+			!dis.readUTF().equals(sourceHash))
+		{
+			return false;
+		}
+
+		String[] strings = new String[readVarInt(dis)];
+		for (int i=0; i<strings.length; i++)
+		{
+			byte[] bytes = new byte[readVarInt(dis)];
+			dis.readFully(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int count = readVarInt(dis);
+		for (int i=0; i<count; i++)
+		{
+			Map obj = (Map)readValue(dis, strings);
+			String fingerprint = strings[readVarInt(dis)];
+			consumer.accept(obj, fingerprint);
+		}
+
+		return true;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void writeValue(
+		Object obj,
+		DataOutputStream out,
+		Map<String, Integer> strings) throws IOException
+	{
+		if (obj == null)
+		{
+			out.writeByte(NULL);
+		}
+		else if (obj instanceof Map)
+		{
+			Map<?, ?> map = (Map<?, ?>)obj;
+			out.writeByte(MAP);
+			writeVarInt(map.size(), out);
+			for (Map.Entry<?, ?> e : map.entrySet())
+			{
+				writeString(String.valueOf(e.getKey()), out, strings);
+				writeValue(e.getValue(), out, strings);
+			}
+		}
+		else if (obj instanceof Collection)
+		{
+			Collection<?> list = (Collection<?>)obj;
+			out.writeByte(LIST);
+			writeVarInt(list.size(), out);
+			for (Object item : list)
+			{
+				writeValue(item, out, strings);
+			}
+		}
+		else if (obj instanceof Number)
+		{
+			out.writeByte(NUMBER);
+			out.writeDouble(((Number)obj).doubleValue());
+		}
+		else if (obj instanceof Boolean)
+		{
+			out.writeByte((Boolean)obj ? TRUE : FALSE);
+		}
+		else
+		{
+			out.writeByte(STRING);
+			writeString(obj.toString(), out, strings);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static Object readValue(
+		DataInputStream in,
+		String[] strings) throws IOException
+	{
+		byte tag = in.readByte();
+		switch (tag)
+		{
+			case NULL:
+				return null;
+			case STRING:
+				return strings[readVarInt(in)];
+			case NUMBER:
+				return in.readDouble();
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case MAP:
+				int size = readVarInt(in);
+				Map<String, Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+				for (int i=0; i<size; i++)
+				{
+					String key = strings[readVarInt(in)];
+					map.put(key, readValue(in, strings));
+				}
+				return map;
+			case LIST:
+				int length = readVarInt(in);
+				List<Object> list = new ArrayList<>(length);
+				for (int i=0; i<length; i++)
+				{
+					list.add(readValue(in, strings));
+				}
+				return list;
+			default:
+				throw new V2Exception("invalid snapshot tag: " + tag);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void writeString(
+		String s,
+		DataOutputStream out,
+		Map<String, Integer> strings) throws IOException
+	{
+		Integer index = strings.get(s);
+		if (index == null)
+		{
+			index = strings.size();
+			strings.put(s, index);
+		}
+		writeVarInt(index, out);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void writeVarInt(int value, DataOutput out) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static int readVarInt(DataInput in) throws IOException
+	{
+		int result = 0;
+		for (int shift=0; shift<32; shift+=7)
+		{
+			byte b = in.readByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+		}
+		throw new V2Exception("invalid snapshot varint");
+	}
+}
@@ -21,11 +21,18 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.function.*;
 import mclachlan.brewday.db.Database;
 
 /**
@@ -33,6 +40,65 @@ import mclachlan.brewday.db.Database;
  */
 public class V2Utils
 {
+	private static final Gson GSON = new Gson();
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Streams the objects of a JSON array to the given consumer one at a time,
+	 * so that only one object's Map need be in memory at once.
+	 */
+	public static void readObjects(BufferedReader reader,
+		Consumer<Map> consumer) throws IOException
+	{
+		JsonReader jsonReader = new JsonReader(reader);
+
+		if (jsonReader.peek() == JsonToken.NULL)
+		{
+			jsonReader.nextNull();
+			return;
+		}
+
+		jsonReader.beginArray();
+		while (jsonReader.hasNext())
+		{
+			consumer.accept(GSON.fromJson(jsonReader, Map.class));
+		}
+		jsonReader.endArray();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	a JSON stream that pretty prints in the same layout as {@link #getJson}
+	 */
+	public static JsonWriter getJsonWriter(Writer writer)
+	{
+		JsonWriter result = new JsonWriter(writer);
+		result.setIndent("  ");
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Writes one object to the given JSON stream.
+	 */
+	public static void writeObject(Map obj, JsonWriter writer) throws IOException
+	{
+		GSON.toJson(obj, Map.class, writer);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the given serialised object as it would be parsed back from its JSON,
+	 * 	eg with enums as strings and numbers as doubles. Serialisers expect
+	 * 	this form in fromMap.
+	 */
+	public static Map normalise(Map obj)
+	{
+		return GSON.fromJson(GSON.toJsonTree(obj, Map.class), Map.class);
+	}
+
 	/*-------------------------------------------------------------------------*/
 	public static List<Map> getObjects(BufferedReader reader)
 	{
@@ -140,4 +206,86 @@ public class V2Utils
 
 		return result;
 	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Digest of a serialised object, as produced by a {@link V2SerialiserMap}
+	 * or parsed back from a silo file. The digest ignores map ordering, null
+	 * values and the numeric type of numbers, so an unchanged object gives the
+	 * same fingerprint whether it was just loaded or just marshalled.
+	 */
+	public static String fingerprint(Object obj)
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			digest(obj, md);
+			return Base64.getEncoder().encodeToString(md.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new V2Exception(e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void digest(Object obj, MessageDigest md)
+	{
+		if (obj == null)
+		{
+			md.update((byte)'n');
+		}
+		else if (obj instanceof Map)
+		{
+			// sort the keys, the iteration order of a HashMap is not stable
+			Map<String, Object> sorted = new TreeMap<>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>)obj).entrySet())
+			{
+				if (e.getValue() != null)
+				{
+					sorted.put(String.valueOf(e.getKey()), e.getValue());
+				}
+			}
+
+			md.update((byte)'{');
+			for (Map.Entry<String, Object> e : sorted.entrySet())
+			{
+				digestString(e.getKey(), md);
+				digest(e.getValue(), md);
+			}
+			md.update((byte)'}');
+		}
+		else if (obj instanceof Collection)
+		{
+			md.update((byte)'[');
+			for (Object item : (Collection<?>)obj)
+			{
+				digest(item, md);
+			}
+			md.update((byte)']');
+		}
+		else if (obj instanceof Number)
+		{
+			// Gson parses all numbers as doubles
+			md.update((byte)'d');
+			md.update(ByteBuffer.allocate(8).putDouble(((Number)obj).doubleValue()).array());
+		}
+		else if (obj instanceof Boolean)
+		{
+			md.update((Boolean)obj ? (byte)'t' : (byte)'f');
+		}
+		else
+		{
+			md.update((byte)'s');
+			digestString(obj.toString(), md);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void digestString(String s, MessageDigest md)
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		md.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		md.update(bytes);
+	}
 }
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.SecureRandom;
+import java.util.*;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -33,10 +34,17 @@ import javax.crypto.spec.SecretKeySpec;
  * <p>
  * This storage is appropriate for non critical data like API keys.
  * Do not use it to store information the needs a high level of security.
+ * <p>
+ * The keystore is loaded once and kept in memory, and is only reloaded if
+ * the file changes underneath it. Decrypted entries are cached for a limited
+ * time, see {@link #invalidate()}.
  */
 public class SensitiveStore
 {
 	public static final String STORE_TYPE = "JCEKS";
+
+	/** how long decrypted entries are kept by default */
+	public static final long DEFAULT_CACHE_MILLIS = 5 * 60 * 1000;
 	private byte[] classKey = new byte[]
 		{
 			0x2c, (byte)0xd7, 0x4b, (byte)0xd2, 0x46, 0x4c, (byte)0xfc, (byte)0xb2,
@@ -46,12 +54,29 @@ public class SensitiveStore
 	private char[] chars;
 	private String rootDir;
 	private String prefix;
+	private final long cacheMillis;
+
+	// guarded by this
+	private KeyStore keyStore;
+	private long storeLength, storeLastModified;
+	private final Map<String, CachedEntry> cache = new HashMap<>();
 
 	/*-------------------------------------------------------------------------*/
 	public SensitiveStore(String rootDir, String prefix)
+	{
+		this(rootDir, prefix, DEFAULT_CACHE_MILLIS);
+	}
+
+	/**
+	 * @param cacheMillis
+	 * 	how long to keep decrypted entries in memory. Zero disables the
+	 * 	cache.
+	 */
+	public SensitiveStore(String rootDir, String prefix, long cacheMillis)
 	{
 		this.rootDir = rootDir;
 		this.prefix = prefix;
+		this.cacheMillis = cacheMillis;
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -128,20 +153,20 @@ public class SensitiveStore
 	 * @param appKey
 	 * 	The application supplied part of the keystore password.
 	 */
-	public void init(String appKey) throws Exception
+	public synchronized void init(String appKey) throws Exception
 	{
 		chars = createChars(appKey);
+		invalidate();
 
 		if (getStorePath().exists())
 		{
-			KeyStore ks = KeyStore.getInstance(STORE_TYPE);
-			ks.load(new FileInputStream(getStorePath()), chars);
+			getKeyStore();
 		}
 		else
 		{
 			KeyStore ks = KeyStore.getInstance(STORE_TYPE);
 			ks.load(null, chars);
-			ks.store(new FileOutputStream(getStorePath()), chars);
+			store(ks);
 		}
 	}
 
@@ -150,22 +175,24 @@ public class SensitiveStore
 	/**
 	 * Returns the data stores with the given key, or null if non is present.
 	 */
-	public String get(String key) throws Exception
+	public synchronized String get(String key) throws Exception
 	{
-		KeyStore ks = KeyStore.getInstance(STORE_TYPE);
-		FileInputStream stream = new FileInputStream(getStorePath());
-		ks.load(stream, chars);
-		stream.close();
+		long now = System.currentTimeMillis();
 
-		Key value = ks.getKey(key, chars);
-
-		if (value == null)
+		CachedEntry cached = cache.get(key);
+		if (cached != null && cached.expires > now && isStoreCurrent())
 		{
-			return null;
+			return cached.value;
 		}
+
+		Key value = getKeyStore().getKey(key, chars);
+		String result = value == null ? null : new String(value.getEncoded());
+
+		if (cacheMillis > 0)
 		{
-			return new String(value.getEncoded());
+			cache.put(key, new CachedEntry(result, now + cacheMillis));
 		}
+		return result;
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -174,20 +201,123 @@ public class SensitiveStore
 	 */
 	public void set(String key, String value) throws Exception
 	{
-		KeyStore ks = KeyStore.getInstance(STORE_TYPE);
-		ks.load(new FileInputStream(getStorePath()), chars);
-		byte[] bytes = value.getBytes();
-
-		// these aren't really AES keys, we fake it
-		KeyStore.SecretKeyEntry secretKeyEntry = new KeyStore.SecretKeyEntry(
-			new SecretKeySpec(bytes, "AES"));
+		set(Collections.singletonMap(key, value));
+	}
 
+	/**
+	 * Adds the given key-value pairs to sensitive storage, writing the
+	 * keystore once for all of them.
+	 */
+	public synchronized void set(Map<String, String> values) throws Exception
+	{
+		KeyStore ks = getKeyStore();
 		KeyStore.PasswordProtection protParam = new KeyStore.PasswordProtection(chars);
-		ks.setEntry(key, secretKeyEntry, protParam);
 
-		FileOutputStream stream = new FileOutputStream(getStorePath());
-		ks.store(stream, chars);
-		stream.flush();
-		stream.close();
+		for (Map.Entry<String, String> e : values.entrySet())
+		{
+			byte[] bytes = e.getValue().getBytes();
+
+			// these aren't really AES keys, we fake it
+			KeyStore.SecretKeyEntry secretKeyEntry = new KeyStore.SecretKeyEntry(
+				new SecretKeySpec(bytes, "AES"));
+
+			ks.setEntry(e.getKey(), secretKeyEntry, protParam);
+		}
+
+		try
+		{
+			store(ks);
+		}
+		catch (Exception x)
+		{
+			// the keystore in memory no longer matches the file
+			invalidate();
+			throw x;
+		}
+
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, String> e : values.entrySet())
+		{
+			if (cacheMillis > 0)
+			{
+				cache.put(e.getKey(), new CachedEntry(e.getValue(), now + cacheMillis));
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Drops the decrypted entries and the loaded keystore, so that the next
+	 * access reads the keystore file again.
+	 */
+	public synchronized void invalidate()
+	{
+		cache.clear();
+		keyStore = null;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	the keystore, loading it if it is not loaded or if the file has
+	 * 	changed since it was
+	 */
+	private KeyStore getKeyStore() throws Exception
+	{
+		if (keyStore == null || !isStoreCurrent())
+		{
+			cache.clear();
+
+			KeyStore ks = KeyStore.getInstance(STORE_TYPE);
+			File file = getStorePath();
+			long length = file.length();
+			long lastModified = file.lastModified();
+			try (FileInputStream stream = new FileInputStream(file))
+			{
+				ks.load(stream, chars);
+			}
+
+			keyStore = ks;
+			storeLength = length;
+			storeLastModified = lastModified;
+		}
+		return keyStore;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private boolean isStoreCurrent()
+	{
+		File file = getStorePath();
+		return keyStore != null &&
+			file.length() == storeLength &&
+			file.lastModified() == storeLastModified;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void store(KeyStore ks) throws Exception
+	{
+		File file = getStorePath();
+		try (FileOutputStream stream = new FileOutputStream(file))
+		{
+			ks.store(stream, chars);
+			stream.flush();
+		}
+
+		keyStore = ks;
+		storeLength = file.length();
+		storeLastModified = file.lastModified();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static class CachedEntry
+	{
+		private final String value;
+		private final long expires;
+
+		public CachedEntry(String value, long expires)
+		{
+			this.value = value;
+			this.expires = expires;
+		}
 	}
 }
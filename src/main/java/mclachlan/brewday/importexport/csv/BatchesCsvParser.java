@@ -30,13 +30,13 @@ import mclachlan.brewday.Brewday;
 import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.util.StringUtils;
 import mclachlan.brewday.batch.Batch;
-import mclachlan.brewday.db.Database;
 import mclachlan.brewday.db.v2.V2DataObject;
 import mclachlan.brewday.math.DensityUnit;
 import mclachlan.brewday.math.Quantity;
 import mclachlan.brewday.math.VolumeUnit;
 import mclachlan.brewday.process.*;
 import mclachlan.brewday.recipe.Recipe;
+import mclachlan.brewday.recipe.RecipeEvaluator;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 
@@ -45,6 +45,9 @@ import org.apache.commons.csv.CSVRecord;
  */
 public class BatchesCsvParser
 {
+	/** recipes that failed to run in the last parse, by name */
+	private final Map<String, RuntimeException> errors = new LinkedHashMap<>();
+
 	public enum CsvFormat
 	{
 		EXCEL, RFC_4180;
@@ -66,6 +69,7 @@ public class BatchesCsvParser
 		Map<Class<?>, Map<String, V2DataObject>> result = new HashMap<>();
 
 		result.put(Batch.class, new HashMap<>());
+		errors.clear();
 
 		for (File file : files)
 		{
@@ -75,6 +79,17 @@ public class BatchesCsvParser
 		return result;
 	}
 
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	The recipes that threw while they were run by the last parse, by name.
+	 * 	No batches were made from the rows that refer to them.
+	 */
+	public Map<String, RuntimeException> getErrors()
+	{
+		return errors;
+	}
+
 	/*-------------------------------------------------------------------------*/
 	private void parseFile(
 		File file,
@@ -98,7 +113,15 @@ public class BatchesCsvParser
 				throw new BrewdayException("Unexpected value: " + csvFormat);
 		}
 
-		Iterable<CSVRecord> records = format.withFirstRecordAsHeader().parse(in);
+		List<CSVRecord> records = format.withFirstRecordAsHeader().parse(in).getRecords();
+
+		// run every recipe that the file refers to up front, together
+		Set<String> recipeNames = new LinkedHashSet<>();
+		for (CSVRecord record : records)
+		{
+			recipeNames.add(record.get("Name"));
+		}
+		Map<String, RecipeEvaluator.Result> evaluated = new RecipeEvaluator().evaluate(recipeNames);
 
 		for (CSVRecord record : records)
 		{
@@ -112,11 +135,19 @@ public class BatchesCsvParser
 			double measBatchSize = Double.valueOf(record.get("Meas Batch Size"));
 			double measBottlingVol = Double.valueOf(record.get("Meas Bottling Vol"));
 
-			Recipe recipe = Database.getInstance().getRecipes().get(recipeName);
+			RecipeEvaluator.Result evaluation = evaluated.get(recipeName);
+			if (evaluation.getError() != null)
+			{
+				errors.put(recipeName, evaluation.getError());
+				continue;
+			}
+
+			Recipe recipe = evaluation.getRecipe();
 
 			if (recipe != null)
 			{
-				Batch batch = Brewday.getInstance().createNewBatch(recipe, parseDate(date));
+				Batch batch = Brewday.getInstance().createNewBatch(
+					recipe, recipe.getVolumes(), parseDate(date));
 
 				batch.setDescription(StringUtils.getProcessString("import.csv.batch.desc", LocalDate.now()));
 
@@ -149,8 +180,6 @@ public class BatchesCsvParser
 		Quantity.Unit volumeUnit,
 		Quantity.Unit gravityUnit)
 	{
-		recipe.run();
-
 		Volumes vols = batch.getActualVolumes();
 
 		for (ProcessStep step : recipe.getSteps())
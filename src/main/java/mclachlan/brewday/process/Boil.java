@@ -289,13 +289,33 @@ public class Boil extends ProcessStep
 		postBoilOut.setFermentability(inputVolume.getFermentability());
 		volumes.addOrUpdateVolume(outputWortVolume, postBoilOut);
 
-		List<HopAddition> hopsInVolume;
+		//
+		// Copy the additions before updating the boiled time of the hops. The
+		// input volume's additions can be shared with other branches of the
+		// recipe, which may be running at the same time.
+		//
+		ArrayList<IngredientAddition> ingredientAdditions = new ArrayList<>();
+		for (IngredientAddition ia : inputVolume.getIngredientAdditions())
+		{
+			ingredientAdditions.add(ia.clone());
+		}
+		for (IngredientAddition ia : this.getIngredientAdditions())
+		{
+			ingredientAdditions.add(ia.clone());
+		}
+
+		for (IngredientAddition ia : ingredientAdditions)
+		{
+			if (ia.getType() == IngredientAddition.Type.HOPS)
+			{
+				HopAddition ha = (HopAddition)ia;
+				ha.setBoiledTime(new TimeUnit(ha.getBoiledTime().get() + ha.getTime().get()));
+			}
+		}
 
 		//
 		// If necessary create the output trub volume
 		//
-		ArrayList<IngredientAddition> ingredientAdditions = new ArrayList<>(inputVolume.getIngredientAdditions());
-		ingredientAdditions.addAll(this.getIngredientAdditions());
 		if (removeTrubAndChillerLoss)
 		{
 			Volume trubOut = new Volume(
@@ -311,19 +331,12 @@ public class Boil extends ProcessStep
 
 			// assume that all ingredients remain in the trub
 			trubOut.setIngredientAdditions(ingredientAdditions);
-			hopsInVolume = new ArrayList(trubOut.getIngredientAdditions(IngredientAddition.Type.HOPS));
 			volumes.addOrUpdateVolume(outputTrubVolume, trubOut);
 		}
 		else
 		{
 			// assume that all ingredients stay in the wort for now
 			postBoilOut.setIngredientAdditions(ingredientAdditions);
-			hopsInVolume = new ArrayList(postBoilOut.getIngredientAdditions(IngredientAddition.Type.HOPS));
-		}
-
-		for (HopAddition ha : hopsInVolume)
-		{
-			ha.setBoiledTime(new TimeUnit(ha.getBoiledTime().get() + ha.getTime().get()));
 		}
 
 		// calculated fields
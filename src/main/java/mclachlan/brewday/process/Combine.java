@@ -118,7 +118,7 @@ public class Combine extends FluidVolumeProcessStep
 
 		VolumeUnit volOut = new VolumeUnit(input.getVolume().get() + input2.getVolume().get());
 
-		Set<IngredientAddition> additions = new HashSet<>();
+		Set<IngredientAddition> additions = new LinkedHashSet<>();
 		if (input.getIngredientAdditions() != null)
 		{
 			additions.addAll(input.getIngredientAdditions());
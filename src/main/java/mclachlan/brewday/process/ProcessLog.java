@@ -48,6 +48,16 @@ public class ProcessLog
 		warnings.add(s);
 	}
 
+	/**
+	 * Appends the messages, errors and warnings of the other log to this one.
+	 */
+	public void add(ProcessLog other)
+	{
+		msgs.addAll(other.msgs);
+		errors.addAll(other.errors);
+		warnings.addAll(other.warnings);
+	}
+
 	public List<String> getMsgs()
 	{
 		return msgs;
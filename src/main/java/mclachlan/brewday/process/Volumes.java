@@ -18,20 +18,22 @@
 package mclachlan.brewday.process;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.math.Quantity;
 import mclachlan.brewday.recipe.Recipe;
 
 /**
- *
+ * The volumes of a recipe or batch. Safe for steps on different threads to
+ * add and read volumes at the same time.
  */
 public class Volumes
 {
 	/** Contains all the volumes of this recipe or batch, indexed by name */
-	private Map<String, Volume> volumes = new HashMap<>();
+	private Map<String, Volume> volumes = new ConcurrentHashMap<>();
 
 	/** Special output volume(s) that represent the end result, typically beer. */
-	private Set<String> outputVolumes = new HashSet<>();
+	private Set<String> outputVolumes = ConcurrentHashMap.newKeySet();
 
 	/*-------------------------------------------------------------------------*/
 	public Volumes()
@@ -55,7 +57,7 @@ public class Volumes
 	/**
 	 * Adds an output volume.
 	 */
-	public void addOutputVolume(String key, Volume v)
+	public synchronized void addOutputVolume(String key, Volume v)
 	{
 		if (volumes.containsKey(key))
 		{
@@ -73,7 +75,7 @@ public class Volumes
 	 * update all of it's estimate metrics. Measured metrics from a volume already
 	 * present are not updated.
 	 */
-	public void addOrUpdateOutputVolume(String key, Volume v)
+	public synchronized void addOrUpdateOutputVolume(String key, Volume v)
 	{
 		addOrUpdateVolume(key, v);
 		v.setName(key);
@@ -84,7 +86,7 @@ public class Volumes
 	/**
 	 * Adds a computed volume.
 	 */
-	public void addVolume(String key, Volume v)
+	public synchronized void addVolume(String key, Volume v)
 	{
 		if (v == null)
 		{
@@ -109,7 +111,7 @@ public class Volumes
 	 * update all of it's estimate metrics. Measured metrics from a volume already
 	 * present are not updated.
 	 */
-	public void addOrUpdateVolume(String key, Volume v)
+	public synchronized void addOrUpdateVolume(String key, Volume v)
 	{
 		if (v == null)
 		{
@@ -147,12 +149,14 @@ public class Volumes
 	/*-------------------------------------------------------------------------*/
 	public Volume getVolume(String key)
 	{
-		if (!volumes.containsKey(key))
+		Volume result = key == null ? null : volumes.get(key);
+
+		if (result == null)
 		{
 			throw new BrewdayException("volume does not exist ["+key+"]");
 		}
 
-		return volumes.get(key);
+		return result;
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -183,12 +187,20 @@ public class Volumes
 	}
 
 	/*-------------------------------------------------------------------------*/
+	/**
+	 * Keeps the given set, which must be safe for concurrent use if these
+	 * volumes are passed to a recipe run.
+	 */
 	public void setOutputVolumes(Set<String> outputVolumes)
 	{
 		this.outputVolumes = outputVolumes;
 	}
 
 	/*-------------------------------------------------------------------------*/
+	/**
+	 * Keeps the given map, which must be safe for concurrent use if these
+	 * volumes are passed to a recipe run.
+	 */
 	public void setVolumes(Map<String, Volume> volumes)
 	{
 		this.volumes = volumes;
@@ -197,7 +209,7 @@ public class Volumes
 	/*-------------------------------------------------------------------------*/
 	public boolean contains(String volName)
 	{
-		return volumes.containsKey(volName);
+		return volName != null && volumes.containsKey(volName);
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -235,20 +247,10 @@ public class Volumes
 		{
 			for (String vol : ps.getOutputVolumes())
 			{
-				if (contains(vol) && getVolume(vol).getType() == type)
+				if (contains(vol) && getVolume(vol).getType() == type &&
+					recipe.getStepsConsumingVolume(vol).isEmpty())
 				{
-					boolean consumed = false;
-					for (ProcessStep ps2 : recipe.getSteps())
-					{
-						if (ps2.getInputVolumes().contains(vol))
-						{
-							consumed = true;
-						}
-					}
-					if (!consumed)
-					{
-						return vol;
-					}
+					return vol;
 				}
 			}
 		}
@@ -18,8 +18,12 @@
 package mclachlan.brewday.recipe;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import mclachlan.brewday.Brewday;
 import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.Settings;
 import mclachlan.brewday.util.StringUtils;
 import mclachlan.brewday.db.Database;
 import mclachlan.brewday.db.v2.V2DataObject;
@@ -29,6 +33,7 @@ import mclachlan.brewday.process.*;
 import mclachlan.brewday.style.Style;
 import mclachlan.brewday.ui.UiUtils;
 import mclachlan.brewday.util.Log;
+import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DirectedAcyclicGraph;
 import org.jgrapht.traverse.TopologicalOrderIterator;
 
@@ -37,6 +42,31 @@ import org.jgrapht.traverse.TopologicalOrderIterator;
  */
 public class Recipe implements V2DataObject
 {
+	/**
+	 * Recipes with fewer steps than this are always run on the calling
+	 * thread, handing their steps between threads costs more than it saves.
+	 */
+	private static final int MIN_PARALLEL_STEPS = 16;
+
+	/**
+	 * The settings that the process steps read, a change to any of them
+	 * changes the result of a run.
+	 */
+	private static final List<String> RUN_SETTINGS = Arrays.asList(
+		Settings.MASH_PH_MODEL,
+		Settings.MPH_MALT_BUFFERING_CORRECTION_FACTOR,
+		Settings.MASH_HOP_UTILISATION,
+		Settings.FIRST_WORT_HOP_UTILISATION,
+		Settings.LEAF_HOP_ADJUSTMENT,
+		Settings.PLUG_HOP_ADJUSTMENT,
+		Settings.PELLET_HOP_ADJUSTMENT,
+		Settings.HOP_BITTERNESS_FORMULA,
+		Settings.TINSETH_MAX_UTILISATION,
+		Settings.GARETZ_YEAST_FACTOR,
+		Settings.GARETZ_PELLET_FACTOR,
+		Settings.GARETZ_BAG_FACTOR,
+		Settings.GARETZ_FILTER_FACTOR);
+
 	/**
 	 * Name of this recipe, is unique
 	 */
@@ -74,6 +104,28 @@ public class Recipe implements V2DataObject
 	 */
 	private ProcessLog log;
 
+	/**
+	 * State of the last full run, kept so that an edit to one step can be
+	 * re-run without redoing the steps upstream of it. Null if there is
+	 * nothing to re-use.
+	 */
+	private ProcessLog sortLog;
+	private Map<ProcessStep, ProcessLog> stepLogs;
+	private Map<ProcessStep, Set<String>> stepOutputs;
+	private EquipmentProfile runEquipment;
+
+	/**
+	 * The {@link #getRunKey} of the last full run, so that running again with
+	 * nothing changed can keep its results. Null if there was no full run, or
+	 * it has been re-run in part or changed through its setters since.
+	 */
+	private String runKey;
+
+	/**
+	 * cache of the step dependency graph
+	 */
+	private StepGraph stepGraph;
+
 	/*-------------------------------------------------------------------------*/
 	public Recipe()
 	{
@@ -128,6 +180,7 @@ public class Recipe implements V2DataObject
 
 	public void setSteps(List<ProcessStep> steps)
 	{
+		this.runKey = null;
 		this.steps = steps;
 	}
 
@@ -140,6 +193,7 @@ public class Recipe implements V2DataObject
 	/*-------------------------------------------------------------------------*/
 	public void setEquipmentProfile(String equipmentProfile)
 	{
+		this.runKey = null;
 		this.equipmentProfile = equipmentProfile;
 	}
 
@@ -180,70 +234,457 @@ public class Recipe implements V2DataObject
 	 */
 	public void run()
 	{
-		log = new ProcessLog();
+		run(Database.getInstance().getEquipmentProfiles().get(this.equipmentProfile));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs the recipe end to end with the given equipment, which may come from
+	 * somewhere other than the live database, e.g. a snapshot. Clears computed
+	 * volumes before running.
+	 * <p>
+	 * When running against a snapshot, if nothing that the run depends on has
+	 * changed since the last full run (see {@link #getRunKey}), the volumes
+	 * and log of that run are kept and no steps are run. Against the live db
+	 * the recipe is always run, as edits in place may not be published yet.
+	 *
+	 * @param equipment
+	 * 	the equipment profile named by this recipe, null if there is none
+	 */
+	public void run(EquipmentProfile equipment)
+	{
+		String key = getRunKey();
+		if (key != null && key.equals(runKey) && equipment == runEquipment)
+		{
+			return;
+		}
+
+		ProcessLog sortLog = new ProcessLog();
+		sortSteps(sortLog);
+
+		this.runKey = null;
 		this.volumes = new Volumes();
+		this.sortLog = sortLog;
+		this.stepLogs = new HashMap<>();
+		this.stepOutputs = new HashMap<>();
 
-		sortSteps(log);
+		runEquipment = equipment;
 
-		EquipmentProfile equipment = Database.getInstance().getEquipmentProfiles().get(this.equipmentProfile);
+		if (runEquipment == null)
+		{
+			sortLog.addError(StringUtils.getProcessString("equipment.invalid.profile", this.equipmentProfile));
+		}
+		else
+		{
+			runSteps(getSteps());
+		}
 
-		this.run(volumes, equipment, log);
+		collectLog();
+		this.runKey = key;
 	}
 
 	/*-------------------------------------------------------------------------*/
 	/**
-	 * Runs the recipe end to end, populating the given volumes, equipment and log.
+	 * Takes the volumes and log of a full run of another copy of this recipe,
+	 * as if this one had been run, without sharing anything that can be
+	 * changed through this recipe. The next run of this recipe runs it in
+	 * full.
 	 */
-	public void run(Volumes volumes, EquipmentProfile equipment, ProcessLog log)
+	void copyRunFrom(Recipe other)
 	{
-		if (equipment == null)
+		Volumes volumes = new Volumes();
+		for (Map.Entry<String, Volume> e : other.volumes.getVolumes().entrySet())
 		{
-			log.addError(StringUtils.getProcessString("equipment.invalid.profile", this.equipmentProfile));
+			Volume v = e.getValue().clone();
+			v.setIngredientAdditions(e.getValue().getIngredientAdditions());
+			v.setStyle(e.getValue().getStyle());
+			volumes.getVolumes().put(e.getKey(), v);
+		}
+		volumes.getOutputVolumes().addAll(other.volumes.getOutputVolumes());
+		this.volumes = volumes;
+
+		this.log = new ProcessLog();
+		this.log.add(other.log);
+
+		this.runKey = null;
+		this.sortLog = null;
+		this.stepLogs = null;
+		this.stepOutputs = null;
+		this.runEquipment = other.runEquipment;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	A key that changes whenever something a run of this recipe depends on
+	 * 	may have changed: the version of the db that process code reads (see
+	 * 	{@link Database#getVersion}), and the settings used by the process
+	 * 	steps, which change without an event. Null against a db that is not
+	 * 	{@link Database#isFrozen frozen}, as the version of the live db does
+	 * 	not change with edits in place until they are published.
+	 */
+	String getRunKey()
+	{
+		Database db = Database.getInstance();
+		if (!db.isFrozen())
+		{
+			return null;
+		}
+
+		StringBuilder result = new StringBuilder();
+		result.append(db.getVersion());
+		for (String setting : RUN_SETTINGS)
+		{
+			result.append('|').append(db.getSettings().get(setting));
+		}
+		return result.toString();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Re-runs the recipe after an edit to the given step or to one of its
+	 * ingredient additions. Only that step and the steps downstream of it are
+	 * re-applied, the volumes of the steps upstream of it are re-used from
+	 * the last run.
+	 * <p>
+	 * Falls back to a full {@link #run()} if there is no previous run, if
+	 * steps have been added or removed, if the equipment profile has changed
+	 * or if the steps can not be sorted. Changes to ingredients or equipment
+	 * in the database are not noticed here, re-run the whole recipe for those.
+	 *
+	 * @param changed
+	 * 	the edited step, or null to run the whole recipe
+	 */
+	public void run(ProcessStep changed)
+	{
+		EquipmentProfile equipment = Database.getInstance().getEquipmentProfiles().get(this.equipmentProfile);
+
+		if (changed == null)
+		{
+			run();
+			return;
+		}
+
+		if (stepLogs == null ||
+			equipment == null ||
+			equipment != runEquipment ||
+			!stepLogs.keySet().equals(new HashSet<>(getSteps())))
+		{
+			// the edit may not have been published yet
+			this.runKey = null;
+			run();
 			return;
 		}
 
+		ProcessLog sortLog = new ProcessLog();
+		sortSteps(sortLog);
+		if (!sortLog.getErrors().isEmpty())
+		{
+			this.runKey = null;
+			run();
+			return;
+		}
+		this.sortLog = sortLog;
+		this.runKey = null;
+
+		Set<ProcessStep> downstream = getDownstreamSteps(changed);
+
+		List<ProcessStep> toRun = new ArrayList<>();
 		for (ProcessStep s : getSteps())
 		{
-			s.setRecipe(this);
+			if (downstream.contains(s))
+			{
+				for (String v : stepOutputs.get(s))
+				{
+					volumes.getVolumes().remove(v);
+					volumes.getOutputVolumes().remove(v);
+				}
+				toRun.add(s);
+			}
+		}
 
-			try
+		runSteps(toRun);
+
+		collectLog();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	The given step and all steps that consume its volumes, directly or
+	 * 	indirectly. Volumes that a step produced in the last run count as well
+	 * 	as the ones it produces now, so that re-wiring a step also catches the
+	 * 	steps that used its old outputs.
+	 */
+	private Set<ProcessStep> getDownstreamSteps(ProcessStep changed)
+	{
+		Set<ProcessStep> result = new HashSet<>();
+		Set<String> volumeNames = new HashSet<>();
+
+		result.add(changed);
+		volumeNames.addAll(changed.getOutputVolumes());
+		volumeNames.addAll(stepOutputs.get(changed));
+
+		boolean found = true;
+		while (found)
+		{
+			found = false;
+			for (ProcessStep s : getSteps())
 			{
-				log.addMessage(StringUtils.getProcessString("log.step", s.getName()));
+				if (!result.contains(s) &&
+					(!Collections.disjoint(s.getInputVolumes(), volumeNames) ||
+						!Collections.disjoint(stepOutputs.get(s), volumeNames)))
+				{
+					result.add(s);
+					volumeNames.addAll(s.getOutputVolumes());
+					volumeNames.addAll(stepOutputs.get(s));
+					found = true;
+				}
+			}
+		}
 
-				for (String inputVolume : s.getInputVolumes())
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Applies the given steps to the cached volumes, recording the log and
+	 * the output volumes of each one.
+	 */
+	private void runSteps(List<ProcessStep> toRun)
+	{
+		stepLogs.putAll(applySteps(toRun, volumes, runEquipment));
+
+		for (ProcessStep s : toRun)
+		{
+			Set<String> outputs = new HashSet<>(s.getOutputVolumes());
+			outputs.remove(null);
+			stepOutputs.put(s, outputs);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Applies the given steps, which must be in sorted order. If there are
+	 * enough steps and they form independent branches, each step is run on
+	 * the common fork/join pool as soon as the steps producing its input
+	 * volumes are done, reading the same db as the calling thread. Each
+	 * step logs to its own log, so the caller can put them together in step
+	 * order whatever order the steps ran in.
+	 *
+	 * @return
+	 * 	The log of each step.
+	 */
+	private Map<ProcessStep, ProcessLog> applySteps(
+		List<ProcessStep> toRun,
+		Volumes volumes,
+		EquipmentProfile equipment)
+	{
+		Map<ProcessStep, ProcessLog> result = new HashMap<>();
+		Map<ProcessStep, List<ProcessStep>> dependencies = getDependencies(toRun);
+
+		if (dependencies == null)
+		{
+			for (ProcessStep s : toRun)
+			{
+				ProcessLog stepLog = new ProcessLog();
+				runStep(s, volumes, equipment, stepLog);
+				result.put(s, stepLog);
+			}
+			return result;
+		}
+
+		Database db = Database.getInstance();
+		Map<ProcessStep, CompletableFuture<ProcessLog>> futures = new HashMap<>();
+		for (ProcessStep s : toRun)
+		{
+			CompletableFuture<?>[] inputs = dependencies.get(s).stream()
+				.map(futures::get)
+				.toArray(CompletableFuture[]::new);
+
+			futures.put(s, CompletableFuture.allOf(inputs).thenApplyAsync(v ->
+				Database.withInstance(db, () ->
+				{
+					ProcessLog stepLog = new ProcessLog();
+					runStep(s, volumes, equipment, stepLog);
+					return stepLog;
+				}), ForkJoinPool.commonPool()));
+		}
+
+		try
+		{
+			// wait for every branch before reporting a failure in any of them
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+				.exceptionally(e -> null)
+				.join();
+
+			for (ProcessStep s : toRun)
+			{
+				result.put(s, futures.get(s).join());
+			}
+		}
+		catch (CompletionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+			throw new BrewdayException(e.getCause());
+		}
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	For each of the given steps, the ones among them that it has to wait
+	 * 	for: the producers of its input volumes, and earlier producers of its
+	 * 	output volumes. Null if the steps should run one after the other:
+	 * 	there are too few of them or only one thread to run them on, each
+	 * 	depends on the one before, or there is a cycle.
+	 */
+	private Map<ProcessStep, List<ProcessStep>> getDependencies(List<ProcessStep> toRun)
+	{
+		if (toRun.size() < MIN_PARALLEL_STEPS ||
+			ForkJoinPool.getCommonPoolParallelism() < 2)
+		{
+			return null;
+		}
+
+		StepGraph graph = getStepGraph();
+		if (graph.error != null)
+		{
+			return null;
+		}
+
+		Set<ProcessStep> running = new HashSet<>(toRun);
+		Map<ProcessStep, List<ProcessStep>> result = new HashMap<>();
+		boolean branches = false;
+
+		for (int i = 0; i < toRun.size(); i++)
+		{
+			ProcessStep s = toRun.get(i);
+			Set<ProcessStep> dependencies = new LinkedHashSet<>();
+
+			for (String input : s.getInputVolumes())
+			{
+				for (ProcessStep producer : graph.producers.getOrDefault(input, Collections.emptyList()))
 				{
-					if (volumes.contains(inputVolume))
+					if (producer != s && running.contains(producer))
 					{
-						Volume v = volumes.getVolume(inputVolume);
-						log.addMessage(StringUtils.getProcessString("log.volume.in", v.describe(), v.getIngredientAdditions().size()));
+						dependencies.add(producer);
 					}
-					else
+				}
+			}
+
+			for (String output : s.getOutputVolumes())
+			{
+				for (ProcessStep producer : graph.producers.getOrDefault(output, Collections.emptyList()))
+				{
+					if (producer != s && result.containsKey(producer))
 					{
-						log.addMessage(StringUtils.getProcessString("log.volume.missing", inputVolume));
+						dependencies.add(producer);
 					}
 				}
+			}
 
-				s.apply(volumes, equipment, log);
+			if (i > 0 && !dependencies.contains(toRun.get(i - 1)))
+			{
+				branches = true;
+			}
 
-				for (String outputVolume : s.getOutputVolumes())
+			result.put(s, new ArrayList<>(dependencies));
+		}
+
+		return branches ? result : null;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Puts the sort log and the step logs together, in step order.
+	 */
+	private void collectLog()
+	{
+		log = new ProcessLog();
+		log.add(sortLog);
+
+		for (ProcessStep s : getSteps())
+		{
+			ProcessLog stepLog = stepLogs.get(s);
+			if (stepLog != null)
+			{
+				log.add(stepLog);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs the recipe end to end, populating the given volumes, equipment and log.
+	 */
+	public void run(Volumes volumes, EquipmentProfile equipment, ProcessLog log)
+	{
+		if (equipment == null)
+		{
+			log.addError(StringUtils.getProcessString("equipment.invalid.profile", this.equipmentProfile));
+			return;
+		}
+
+		Map<ProcessStep, ProcessLog> stepLogs = applySteps(getSteps(), volumes, equipment);
+
+		for (ProcessStep s : getSteps())
+		{
+			log.add(stepLogs.get(s));
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private void runStep(
+		ProcessStep s,
+		Volumes volumes,
+		EquipmentProfile equipment,
+		ProcessLog log)
+	{
+		s.setRecipe(this);
+
+		try
+		{
+			log.addMessage(StringUtils.getProcessString("log.step", s.getName()));
+
+			for (String inputVolume : s.getInputVolumes())
+			{
+				if (volumes.contains(inputVolume))
 				{
-					if (volumes.contains(outputVolume))
-					{
-						Volume v = volumes.getVolume(outputVolume);
-						log.addMessage(StringUtils.getProcessString("log.volume.out", v.describe(), v.getIngredientAdditions().size()));
-					}
-					else
-					{
-						log.addMessage(StringUtils.getProcessString("log.volume.missing", outputVolume));
-					}
+					Volume v = volumes.getVolume(inputVolume);
+					log.addMessage(StringUtils.getProcessString("log.volume.in", v.describe(), v.getIngredientAdditions().size()));
+				}
+				else
+				{
+					log.addMessage(StringUtils.getProcessString("log.volume.missing", inputVolume));
 				}
 			}
-			catch (BrewdayException e)
+
+			s.apply(volumes, equipment, log);
+
+			for (String outputVolume : s.getOutputVolumes())
 			{
-				log.addError(s.getName() + ": " + e.getMessage());
-				Brewday.getInstance().getLog().log(Log.LOUD, e);
+				if (volumes.contains(outputVolume))
+				{
+					Volume v = volumes.getVolume(outputVolume);
+					log.addMessage(StringUtils.getProcessString("log.volume.out", v.describe(), v.getIngredientAdditions().size()));
+				}
+				else
+				{
+					log.addMessage(StringUtils.getProcessString("log.volume.missing", outputVolume));
+				}
 			}
 		}
+		catch (BrewdayException e)
+		{
+			log.addError(s.getName() + ": " + e.getMessage());
+			Brewday.getInstance().getLog().log(Log.LOUD, e);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -255,6 +696,9 @@ public class Recipe implements V2DataObject
 	{
 		this.log = new ProcessLog();
 		this.volumes = new Volumes();
+		this.stepLogs = null;
+		this.stepOutputs = null;
+		this.runKey = null;
 
 		dryRun(this.volumes, this.log);
 	}
@@ -298,54 +742,46 @@ public class Recipe implements V2DataObject
 	/**
 	 * Sorts the steps of this recipe in a sensible order. This method treats the
 	 * process steps as a directed acyclic graph and performs a topological
-	 * sort.
+	 * sort. Steps that do not depend on each other keep their current order.
+	 * <p>
+	 * The graph is cached, and only rebuilt when steps are added or removed or
+	 * the volumes they consume and produce change.
 	 */
 	public void sortSteps(ProcessLog log)
 	{
-		DirectedAcyclicGraph<ProcessStep, String> graph =
-			new DirectedAcyclicGraph<>(String.class);
+		StepGraph graph = getStepGraph();
 
-		for (ProcessStep step : this.getSteps())
+		if (graph.error != null)
 		{
-			graph.addVertex(step);
+			log.addError(graph.error);
+			return;
 		}
 
-		for (ProcessStep step1 : this.getSteps())
+		this.steps = new ArrayList<>(graph.order);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	The step graph for the current steps and their volumes, rebuilding it
+	 * 	if they have changed since it was built.
+	 */
+	private StepGraph getStepGraph()
+	{
+		Map<ProcessStep, List<Collection<String>>> wiring = new HashMap<>();
+		for (ProcessStep step : this.getSteps())
 		{
-			for (String output : step1.getOutputVolumes())
-			{
-				for (ProcessStep step2 : this.getSteps())
-				{
-					for (String input : step2.getInputVolumes())
-					{
-						if (output.equals(input))
-						{
-							try
-							{
-								graph.addEdge(step1, step2, output);
-							}
-							catch (IllegalArgumentException e)
-							{
-								// the DAG throws this if adding the edge introduces a cycle
-
-								log.addError(
-									StringUtils.getProcessString("recipe.error.circular.dependency",
-										step1.getName(), step2.getName()));
-								return;
-							}
-						}
-					}
-				}
-			}
+			wiring.put(step, Arrays.asList(
+				new ArrayList<>(step.getInputVolumes()),
+				new ArrayList<>(step.getOutputVolumes())));
 		}
 
-		TopologicalOrderIterator<ProcessStep, String> iter = new TopologicalOrderIterator<>(graph);
-
-		this.steps = new ArrayList<>();
-		while (iter.hasNext())
+		if (stepGraph == null || !stepGraph.wiring.equals(wiring))
 		{
-			steps.add(iter.next());
+			stepGraph = new StepGraph(this.getSteps(), wiring);
 		}
+
+		return stepGraph;
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -586,14 +1022,20 @@ public class Recipe implements V2DataObject
 	 */
 	public ProcessStep getStepProducingVolume(String inputVolume)
 	{
-		for (ProcessStep ps : getSteps())
-		{
-			if (ps.getOutputVolumes().contains(inputVolume))
-			{
-				return ps;
-			}
-		}
-		return null;
+		List<ProcessStep> producers = getStepGraph().producers.get(inputVolume);
+		return producers == null ? null : producers.get(0);
+	}
+
+	/*-------------------------------------------------------------------------*/
+
+	/**
+	 * @return
+	 * 	The steps that take the given volume as an input, empty list if none.
+	 */
+	public List<ProcessStep> getStepsConsumingVolume(String volume)
+	{
+		List<ProcessStep> consumers = getStepGraph().consumers.get(volume);
+		return consumers == null ? Collections.emptyList() : consumers;
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -682,4 +1124,90 @@ public class Recipe implements V2DataObject
 		}
 		return false;
 	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * The dependency graph of a set of steps, built from an index of which
+	 * steps produce and consume each volume.
+	 */
+	private static class StepGraph
+	{
+		/** step -> [input volumes, output volumes] that the graph was built from */
+		private final Map<ProcessStep, List<Collection<String>>> wiring;
+
+		private final Map<String, List<ProcessStep>> producers = new HashMap<>();
+		private final Map<String, List<ProcessStep>> consumers = new HashMap<>();
+
+		/** the steps in topological order, null if there is a cycle */
+		private List<ProcessStep> order;
+
+		/** the error if the steps have a cycle, otherwise null */
+		private String error;
+
+		public StepGraph(
+			List<ProcessStep> steps,
+			Map<ProcessStep, List<Collection<String>>> wiring)
+		{
+			this.wiring = wiring;
+
+			for (ProcessStep step : steps)
+			{
+				for (String input : wiring.get(step).get(0))
+				{
+					if (input != null)
+					{
+						consumers.computeIfAbsent(input, k -> new ArrayList<>()).add(step);
+					}
+				}
+				for (String output : wiring.get(step).get(1))
+				{
+					if (output != null)
+					{
+						producers.computeIfAbsent(output, k -> new ArrayList<>()).add(step);
+					}
+				}
+			}
+
+			DirectedAcyclicGraph<ProcessStep, DefaultEdge> graph =
+				new DirectedAcyclicGraph<>(DefaultEdge.class);
+
+			Map<ProcessStep, Integer> positions = new HashMap<>();
+			for (ProcessStep step : steps)
+			{
+				graph.addVertex(step);
+				positions.put(step, positions.size());
+			}
+
+			for (ProcessStep step : steps)
+			{
+				for (String input : wiring.get(step).get(0))
+				{
+					for (ProcessStep producer : producers.getOrDefault(input, Collections.emptyList()))
+					{
+						try
+						{
+							graph.addEdge(producer, step);
+						}
+						catch (IllegalArgumentException e)
+						{
+							// the DAG throws this if adding the edge introduces a cycle
+
+							error = StringUtils.getProcessString("recipe.error.circular.dependency",
+								producer.getName(), step.getName());
+							return;
+						}
+					}
+				}
+			}
+
+			TopologicalOrderIterator<ProcessStep, DefaultEdge> iter =
+				new TopologicalOrderIterator<>(graph, Comparator.comparing(positions::get));
+
+			order = new ArrayList<>();
+			while (iter.hasNext())
+			{
+				order.add(iter.next());
+			}
+		}
+	}
 }
@@ -0,0 +1,234 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.recipe;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import mclachlan.brewday.Brewday;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.DatabaseSnapshot;
+import mclachlan.brewday.equipment.EquipmentProfile;
+import mclachlan.brewday.process.ProcessLog;
+import mclachlan.brewday.process.Volume;
+import mclachlan.brewday.process.Volumes;
+import mclachlan.brewday.util.Log;
+
+/**
+ * Runs many recipes at once, in parallel on the common fork/join pool.
+ * Recipes are run against a database snapshot, including the settings,
+ * equipment and styles that process steps look up, so every recipe is
+ * evaluated against the same data however long the evaluation takes, and
+ * the data thread can carry on editing in the meantime.
+ * <p>
+ * Each recipe is run on its own copy, the recipes in the database are not
+ * touched. The copies that were run are kept in a cache shared by all
+ * evaluators, keyed by name and {@link Recipe#getRunKey}, so evaluating a
+ * recipe from a snapshot taken before any further change to the db does
+ * not run it again.
+ * Every result gets its own copy of the recipe, the cached ones are never
+ * handed out.
+ */
+public class RecipeEvaluator
+{
+	/** how many run recipes the shared cache holds */
+	private static final int MAX_CACHED = 256;
+
+	/** run key to the copy of the recipe that was run with it, least recently used first */
+	private static final Map<String, Recipe> CACHE = Collections.synchronizedMap(
+		new LinkedHashMap<String, Recipe>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Recipe> eldest)
+			{
+				return size() > MAX_CACHED;
+			}
+		});
+
+	private final DatabaseSnapshot snapshot;
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Evaluates against a snapshot of the live database. Must be created on
+	 * the data thread.
+	 */
+	public RecipeEvaluator()
+	{
+		this(Database.getInstance().snapshot());
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public RecipeEvaluator(DatabaseSnapshot snapshot)
+	{
+		this.snapshot = snapshot;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	public DatabaseSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @return
+	 * 	The result of running the named recipe, with a null recipe if there
+	 * 	is no such recipe in the snapshot.
+	 */
+	public Result evaluate(String recipeName)
+	{
+		return snapshot.read(() -> run(recipeName));
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private Result run(String recipeName)
+	{
+		Recipe recipe = snapshot.copyOf(Database.RECIPES_JSON, recipeName);
+
+		if (recipe == null)
+		{
+			return new Result(recipeName, null, null);
+		}
+
+		try
+		{
+			EquipmentProfile equipment = snapshot.getEquipmentProfiles().get(recipe.getEquipmentProfile());
+
+			String key = recipeName + '|' + recipe.getRunKey();
+			Recipe cached = CACHE.get(key);
+			if (cached != null)
+			{
+				recipe.copyRunFrom(cached);
+				return new Result(recipeName, recipe, null);
+			}
+
+			recipe.run(equipment);
+
+			Recipe toCache = snapshot.copyOf(Database.RECIPES_JSON, recipeName);
+			toCache.copyRunFrom(recipe);
+			CACHE.put(key, toCache);
+			return new Result(recipeName, recipe, null);
+		}
+		catch (RuntimeException e)
+		{
+			Brewday.getInstance().getLog().log(Log.LOUD, e);
+			return new Result(recipeName, recipe, e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * Runs the named recipes in parallel and waits for them all.
+	 *
+	 * @return
+	 * 	The result for each name, in the order given.
+	 */
+	public Map<String, Result> evaluate(Collection<String> recipeNames)
+	{
+		Map<String, CompletableFuture<Result>> futures = new LinkedHashMap<>();
+		for (String name : recipeNames)
+		{
+			if (!futures.containsKey(name))
+			{
+				futures.put(name, CompletableFuture.supplyAsync(
+					() -> evaluate(name), ForkJoinPool.commonPool()));
+			}
+		}
+
+		Map<String, Result> result = new LinkedHashMap<>();
+		for (Map.Entry<String, CompletableFuture<Result>> e : futures.entrySet())
+		{
+			result.put(e.getKey(), e.getValue().join());
+		}
+
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * The outcome of running one recipe.
+	 */
+	public static class Result
+	{
+		private final String name;
+		private final Recipe recipe;
+		private final RuntimeException error;
+
+		public Result(String name, Recipe recipe, RuntimeException error)
+		{
+			this.name = name;
+			this.recipe = recipe;
+			this.error = error;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return
+		 * 	The copy of the recipe that was run, null if there was no such
+		 * 	recipe. It belongs to this result, the caller is free to change
+		 * 	it.
+		 */
+		public Recipe getRecipe()
+		{
+			return recipe;
+		}
+
+		/**
+		 * @return
+		 * 	The exception that stopped the run, null if it ran to the end
+		 */
+		public RuntimeException getError()
+		{
+			return error;
+		}
+
+		/**
+		 * @return
+		 * 	True if the recipe exists and ran to the end. It may still have
+		 * 	logged errors.
+		 */
+		public boolean isOk()
+		{
+			return recipe != null && error == null;
+		}
+
+		public Volumes getVolumes()
+		{
+			return recipe == null ? null : recipe.getVolumes();
+		}
+
+		public ProcessLog getLog()
+		{
+			return recipe == null ? null : recipe.getLog();
+		}
+
+		/**
+		 * @return
+		 * 	The beers out of the recipe, empty list if none or if it didn't
+		 * 	run
+		 */
+		public List<Volume> getBeers()
+		{
+			return isOk() ? recipe.getBeers() : Collections.emptyList();
+		}
+	}
+}
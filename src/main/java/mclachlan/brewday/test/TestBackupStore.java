@@ -0,0 +1,136 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.BackupStore;
+
+/**
+ * Exercises the backup store in a temp dir: unchanged files make no new
+ * generation, old generations and their objects are pruned, and restoring
+ * a generation puts back its files, all of them or just the named ones.
+ */
+public class TestBackupStore
+{
+	private static File dbDir, backupDir;
+	private static BackupStore store;
+
+	public static void main(String[] args) throws Exception
+	{
+		Path temp = Files.createTempDirectory("brewday_backup");
+		dbDir = temp.resolve("db").toFile();
+		backupDir = temp.resolve("backup").toFile();
+		dbDir.mkdirs();
+		store = new BackupStore(dbDir, backupDir,
+			(dir, name) -> name.endsWith(".json"), 3);
+
+		testGenerations();
+		testRestore();
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testGenerations() throws Exception
+	{
+		write("recipes.json", "recipes 1");
+		write("hops.json", "hops");
+		write("notes.txt", "not backed up");
+		check(store.backup() == 1, "first generation");
+		check(store.getManifest(1).keySet().equals(
+			new TreeSet<>(Arrays.asList("hops.json", "recipes.json"))), "filtered files backed up");
+
+		check(store.backup() == 1, "no generation for unchanged files");
+
+		write("recipes.json", "recipes 2");
+		write("batches.json", "batches 2");
+		check(store.backup() == 2, "second generation");
+		check(store.getManifest(1).get("hops.json").equals(
+			store.getManifest(2).get("hops.json")), "unchanged file shared");
+		check(objects() == 4, "one object per distinct content");
+
+		write("recipes.json", "recipes 3");
+		check(store.backup() == 3, "third generation");
+		write("recipes.json", "recipes 4");
+		write("styles.json", "styles 4");
+		check(store.backup() == 4, "fourth generation");
+
+		check(store.getGenerations().equals(Arrays.asList(2, 3, 4)), "oldest generation pruned");
+		check(objects() == 6, "objects of the pruned generation dropped");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testRestore() throws Exception
+	{
+		store.restore(3, Collections.singleton("recipes.json"));
+		check(read("recipes.json").equals("recipes 3"), "named file restored");
+		check(new File(dbDir, "styles.json").exists(), "other files left alone");
+
+		SortedMap<String, String> manifest = store.getManifest(2);
+		store.restore(2, null);
+		check(read("recipes.json").equals("recipes 2") &&
+			read("batches.json").equals("batches 2") &&
+			read("hops.json").equals("hops"), "generation restored");
+		check(!new File(dbDir, "styles.json").exists(), "file not in the generation deleted");
+		check(read("notes.txt").equals("not backed up"), "unselected file left alone");
+
+		// the restored contents are backed up as they are now, not as cached
+		check(store.backup() == 5 && store.getManifest(5).equals(manifest),
+			"restored state backed up");
+
+		try
+		{
+			store.restore(1, null);
+			check(false, "pruned generation restored");
+		}
+		catch (BrewdayException e)
+		{
+			check(true, "pruned generation not restored");
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void write(String name, String contents) throws IOException
+	{
+		Files.writeString(new File(dbDir, name).toPath(), contents);
+		store.changed(Collections.singleton(name));
+	}
+
+	private static String read(String name) throws IOException
+	{
+		return Files.readString(new File(dbDir, name).toPath());
+	}
+
+	private static int objects()
+	{
+		return new File(backupDir, BackupStore.OBJECTS_DIR).list().length;
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
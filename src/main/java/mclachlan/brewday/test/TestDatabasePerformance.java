@@ -0,0 +1,82 @@
+
+/*
+ * This file is part of brewday.
+ *
+ * brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import mclachlan.brewday.db.Database;
+
+/**
+ * Times loading the shipped database, and a save with nothing to write,
+ * which marshals every object to check whether it has changed. Both are
+ * dominated by the serialisers. Runs against a copy of the db directory.
+ * <p>
+ * Usage: TestDatabasePerformance [db dir] [iterations] [snapshots] [lazy cache size] [mapped batches]
+ */
+public class TestDatabasePerformance
+{
+	public static void main(String[] args) throws Exception
+	{
+		String dbDir = args.length > 0 ? args[0] : "data/db";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		boolean snapshots = args.length > 2 && Boolean.parseBoolean(args[2]);
+		int lazyCacheSize = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		boolean mappedBatches = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+		Path copy = Files.createTempDirectory("brewday_perf");
+		for (File f : new File(dbDir).listFiles((dir, name) -> name.endsWith(".json")))
+		{
+			Files.copy(f.toPath(), copy.resolve(f.getName()), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		Database db = new Database(copy.toString(), 0, snapshots, lazyCacheSize, mappedBatches, 10);
+
+		// warm up
+		for (int i=0; i<iterations; i++)
+		{
+			db.loadAll();
+			db.saveAll();
+		}
+
+		long loadNanos = 0, saveNanos = 0;
+		for (int i=0; i<iterations; i++)
+		{
+			long start = System.nanoTime();
+			db.loadAll();
+			loadNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			db.saveAll();
+			saveNanos += System.nanoTime() - start;
+		}
+
+		int objects = db.getFermentables().size() + db.getHops().size() +
+			db.getYeasts().size() + db.getMiscs().size() + db.getWaters().size() +
+			db.getWaterParameters().size() + db.getStyles().size() +
+			db.getRecipes().size() + db.getBatches().size() +
+			db.getInventory().size() + db.getEquipmentProfiles().size() +
+			db.getProcessTemplates().size();
+
+		System.out.printf("%d objects, %d iterations%n", objects, iterations);
+		System.out.printf("loadAll:           %.1f ms%n", loadNanos / 1E6 / iterations);
+		System.out.printf("saveAll unchanged: %.1f ms%n", saveNanos / 1E6 / iterations);
+	}
+}
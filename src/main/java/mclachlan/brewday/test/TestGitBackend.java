@@ -0,0 +1,130 @@
+/*
+ * This file is part of brewday.
+ *
+ * brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.backends.git.GitBackend;
+
+/**
+ * Exercises the git backend against a bare repo in a temp dir: enables it,
+ * commits a changed file, checks that an unrelated change is left alone,
+ * batches several saves into one commit, restores from the remote, and
+ * merges a change pushed from another clone.
+ */
+public class TestGitBackend
+{
+	public static void main(String[] args) throws Exception
+	{
+		Path temp = Files.createTempDirectory("brewday_git");
+		File remote = temp.resolve("remote.git").toFile();
+		File local = temp.resolve("local").toFile();
+		local.mkdirs();
+		String remoteUrl = remote.getAbsolutePath();
+
+		run(temp.toFile(), "git", "init", "--bare", remote.getPath());
+
+		GitBackend.OutputCollector output = System.out::print;
+		GitBackend backend = new GitBackend(60000);
+
+		Files.writeString(local.toPath().resolve("recipes.json"), "[]");
+		backend.enable(local, remoteUrl, output);
+
+		// a saved silo, and a file that no save touched
+		Files.writeString(local.toPath().resolve("recipes.json"), "[{}]");
+		Files.writeString(local.toPath().resolve("scratch.txt"), "x");
+		backend.syncToRemote(local, remoteUrl,
+			Collections.singletonList("recipes.json"), "test commit", output).get();
+
+		// nothing changed
+		backend.syncToRemote(local, remoteUrl,
+			Collections.singletonList("recipes.json"), "empty commit", output).get();
+
+		check(run(remote, "git", "show", "master:recipes.json").equals("[{}]"), "recipes.json pushed");
+		check(run(remote, "git", "log", "--format=%s").equals("test commit\nBrewday enabling git backend"), "one commit per change");
+		check(run(local, "git", "status", "--porcelain").equals("?? scratch.txt"), "scratch.txt not staged");
+
+		// two saves, committed together
+		Files.writeString(local.toPath().resolve("recipes.json"), "[{\"name\":\"IPA\"}]");
+		backend.requestSync(local, remoteUrl, Collections.singletonList("recipes.json"),
+			Collections.singletonMap("recipes", Collections.singletonList("IPA")), output);
+		Files.writeString(local.toPath().resolve("hops.json"), "[{\"name\":\"Saaz\"}]");
+		backend.requestSync(local, remoteUrl, Collections.singletonList("hops.json"),
+			Collections.singletonMap("hops", Collections.singletonList("Saaz")), output);
+		backend.waitForSyncs();
+		check(run(remote, "git", "rev-list", "--count", "master").equals("2"), "saves held back");
+
+		backend.flushPending().get();
+		check(run(remote, "git", "rev-list", "--count", "master").equals("3"), "saves committed together");
+		check(run(remote, "git", "log", "-1", "--format=%B").equals(
+			"Brewday auto commit: hops, recipes\n\nhops: Saaz\nrecipes: IPA"), "commit message");
+
+		Files.writeString(local.toPath().resolve("recipes.json"), "local edit");
+		backend.syncFromRemote(local, remoteUrl, output).get();
+		check(Files.readString(local.toPath().resolve("recipes.json")).equals("[{\"name\":\"IPA\"}]"), "restored from remote");
+
+		// a change pushed from elsewhere, merged with a local change
+		File other = temp.resolve("other").toFile();
+		run(temp.toFile(), "git", "clone", remoteUrl, other.getPath());
+		Files.writeString(other.toPath().resolve("hops.json"), "[{\"name\":\"Fuggle\"}]");
+		run(other, "git", "-c", "user.name=x", "-c", "user.email=x@x", "commit", "-am", "other");
+		run(other, "git", "push", "origin", "master");
+
+		Files.writeString(local.toPath().resolve("recipes.json"), "[{\"name\":\"APA\"}]");
+		GitBackend.Revisions revisions = backend.fetch(local, remoteUrl, output).get();
+		check(!revisions.isUpToDate(), "remote is ahead");
+
+		File exported = temp.resolve("hops.json").toFile();
+		check(backend.exportFile(local, revisions.getRemote(), "hops.json", exported).get() &&
+			Files.readString(exported.toPath()).equals("[{\"name\":\"Fuggle\"}]"), "remote file exported");
+		check(!backend.exportFile(local, revisions.getBase(), "nothing.json", exported).get(), "missing file not exported");
+
+		backend.startMerge(local, output).get();
+		Files.writeString(local.toPath().resolve("hops.json"), "[{\"name\":\"Fuggle\"},{\"name\":\"Saaz\"}]");
+		backend.finishMerge(local, remoteUrl, GitBackend.MERGE_MESSAGE, output).get();
+		check(run(remote, "git", "log", "-1", "--format=%p %s").matches("\\w+ \\w+ " + GitBackend.MERGE_MESSAGE), "merge commit pushed");
+		check(backend.fetch(local, remoteUrl, output).get().isUpToDate(), "up to date after merge");
+
+		backend.waitForSyncs();
+		System.out.println("OK");
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+
+	private static String run(File dir, String... cmd) throws Exception
+	{
+		Process p = new ProcessBuilder(Arrays.asList(cmd))
+			.directory(dir)
+			.redirectErrorStream(true)
+			.start();
+		String result = new String(p.getInputStream().readAllBytes()).trim();
+		p.waitFor();
+		return result;
+	}
+}
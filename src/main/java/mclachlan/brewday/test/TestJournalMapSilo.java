@@ -0,0 +1,193 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.RecipeSerialiser;
+import mclachlan.brewday.db.v2.JournalMapSilo;
+import mclachlan.brewday.db.v2.V2Exception;
+import mclachlan.brewday.recipe.Recipe;
+
+/**
+ * Exercises the journal silo's crash recovery in a temp dir: a torn record
+ * at the end of the journal is cut off on load and does not swallow the
+ * next append, a crash between moving a compacted snapshot into place
+ * and deleting the journal does not replay the old journal over it, and a
+ * corrupt record followed by others fails the load instead of being skipped.
+ */
+public class TestJournalMapSilo
+{
+	private static File snapshot, journal;
+
+	public static void main(String[] args) throws Exception
+	{
+		Path temp = Files.createTempDirectory("brewday_journal");
+		snapshot = temp.resolve("recipes.json").toFile();
+		journal = temp.resolve("recipes.journal").toFile();
+		Files.writeString(snapshot.toPath(), "[]");
+
+		testTornRecord();
+		testCompactionCrash();
+		testCorruptRecord();
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testTornRecord() throws Exception
+	{
+		JournalMapSilo<Recipe> silo = newSilo();
+		Map<String, Recipe> map = load(silo);
+		map.put("A", new Recipe("A"));
+		append(silo, map);
+
+		// a crash part way through the next append
+		Files.writeString(journal.toPath(), "{\"op\":\"put\",\"name\":\"xx",
+			StandardOpenOption.APPEND);
+
+		silo = newSilo();
+		map = load(silo);
+		check(map.keySet().equals(Collections.singleton("A")), "torn record ignored");
+		check(Files.readString(journal.toPath()).endsWith("\n"), "torn record truncated");
+
+		map.put("B", new Recipe("B"));
+		append(silo, map);
+		check(load(newSilo()).keySet().equals(new HashSet<>(Arrays.asList("A", "B"))),
+			"append after truncation kept");
+
+		// a torn record appended to without a reload in between
+		Files.writeString(journal.toPath(), "{\"op\":\"put\",\"name\":\"yy",
+			StandardOpenOption.APPEND);
+		map.put("C", new Recipe("C"));
+		append(silo, map);
+		check(load(newSilo()).keySet().equals(new HashSet<>(Arrays.asList("A", "B", "C"))),
+			"append after torn record kept");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testCompactionCrash() throws Exception
+	{
+		JournalMapSilo<Recipe> silo = newSilo();
+		Map<String, Recipe> map = load(silo);
+		map.put("D", new Recipe("D"));
+		map.get("A").setDescription("old");
+		append(silo, map);
+		map.remove("D");
+		append(silo, map);
+
+		// later edits, then a compaction that crashes before the journal is
+		// deleted
+		map.get("A").setDescription("new");
+		map.put("D", new Recipe("D"));
+		File staged = new File(snapshot.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(staged)))
+		{
+			silo.save(writer, map, null);
+		}
+		Files.move(staged.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		check(journal.exists(), "journal left behind");
+
+		silo = newSilo();
+		map = load(silo);
+		check("new".equals(map.get("A").getDescription()), "old put not replayed");
+		check(map.containsKey("D"), "old remove not replayed");
+
+		// the next compaction absorbs the left over journal
+		map.get("B").setDescription("compacted");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(snapshot)))
+		{
+			silo.save(writer, map, null);
+		}
+		silo.commit();
+		check(!journal.exists(), "journal compacted");
+
+		map = load(newSilo());
+		check("compacted".equals(map.get("B").getDescription()) &&
+			"new".equals(map.get("A").getDescription()), "compacted state loaded");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testCorruptRecord() throws Exception
+	{
+		JournalMapSilo<Recipe> silo = newSilo();
+		Map<String, Recipe> map = load(silo);
+		map.put("E", new Recipe("E"));
+		append(silo, map);
+
+		// a corrupt last record is taken to be torn
+		Files.writeString(journal.toPath(), "{\"op\":\"put\",\"na\n",
+			StandardOpenOption.APPEND);
+		check(load(newSilo()).containsKey("E"), "corrupt last record ignored");
+
+		map.put("F", new Recipe("F"));
+		append(silo, map);
+		try
+		{
+			load(newSilo());
+			check(false, "corrupt record before others skipped");
+		}
+		catch (V2Exception e)
+		{
+			check(true, "corrupt record before others fails the load");
+		}
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static JournalMapSilo<Recipe> newSilo()
+	{
+		return new JournalMapSilo<>(new RecipeSerialiser(), journal, 100);
+	}
+
+	private static Map<String, Recipe> load(JournalMapSilo<Recipe> silo) throws IOException
+	{
+		try (BufferedReader reader = new BufferedReader(new FileReader(snapshot)))
+		{
+			return silo.load(reader, null);
+		}
+	}
+
+	/**
+	 * Appends the changes to the journal the way a save does.
+	 */
+	private static void append(JournalMapSilo<Recipe> silo,
+		Map<String, Recipe> map) throws IOException
+	{
+		String records = silo.getJournalRecords(map, null);
+		if (records == null)
+		{
+			throw new BrewdayException("journal full");
+		}
+		silo.appendJournal(records);
+		silo.commit();
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
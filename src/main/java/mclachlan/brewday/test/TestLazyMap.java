@@ -0,0 +1,150 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.v2.V2DataObject;
+import mclachlan.brewday.process.Volumes;
+import mclachlan.brewday.recipe.Recipe;
+
+/**
+ * Checks that a saved edit to an object evicted from a lazy map survives the
+ * object being garbage collected: get A, get B so that A is evicted, edit
+ * and save A without publishing the edit, drop it, GC, and save again. Runs against copies of the test
+ * db with a cache of one object, with and without the journal and the
+ * mapped batch store.
+ */
+public class TestLazyMap
+{
+	public static void main(String[] args) throws Exception
+	{
+		for (int journalSize : new int[]{0, 100})
+		{
+			for (boolean mappedBatches : new boolean[]{false, true})
+			{
+				String config = "journal " + journalSize + ", mapped " + mappedBatches;
+				Path dir = copyDb();
+				Function<Path, Database> open =
+					d -> new Database(d.toString(), journalSize, false, 1, mappedBatches, 10);
+
+				Database db = open.apply(dir);
+				db.loadAll();
+				// the test db has only one batch
+				db.getBatches().put("Test Batch", new Batch("Test Batch", "",
+					"recipe", LocalDate.of(2020, 1, 1), new Volumes(), false));
+				db.saveAll();
+				db.loadAll();
+				testSavedEdit(db, open, dir, Database::getRecipes, "recipe, " + config);
+				testSavedEdit(db, open, dir, Database::getBatches, "batch, " + config);
+			}
+		}
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static <V extends V2DataObject> void testSavedEdit(
+		Database db,
+		Function<Path, Database> open,
+		Path dir,
+		Function<Database, Map<String, V>> silo,
+		String what) throws Exception
+	{
+		Map<String, V> map = silo.apply(db);
+		Iterator<String> names = map.keySet().iterator();
+		String a = names.next(), b = names.next();
+		String description = "edited " + what;
+
+		WeakReference<V> ref = edit(db, map, a, b, description);
+		for (int i=0; ref.get() != null && i<100; i++)
+		{
+			System.gc();
+			Thread.sleep(10);
+		}
+		check(ref.get() == null, "edited object collected, " + what);
+
+		db.saveAll();
+		check(description.equals(getDescription(map.get(a))), "saved edit kept in memory, " + what);
+
+		Database reloaded = open.apply(dir);
+		reloaded.loadAll();
+		check(description.equals(getDescription(silo.apply(reloaded).get(a))),
+			"saved edit kept on disk, " + what);
+	}
+
+	/**
+	 * Edits and saves A after B has evicted it, and drops it.
+	 */
+	private static <V extends V2DataObject> WeakReference<V> edit(
+		Database db, Map<String, V> map, String a, String b, String description)
+	{
+		V v = map.get(a);
+		map.get(b);
+		setDescription(v, description);
+		db.saveAll();
+		return new WeakReference<>(v);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static String getDescription(V2DataObject obj)
+	{
+		return obj instanceof Recipe ?
+			((Recipe)obj).getDescription() :
+			((Batch)obj).getDescription();
+	}
+
+	private static void setDescription(V2DataObject obj, String description)
+	{
+		if (obj instanceof Recipe)
+		{
+			((Recipe)obj).setDescription(description);
+		}
+		else
+		{
+			((Batch)obj).setDescription(description);
+		}
+	}
+
+	private static Path copyDb() throws Exception
+	{
+		Path result = Files.createTempDirectory("brewday_lazy");
+		for (File f : new File("test_data/test_db").listFiles((dir, name) -> name.endsWith(".json")))
+		{
+			Files.copy(f.toPath(), result.resolve(f.getName()));
+		}
+		return result;
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
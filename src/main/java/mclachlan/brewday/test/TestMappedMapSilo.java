@@ -0,0 +1,180 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.BatchSerialiser;
+import mclachlan.brewday.db.v2.MappedMapSilo;
+import mclachlan.brewday.process.Volumes;
+
+/**
+ * Exercises the batch data file in a temp dir: records written by a save
+ * that crashed before it committed are loaded, a torn record at the end of
+ * the file is cut off on open and does not swallow the next write, and
+ * compaction replaces the file without losing any batch.
+ */
+public class TestMappedMapSilo
+{
+	private static File dataFile;
+
+	public static void main(String[] args) throws Exception
+	{
+		Path temp = Files.createTempDirectory("brewday_mapped");
+		dataFile = temp.resolve("batches.dat").toFile();
+
+		testCrash();
+		testTornRecord();
+		testCompaction();
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testCrash() throws Exception
+	{
+		MappedMapSilo<Batch> silo = newSilo();
+		Map<String, Batch> map = new HashMap<>();
+		map.put("A", newBatch("A", "first"));
+		map.put("B", newBatch("B", "first"));
+		silo.create(map, null);
+		silo.load(null);
+
+		// a save that gets as far as writing but never commits
+		map.get("A").setDescription("second");
+		check(silo.stage(map, null), "change staged");
+		silo.write();
+		silo.close();
+
+		map = load(newSilo());
+		check("second".equals(map.get("A").getDescription()) &&
+			"first".equals(map.get("B").getDescription()), "written records loaded");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testTornRecord() throws Exception
+	{
+		long length = dataFile.length();
+
+		// a crash part way through appending a record
+		ByteBuffer torn = ByteBuffer.allocate(16);
+		torn.putInt(1000).putInt(0).put((byte)1);
+		Files.write(dataFile.toPath(), torn.array(), StandardOpenOption.APPEND);
+
+		MappedMapSilo<Batch> silo = newSilo();
+		Map<String, Batch> map = silo.load(null);
+		check(map.keySet().equals(new HashSet<>(Arrays.asList("A", "B"))), "torn record ignored");
+		check(dataFile.length() == length, "torn record truncated");
+
+		map = copy(map);
+		map.put("C", newBatch("C", "first"));
+		save(silo, map);
+		silo.close();
+		check(load(newSilo()).keySet().equals(new HashSet<>(Arrays.asList("A", "B", "C"))),
+			"write after truncation kept");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testCompaction() throws Exception
+	{
+		MappedMapSilo<Batch> silo = newSilo();
+		Map<String, Batch> map = copy(silo.load(null));
+
+		char[] padding = new char[10 * 1024];
+		Arrays.fill(padding, 'x');
+		long largest = 0;
+		for (int i=0; i<20; i++)
+		{
+			map.get("B").setDescription(i + new String(padding));
+			map.remove("C");
+			if (i % 2 == 0)
+			{
+				map.put("C", newBatch("C", "" + i));
+			}
+			save(silo, map);
+			largest = Math.max(largest, dataFile.length());
+		}
+		check(dataFile.length() < largest, "data file compacted");
+
+		map.get("A").setDescription("after compaction");
+		save(silo, map);
+		silo.close();
+
+		map = load(newSilo());
+		check(map.keySet().equals(new HashSet<>(Arrays.asList("A", "B"))) &&
+			"after compaction".equals(map.get("A").getDescription()) &&
+			map.get("B").getDescription().startsWith("19x"), "compacted batches loaded");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static MappedMapSilo<Batch> newSilo()
+	{
+		return new MappedMapSilo<>(new BatchSerialiser(), dataFile, 100);
+	}
+
+	private static Batch newBatch(String name, String description)
+	{
+		return new Batch(name, description, "recipe",
+			LocalDate.of(2020, 1, 1), new Volumes(), false);
+	}
+
+	/**
+	 * @return
+	 * 	every batch in the file, read in full so the silo can be closed
+	 */
+	private static Map<String, Batch> load(MappedMapSilo<Batch> silo) throws IOException
+	{
+		Map<String, Batch> result = copy(silo.load(null));
+		silo.close();
+		return result;
+	}
+
+	private static Map<String, Batch> copy(Map<String, Batch> map)
+	{
+		return new HashMap<>(map);
+	}
+
+	/**
+	 * Writes the changes to the data file the way a save does.
+	 */
+	private static void save(MappedMapSilo<Batch> silo,
+		Map<String, Batch> map) throws IOException
+	{
+		if (silo.stage(map, null))
+		{
+			silo.write();
+			silo.commit();
+		}
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.math.PercentageUnit;
+import mclachlan.brewday.process.*;
+import mclachlan.brewday.recipe.HopAddition;
+import mclachlan.brewday.recipe.IngredientAddition;
+import mclachlan.brewday.recipe.Recipe;
+
+/**
+ * Runs a recipe that is split into four branches, each boiled again with
+ * hops, on a pool of several threads, and checks that it comes out the same
+ * as a run on a single thread every time. The single threaded run is done
+ * in a second JVM, since the size of the common pool is fixed on first use.
+ */
+public class TestParallelRun
+{
+	private static final String DUMP = "dump";
+	private static final int RUNS = 20;
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length > 0 && DUMP.equals(args[0]))
+		{
+			System.out.print(dump(runSplitRecipe()));
+			return;
+		}
+
+		System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "4");
+
+		String sequential = runSequential();
+		check(sequential.contains("package 3 out"), "sequential run complete");
+
+		for (int i=0; i<RUNS; i++)
+		{
+			String parallel = dump(runSplitRecipe());
+			if (!parallel.equals(sequential))
+			{
+				System.out.println(parallel);
+				System.out.println(sequential);
+			}
+			check(parallel.equals(sequential), "parallel run " + i + " matches");
+		}
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * The test db's light lager with its fermentation replaced by a split into
+	 * four branches, each with its own boil, cool, ferment and package steps.
+	 */
+	private static Recipe runSplitRecipe()
+	{
+		Database db = Database.getInstance();
+		db.loadAll();
+
+		Recipe recipe = new Recipe(db.getRecipes().get("?? inl light lager"));
+
+		Boil boil = null;
+		Cool cool = null;
+		Ferment ferment = null;
+		PackageStep pack = null;
+		for (ProcessStep s : recipe.getSteps())
+		{
+			switch (s.getType())
+			{
+				case BOIL -> boil = (Boil)s;
+				case COOL -> cool = (Cool)s;
+				case FERMENT -> ferment = (Ferment)s;
+				case PACKAGE -> pack = (PackageStep)s;
+			}
+		}
+
+		List<ProcessStep> steps = new ArrayList<>(recipe.getSteps());
+		steps.remove(ferment);
+		steps.remove(pack);
+
+		steps.add(split("split", cool.getOutputVolume(), "split a", "split b"));
+		steps.add(split("split a", "split a", "leaf 0", "leaf 1"));
+		steps.add(split("split b", "split b", "leaf 2", "leaf 3"));
+
+		for (int i=0; i<4; i++)
+		{
+			List<IngredientAddition> hops = new ArrayList<>();
+			for (IngredientAddition ia : boil.getIngredientAdditions())
+			{
+				hops.add(ia.clone());
+			}
+			steps.add(new Boil("boil " + i, null, "leaf " + i, "boil " + i + " out",
+				"trub " + i, hops, boil.getDuration(), true));
+
+			steps.add(fluidStep(cool, "cool " + i, "boil " + i + " out"));
+			steps.add(fluidStep(ferment, "ferment " + i, "cool " + i + " out"));
+			steps.add(fluidStep(pack, "package " + i, "ferment " + i + " out"));
+		}
+
+		recipe.setSteps(steps);
+		recipe.run();
+		return recipe;
+	}
+
+	private static Split split(String name, String input, String output1, String output2)
+	{
+		return new Split(name, null, input, output1,
+			Split.Type.PERCENTAGE, new PercentageUnit(0.5D), null, output2);
+	}
+
+	private static FluidVolumeProcessStep fluidStep(
+		FluidVolumeProcessStep template, String name, String input)
+	{
+		FluidVolumeProcessStep result = (FluidVolumeProcessStep)template.clone(name);
+		result.setInputVolume(input);
+		result.setOutputVolume(name + " out");
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static String runSequential() throws Exception
+	{
+		Process p = new ProcessBuilder(
+			new File(System.getProperty("java.home"), "bin/java").getPath(),
+			"-Djava.util.concurrent.ForkJoinPool.common.parallelism=1",
+			"-cp", System.getProperty("java.class.path"),
+			TestParallelRun.class.getName(), DUMP)
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+
+		String result = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		if (p.waitFor() != 0)
+		{
+			throw new BrewdayException("sequential run failed");
+		}
+		return result;
+	}
+
+	/**
+	 * @return
+	 * 	the log and every volume of the recipe
+	 */
+	private static String dump(Recipe recipe)
+	{
+		StringBuilder result = new StringBuilder();
+		for (String msg : recipe.getLog().getMsgs())
+		{
+			result.append(msg).append('\n');
+		}
+		for (String name : new TreeSet<>(recipe.getVolumes().getVolumes().keySet()))
+		{
+			Volume v = recipe.getVolumes().getVolume(name);
+			result.append(name).append(": ").append(v.describe()).append('\n');
+			for (IngredientAddition ia : v.getIngredientAdditions())
+			{
+				result.append("  ").append(ia.getName())
+					.append(' ').append(ia.getQuantity().get())
+					.append(' ').append(ia.getTime().get());
+				if (ia instanceof HopAddition)
+				{
+					result.append(' ').append(((HopAddition)ia).getBoiledTime().get());
+				}
+				result.append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.math.WeightUnit;
+import mclachlan.brewday.process.ProcessStep;
+import mclachlan.brewday.recipe.IngredientAddition;
+import mclachlan.brewday.recipe.Recipe;
+
+/**
+ * Checks that re-running a recipe from an edited step gives the same
+ * volumes and log as running it in full, for every step of every recipe in
+ * the test db. Each step's first weighed addition is scaled up before the
+ * re-run. Nothing is saved.
+ */
+public class TestPartialRun
+{
+	public static void main(String[] args)
+	{
+		Database db = Database.getInstance();
+		db.loadAll();
+
+		int checked = 0;
+		for (Recipe recipe : db.getRecipes().values())
+		{
+			recipe.run();
+
+			for (ProcessStep step : new ArrayList<>(recipe.getSteps()))
+			{
+				for (IngredientAddition addition : step.getIngredientAdditions())
+				{
+					if (addition.getQuantity() instanceof WeightUnit)
+					{
+						addition.setQuantity(new WeightUnit(addition.getQuantity().get() * 1.1));
+						break;
+					}
+				}
+
+				recipe.run(step);
+				String partial = describe(recipe);
+
+				db.objectChanged(recipe);
+				recipe.run();
+				String full = describe(recipe);
+
+				if (!partial.equals(full))
+				{
+					throw new BrewdayException("failed: re-run of " + recipe.getName() +
+						" from " + step.getName() + "\npartial:\n" + partial + "\nfull:\n" + full);
+				}
+				checked++;
+			}
+		}
+
+		if (checked == 0)
+		{
+			throw new BrewdayException("failed: no steps re-run");
+		}
+		System.out.println("ok: " + checked + " re-runs matched full runs");
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static String describe(Recipe recipe)
+	{
+		// steps may log in a different order when only some of them run
+		List<String> msgs = new ArrayList<>(recipe.getLog().getMsgs());
+		Collections.sort(msgs);
+
+		StringBuilder result = new StringBuilder(String.join("\n", msgs));
+		for (String name : new TreeSet<>(recipe.getVolumes().getVolumes().keySet()))
+		{
+			result.append("\n").append(name).append(": ")
+				.append(recipe.getVolumes().getVolume(name).describe());
+		}
+		result.append("\n").append(new TreeSet<>(recipe.getVolumes().getOutputVolumes()));
+		return result.toString();
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.Settings;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.ingredients.Hop;
+import mclachlan.brewday.math.PercentageUnit;
+import mclachlan.brewday.math.Quantity;
+import mclachlan.brewday.math.WeightUnit;
+import mclachlan.brewday.process.ProcessStep;
+import mclachlan.brewday.process.Volume;
+import mclachlan.brewday.recipe.HopAddition;
+import mclachlan.brewday.recipe.IngredientAddition;
+import mclachlan.brewday.recipe.Recipe;
+import mclachlan.brewday.recipe.RecipeEvaluator;
+
+/**
+ * Checks that the results of earlier runs are not re-used once something
+ * the run depends on has changed: a hop edited in place and published, a
+ * setting, or the recipe itself, published or not. Uses the test db, nothing is saved.
+ */
+public class TestRunCache
+{
+	private static final String RECIPE = "Baggy Ann APA";
+
+	public static void main(String[] args) throws Exception
+	{
+		Database db = Database.getInstance();
+		db.loadAll();
+
+		Recipe recipe = db.getRecipes().get(RECIPE);
+		Hop hop = getHop(recipe);
+
+		recipe.run();
+		String live = bitterness(recipe);
+		String evaluated = bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe());
+		check(live.equals(evaluated), "evaluated like a live run");
+
+		recipe.run();
+		check(bitterness(recipe).equals(live), "unchanged run");
+		check(bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe()).equals(live),
+			"unchanged evaluation");
+
+		// an ingredient edited in place
+		PercentageUnit alphaAcid = hop.getAlphaAcid();
+		hop.setAlphaAcid(new PercentageUnit(alphaAcid.get() * 2));
+		db.objectChanged(hop);
+
+		recipe.run();
+		String moreHops = bitterness(recipe);
+		check(!moreHops.equals(live), "run after hop edit");
+		check(bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe()).equals(moreHops),
+			"evaluation after hop edit");
+
+		hop.setAlphaAcid(alphaAcid);
+		db.objectChanged(hop);
+		recipe.run();
+		check(bitterness(recipe).equals(live), "run after hop edit undone");
+		check(bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe()).equals(live),
+			"evaluation after hop edit undone");
+
+		// a setting, which is changed without an event
+		String maxUtilisation = db.getSettings().get(Settings.TINSETH_MAX_UTILISATION);
+		db.getSettings().set(Settings.TINSETH_MAX_UTILISATION, "3.0");
+		recipe.run();
+		check(!bitterness(recipe).equals(live), "run after setting change");
+		check(bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe()).equals(bitterness(recipe)),
+			"evaluation after setting change");
+		db.getSettings().set(Settings.TINSETH_MAX_UTILISATION, maxUtilisation);
+
+		// a hop addition of the recipe edited in place and published
+		HopAddition addition = getHopAddition(recipe);
+		addition.setQuantity(new WeightUnit(addition.getQuantity().get() * 2));
+		db.objectChanged(recipe);
+		recipe.run();
+		check(!bitterness(recipe).equals(live), "run after recipe edit");
+		check(bitterness(new RecipeEvaluator().evaluate(RECIPE).getRecipe()).equals(bitterness(recipe)),
+			"evaluation after recipe edit");
+
+		// a second edit not published yet, eg before a batch is created
+		String published = bitterness(recipe);
+		addition.setQuantity(new WeightUnit(addition.getQuantity().get() * 2));
+		recipe.run();
+		check(!bitterness(recipe).equals(published), "live run after unpublished edit");
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static HopAddition getHopAddition(Recipe recipe)
+	{
+		for (ProcessStep step : recipe.getSteps())
+		{
+			for (IngredientAddition ia : step.getIngredientAdditions())
+			{
+				if (ia instanceof HopAddition)
+				{
+					return (HopAddition)ia;
+				}
+			}
+		}
+		throw new BrewdayException("no hops in " + recipe.getName());
+	}
+
+	private static Hop getHop(Recipe recipe)
+	{
+		return getHopAddition(recipe).getHop();
+	}
+
+	/**
+	 * @return
+	 * 	the bitterness of each beer out of the recipe
+	 */
+	private static String bitterness(Recipe recipe)
+	{
+		List<String> result = new ArrayList<>();
+		for (Volume beer : recipe.getBeers())
+		{
+			result.add(beer.getName() + " " + beer.getBitterness().get(Quantity.Unit.IBU));
+		}
+		return result.toString();
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
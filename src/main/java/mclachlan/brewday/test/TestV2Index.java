@@ -0,0 +1,189 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Predicate;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.RecipeSerialiser;
+import mclachlan.brewday.db.v2.V2DataObject;
+import mclachlan.brewday.db.v2.V2Index;
+import mclachlan.brewday.recipe.Recipe;
+
+/**
+ * Checks that an index finds what a scan of the whole map finds, as objects
+ * are added, changed and removed: first on a plain map, then through the
+ * db's queries on the test db. Nothing is saved.
+ */
+public class TestV2Index
+{
+	public static void main(String[] args) throws Exception
+	{
+		testIndex();
+		testDatabase();
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testIndex()
+	{
+		V2Index<String, Recipe> index =
+			new V2Index<>(new RecipeSerialiser(), RecipeSerialiser::getTags);
+		Map<String, Recipe> map = new HashMap<>();
+		map.put("A", recipe("A", "ale", "hoppy"));
+		map.put("B", recipe("B", "hoppy"));
+		map.put("C", recipe("C"));
+
+		check(names(index.find("hoppy", map, null)).equals(set("A", "B")), "tag found");
+		check(index.findNames("a", "b", map, null).equals(set("A")), "tag range found");
+
+		map.get("B").setTags(new ArrayList<>(Arrays.asList("ale")));
+		index.changed("B");
+		check(names(index.find("ale", map, null)).equals(set("A", "B")) &&
+			names(index.find("hoppy", map, null)).equals(set("A")), "changed object re-indexed");
+
+		map.put("D", recipe("D", "lager"));
+		check(names(index.find("lager", map, null)).equals(set("D")), "unannounced addition indexed");
+
+		map.remove("A");
+		index.changed("A");
+		check(names(index.find("ale", map, null)).equals(set("B")) &&
+			index.find("hoppy", map, null).isEmpty(), "removed object unindexed");
+
+		// an unannounced edit is only seen once the index is invalidated
+		map.get("C").setTags(new ArrayList<>(Arrays.asList("stout")));
+		check(index.find("stout", map, null).isEmpty(), "unannounced edit not seen");
+		index.invalidate();
+		check(names(index.find("stout", map, null)).equals(set("C")), "invalidated index rebuilt");
+
+		Map<String, Recipe> other = new HashMap<>();
+		other.put("E", recipe("E", "stout"));
+		check(names(index.find("stout", other, null)).equals(set("E")), "other map indexed afresh");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static void testDatabase() throws Exception
+	{
+		Database db = Database.getInstance();
+		db.loadAll();
+
+		checkDatabase(db, "loaded");
+
+		Recipe recipe = db.getRecipes().values().iterator().next();
+		recipe.setTags(new ArrayList<>(Arrays.asList("test tag")));
+		db.objectChanged(recipe);
+		checkDatabase(db, "after a recipe edit");
+
+		db.getRecipes().put("Test Recipe", recipe("Test Recipe", "test tag", "other tag"));
+		checkDatabase(db, "after a recipe is added");
+
+		Batch batch = db.getBatches().values().iterator().next();
+		batch.setRecipe("Test Recipe");
+		batch.setDate(LocalDate.of(1999, 12, 31));
+		db.objectChanged(batch);
+		checkDatabase(db, "after a batch edit");
+
+		db.getRecipes().remove(recipe.getName());
+		db.getBatches().remove(batch.getName());
+		checkDatabase(db, "after removals");
+	}
+
+	private static void checkDatabase(Database db, String when)
+	{
+		Set<String> tags = new TreeSet<>();
+		for (Recipe r : db.getRecipes().values())
+		{
+			tags.addAll(r.getTags());
+		}
+		tags.add("no such tag");
+		for (String tag : tags)
+		{
+			check(names(db.getRecipesWithTag(tag)).equals(
+				scan(db.getRecipes(), r -> r.getTags().contains(tag))),
+				"recipes tagged " + tag + " " + when);
+		}
+
+		Set<String> recipes = new TreeSet<>(db.getRecipes().keySet());
+		for (Batch b : db.getBatches().values())
+		{
+			recipes.add(b.getRecipe());
+		}
+		for (String name : recipes)
+		{
+			check(names(db.getBatchesOfRecipe(name.toUpperCase(Locale.ROOT))).equals(
+				scan(db.getBatches(), b -> name.equalsIgnoreCase(b.getRecipe()))),
+				"batches of " + name + " " + when);
+		}
+
+		LocalDate from = LocalDate.of(1990, 1, 1), to = LocalDate.of(2020, 12, 31);
+		check(names(db.getBatchesBetween(from, to)).equals(
+			scan(db.getBatches(), b -> b.getDate() != null &&
+				!b.getDate().isBefore(from) && !b.getDate().isAfter(to))),
+			"batches by date " + when);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static Recipe recipe(String name, String... tags)
+	{
+		Recipe result = new Recipe(name);
+		result.setTags(new ArrayList<>(Arrays.asList(tags)));
+		return result;
+	}
+
+	private static <V extends V2DataObject> Set<String> scan(Map<String, V> map,
+		Predicate<V> predicate)
+	{
+		Set<String> result = new TreeSet<>();
+		for (V v : map.values())
+		{
+			if (predicate.test(v))
+			{
+				result.add(v.getName());
+			}
+		}
+		return result;
+	}
+
+	private static Set<String> names(List<? extends V2DataObject> objects)
+	{
+		Set<String> result = new TreeSet<>();
+		for (V2DataObject obj : objects)
+		{
+			result.add(obj.getName());
+		}
+		return result;
+	}
+
+	private static Set<String> set(String... names)
+	{
+		return new TreeSet<>(Arrays.asList(names));
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
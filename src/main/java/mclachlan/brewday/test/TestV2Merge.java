@@ -0,0 +1,118 @@
+/*
+ * This file is part of Brewday.
+ *
+ * Brewday is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Brewday is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Brewday.  If not, see https://www.gnu.org/licenses.
+ */
+
+package mclachlan.brewday.test;
+
+import java.util.*;
+import mclachlan.brewday.BrewdayException;
+import mclachlan.brewday.db.v2.V2Merge;
+
+/**
+ * Exercises the three-way merge on serialised objects: one sided changes,
+ * removals and additions are taken, the same change on both sides is left
+ * alone, and a different change on each side is a conflict that keeps the
+ * local version.
+ */
+public class TestV2Merge
+{
+	public static void main(String[] args)
+	{
+		Map<String, Map> base = new HashMap<>();
+		Map<String, Map> local = new HashMap<>();
+		Map<String, Map> remote = new HashMap<>();
+
+		for (String name : Arrays.asList(
+			"unchanged", "remote edit", "local edit", "same edit", "both edit",
+			"remote remove", "local remove", "remove vs edit", "reordered"))
+		{
+			base.put(name, object(name, "base", 1));
+			local.put(name, object(name, "base", 1));
+			remote.put(name, object(name, "base", 1));
+		}
+
+		remote.put("remote edit", object("remote edit", "remote", 1));
+		local.put("local edit", object("local edit", "local", 1));
+		local.put("same edit", object("same edit", "both", 2));
+		remote.put("same edit", object("same edit", "both", 2.0));
+		local.put("both edit", object("both edit", "local", 1));
+		remote.put("both edit", object("both edit", "remote", 1));
+		remote.remove("remote remove");
+		local.remove("local remove");
+		local.remove("remove vs edit");
+		remote.put("remove vs edit", object("remove vs edit", "remote", 1));
+
+		// the same fields in a different order, as after a reload
+		Map<String, Object> reordered = new TreeMap<>(Comparator.reverseOrder());
+		reordered.putAll(object("reordered", "base", 1));
+		remote.put("reordered", reordered);
+
+		remote.put("remote add", object("remote add", "remote", 1));
+		local.put("local add", object("local add", "local", 1));
+		local.put("both add", object("both add", "local", 1));
+		remote.put("both add", object("both add", "remote", 1));
+
+		V2Merge merge = new V2Merge(base, local, remote);
+		Map<String, Object> changes = merge.getChanges();
+
+		check(new HashSet<>(Arrays.asList("remote edit", "remote remove", "remote add"))
+			.equals(changes.keySet()), "only remote changes taken: " + changes.keySet());
+		check(changes.get("remote edit") == remote.get("remote edit"), "remote edit taken");
+		check(changes.get("remote remove") == null, "remote removal taken");
+		check(changes.get("remote add") == remote.get("remote add"), "remote addition taken");
+
+		check(new TreeSet<>(Arrays.asList("both edit", "remove vs edit", "both add"))
+			.equals(merge.getConflicts()), "conflicts: " + merge.getConflicts());
+
+		// no base: objects only on the remote are taken, and everything else
+		// the two sides disagree on is a conflict
+		merge = new V2Merge(new HashMap<>(), local, remote);
+		check(new HashSet<>(Arrays.asList("remote add", "local remove", "remove vs edit"))
+			.equals(merge.getChanges().keySet()),
+			"remote only objects taken without a base: " + merge.getChanges().keySet());
+		check(merge.getConflicts().contains("remote edit") &&
+			merge.getConflicts().contains("both edit") &&
+			!merge.getConflicts().contains("unchanged"), "no base conflicts");
+
+		// merging a side with itself changes nothing
+		merge = new V2Merge(base, local, local);
+		check(merge.getChanges().isEmpty() && merge.getConflicts().isEmpty(),
+			"nothing from an unchanged remote");
+
+		System.out.println("OK");
+	}
+
+	/*-------------------------------------------------------------------------*/
+	private static Map<String, Object> object(String name, String description,
+		Number amount)
+	{
+		Map<String, Object> result = new HashMap<>();
+		result.put("name", name);
+		result.put("description", description);
+		result.put("amount", amount);
+		result.put("notes", null);
+		return result;
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if (!ok)
+		{
+			throw new BrewdayException("failed: " + what);
+		}
+		System.out.println("ok: " + what);
+	}
+}
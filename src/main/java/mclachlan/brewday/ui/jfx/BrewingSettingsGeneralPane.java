@@ -79,7 +79,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 				{
 					settings.set(Settings.DEFAULT_EQUIPMENT_PROFILE,
 						(String)defaultEquipmentProfile.getSelectionModel().getSelectedItem());
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			});
 
@@ -89,7 +89,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 			{
 				settings.set(Settings.MASH_HOP_UTILISATION,
 					""+mashHopUtilisaton.getQuantity().get(Quantity.Unit.PERCENTAGE));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 
@@ -99,7 +99,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 			{
 				settings.set(Settings.FIRST_WORT_HOP_UTILISATION,
 					""+firstWortHopUtilisation.getQuantity().get(Quantity.Unit.PERCENTAGE));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 
@@ -109,7 +109,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 			{
 				settings.set(Settings.LEAF_HOP_ADJUSTMENT,
 					""+leafHopAdjustment.getQuantity().get(Quantity.Unit.PERCENTAGE));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 		plugHopAdjustment.addListener((observable, oldValue, newValue) ->
@@ -118,7 +118,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 			{
 				settings.set(Settings.PLUG_HOP_ADJUSTMENT,
 					""+plugHopAdjustment.getQuantity().get(Quantity.Unit.PERCENTAGE));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 		pelletHopAdjustment.addListener((observable, oldValue, newValue) ->
@@ -127,7 +127,7 @@ public class BrewingSettingsGeneralPane extends MigPane
 			{
 				settings.set(Settings.PELLET_HOP_ADJUSTMENT,
 					""+pelletHopAdjustment.getQuantity().get(Quantity.Unit.PERCENTAGE));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 	}
@@ -116,7 +116,7 @@ public class BrewingSettingsIbuPane extends MigPane
 				{
 					String name = hopBitternessModel.getSelectionModel().getSelectedItem().name();
 					settings.set(Settings.HOP_BITTERNESS_FORMULA, name);
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 
 					hopModelDesc.setText(StringUtils.getUiString("bitterness.model.desc." + name));
 
@@ -131,7 +131,7 @@ public class BrewingSettingsIbuPane extends MigPane
 					settings.set(Settings.TINSETH_MAX_UTILISATION,
 						String.valueOf(tinsethMaxUtilFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
 
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -142,7 +142,7 @@ public class BrewingSettingsIbuPane extends MigPane
 					settings.set(Settings.TINSETH_MAX_UTILISATION,
 						String.valueOf(tinsethMaxUtilFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
 
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -153,7 +153,7 @@ public class BrewingSettingsIbuPane extends MigPane
 				{
 					settings.set(Settings.GARETZ_YEAST_FACTOR,
 						String.valueOf(garetzYeastFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -163,7 +163,7 @@ public class BrewingSettingsIbuPane extends MigPane
 				{
 					settings.set(Settings.GARETZ_PELLET_FACTOR,
 						String.valueOf(garetzPelletFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -173,7 +173,7 @@ public class BrewingSettingsIbuPane extends MigPane
 				{
 					settings.set(Settings.GARETZ_BAG_FACTOR,
 						String.valueOf(garetzBagFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -183,7 +183,7 @@ public class BrewingSettingsIbuPane extends MigPane
 				{
 					settings.set(Settings.GARETZ_FILTER_FACTOR,
 						String.valueOf(garetzFilterFactor.getQuantity().get(Quantity.Unit.PERCENTAGE)));
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 				}
 			}
 		);
@@ -82,7 +82,7 @@ public class BrewingSettingsMashPane extends MigPane
 				{
 					String name = mashPhModel.getSelectionModel().getSelectedItem().name();
 					settings.set(Settings.MASH_PH_MODEL, name);
-					Database.getInstance().saveSettings();
+					Database.getInstance().saveSettingsLater();
 
 					mashPhModelDesc.setText(StringUtils.getUiString("mash.ph.model.desc."+name));
 
@@ -96,7 +96,7 @@ public class BrewingSettingsMashPane extends MigPane
 			{
 				double v = mphMaltCorrectionFactor.getQuantity().get(Quantity.Unit.PERCENTAGE);
 				settings.set(Settings.MPH_MALT_BUFFERING_CORRECTION_FACTOR, String.valueOf(v));
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 		});
 	}
@@ -188,7 +188,7 @@ public class EquipmentProfilePane extends V2DataObjectPane<EquipmentProfile>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesWithEquipmentProfile(oldName))
 		{
 			if (recipe.getEquipmentProfile().equalsIgnoreCase(oldName))
 			{
@@ -198,6 +198,18 @@ public class EquipmentProfilePane extends V2DataObjectPane<EquipmentProfile>
 				JfxUi.getInstance().setDirty(recipe);
 			}
 		}
+
+		// process templates
+		for (Recipe template : db.getProcessTemplatesWithEquipmentProfile(oldName))
+		{
+			if (template.getEquipmentProfile().equalsIgnoreCase(oldName))
+			{
+				template.setEquipmentProfile(newName);
+
+				JfxUi.getInstance().setDirty(JfxUi.PROCESS_TEMPLATES);
+				JfxUi.getInstance().setDirty(template);
+			}
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -207,7 +219,7 @@ public class EquipmentProfilePane extends V2DataObjectPane<EquipmentProfile>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesWithEquipmentProfile(deletedName))
 		{
 			if (recipe.getEquipmentProfile().equalsIgnoreCase(deletedName))
 			{
@@ -17,9 +17,12 @@
 
 package mclachlan.brewday.ui.jfx;
 
+import java.util.concurrent.CompletableFuture;
+import javafx.application.Platform;
 import javafx.scene.control.*;
 import mclachlan.brewday.Settings;
 import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.backends.git.GitBackend;
 import mclachlan.brewday.util.StringUtils;
 import org.tbee.javafx.scene.layout.MigPane;
 
@@ -31,7 +34,10 @@ public class GitBackendPane extends MigPane
 	private final ToggleButton enable;
 	private final TextField remoteUrl;
 	private final TextArea textArea;
-	private final Button commitAndPush, pullAndOverwrite;
+	private final Button commitAndPush, pullAndOverwrite, pullAndMerge;
+
+	/** git commands run on their own thread */
+	private final GitBackend.OutputCollector output;
 
 	private boolean refreshing;
 
@@ -59,12 +65,16 @@ public class GitBackendPane extends MigPane
 		pullAndOverwrite = new Button(StringUtils.getUiString("settings.git.restore.from.remote"));
 		leftPane.add(pullAndOverwrite, "wrap");
 
+		pullAndMerge = new Button(StringUtils.getUiString("settings.git.merge.from.remote"));
+		leftPane.add(pullAndMerge, "wrap");
+
 		MigPane rightPane = new MigPane();
 		rightPane.add(new Label(StringUtils.getUiString("settings.git.command.log")), "wrap");
 
 		textArea = new TextArea();
 		textArea.setEditable(false);
 		textArea.setPrefRowCount(30);
+		output = s -> Platform.runLater(() -> textArea.appendText(s));
 		rightPane.add(textArea, "spany 5, wrap");
 
 		this.add(leftPane);
@@ -76,9 +86,26 @@ public class GitBackendPane extends MigPane
 
 		// ----
 
-		commitAndPush.setOnAction(event -> Database.getInstance().syncToGitBackend(textArea::appendText));
+		commitAndPush.setOnAction(event ->
+			reportFailure(Database.getInstance().syncToGitBackend(output)));
+
+		pullAndOverwrite.setOnAction(event ->
+			reportFailure(Database.getInstance().syncFromGitBackend(output)));
 
-		pullAndOverwrite.setOnAction(event -> Database.getInstance().syncFromGitBackend(textArea::appendText));
+		pullAndMerge.setOnAction(event ->
+		{
+			try
+			{
+				// conflicts are reported to the output
+				reportFailure(Database.getInstance().mergeFromGitBackend(
+					output, Platform::runLater));
+			}
+			catch (Exception e)
+			{
+				output.append(e.getMessage());
+				output.append("\n");
+			}
+		});
 
 		enable.selectedProperty().addListener(observable ->
 		{
@@ -109,7 +136,7 @@ public class GitBackendPane extends MigPane
 							settings.set(Settings.GIT_REMOTE_REPO, remoteUrl.getText());
 						}
 
-						Database.getInstance().enableGitBackend(textArea::appendText);
+						Database.getInstance().enableGitBackend(output);
 
 						settings.set(Settings.GIT_BACKEND_ENABLED, "true");
 						Database.getInstance().saveSettings();
@@ -126,6 +153,7 @@ public class GitBackendPane extends MigPane
 
 					commitAndPush.setDisable(false);
 					pullAndOverwrite.setDisable(false);
+					pullAndMerge.setDisable(false);
 				}
 				else
 				{
@@ -139,13 +167,14 @@ public class GitBackendPane extends MigPane
 
 					if (dialog.getOutput())
 					{
-						Database.getInstance().disableGitBackend(textArea::appendText);
+						Database.getInstance().disableGitBackend(output);
 
 						settings.set(Settings.GIT_BACKEND_ENABLED, "false");
 						Database.getInstance().saveSettings();
 
 						commitAndPush.setDisable(true);
 						pullAndOverwrite.setDisable(true);
+						pullAndMerge.setDisable(true);
 					}
 					else
 					{
@@ -159,6 +188,19 @@ public class GitBackendPane extends MigPane
 		});
 	}
 
+	/*-------------------------------------------------------------------------*/
+	private void reportFailure(CompletableFuture<?> sync)
+	{
+		sync.whenComplete((result, e) ->
+		{
+			if (e != null)
+			{
+				output.append(e.getMessage());
+				output.append("\n");
+			}
+		});
+	}
+
 	/*-------------------------------------------------------------------------*/
 	public void refresh()
 	{
@@ -173,6 +215,7 @@ public class GitBackendPane extends MigPane
 
 		commitAndPush.setDisable(!enabled);
 		pullAndOverwrite.setDisable(!enabled);
+		pullAndMerge.setDisable(!enabled);
 
 		this.refreshing = false;
 	}
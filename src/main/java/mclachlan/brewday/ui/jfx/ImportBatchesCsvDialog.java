@@ -43,6 +43,7 @@ class ImportBatchesCsvDialog extends Dialog<BitSet>
 	private final BitSet output = new BitSet();
 	private BitSet bitset = new BitSet();
 	private Map<Class<?>, Map<String, V2DataObject>> objs;
+	private Map<String, RuntimeException> errors;
 
 	public ImportBatchesCsvDialog() throws Exception
 	{
@@ -154,11 +155,13 @@ class ImportBatchesCsvDialog extends Dialog<BitSet>
 		{
 			try
 			{
-				objs = new BatchesCsvParser().parse(
+				BatchesCsvParser parser = new BatchesCsvParser();
+				objs = parser.parse(
 					files,
 					csvFormat.getSelectionModel().getSelectedItem(),
 					volumeUnit.getSelectionModel().getSelectedItem(),
 					densityUnit.getSelectionModel().getSelectedItem());
+				errors = parser.getErrors();
 				setToImportOptions();
 			}
 			catch (Exception e)
@@ -180,6 +183,12 @@ class ImportBatchesCsvDialog extends Dialog<BitSet>
 		Database db = Database.getInstance();
 		addCheckBoxs(importContent, output, ImportPane.Bit.BATCH_NEW, ImportPane.Bit.BATCH_UDPATE, objs.get(Batch.class), db.getBatches(), "tools.import.imported.batch");
 
+		for (Map.Entry<String, RuntimeException> e : errors.entrySet())
+		{
+			importContent.add(new Label(getUiString("tools.import.csv.recipe.error",
+				e.getKey(), e.getValue().getMessage())), "span, wrap");
+		}
+
 		importContent.add(new Label(), "wrap");
 
 		importContent.add(new Label(getUiString("tools.import.push.ok")), "span, wrap");
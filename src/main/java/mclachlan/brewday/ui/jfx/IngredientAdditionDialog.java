@@ -155,7 +155,7 @@ abstract class IngredientAdditionDialog<T extends IngredientAddition, S extends
 
 			db.getSettings().set(
 				Settings.INGREDIENT_ADDITIONS_FROM_INVENTORY_ONLY, Boolean.toString(newV));
-			db.saveSettings();
+			db.saveSettingsLater();
 		});
 
 		final Button btOk = (Button)this.getDialogPane().lookupButton(okButtonType);
@@ -144,7 +144,7 @@ public class InventoryPane extends V2DataObjectPane<InventoryLineItem>
 
 			if (alert.getResult() == ButtonType.OK)
 			{
-				Database.getInstance().saveAll();
+				Database.getInstance().saveAllLater();
 
 				parent.clearDirty();
 				clearDirty();
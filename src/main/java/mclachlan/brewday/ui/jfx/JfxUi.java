@@ -22,6 +22,7 @@ import java.io.*;
 import java.util.*;
 import java.util.function.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.scene.Group;
 import javafx.scene.Node;
@@ -37,7 +38,9 @@ import mclachlan.brewday.BrewdayException;
 import mclachlan.brewday.Settings;
 import mclachlan.brewday.util.StringUtils;
 import mclachlan.brewday.batch.Batch;
+import mclachlan.brewday.db.BackgroundSaver;
 import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.v2.V2DataObject;
 import mclachlan.brewday.document.DocumentCreator;
 import mclachlan.brewday.ingredients.*;
 import mclachlan.brewday.recipe.Recipe;
@@ -125,6 +128,9 @@ public class JfxUi extends Application implements TrackDirty
 	private Map<TreeItem<Label>, String> cardsMap;
 
 	private final Set<Object> dirty = new HashSet<>();
+
+	/** silos with database events since the cards were last refreshed */
+	private final Set<String> changedSilos = new HashSet<>();
 	private Scene mainScene;
 	private static String theme;
 
@@ -156,8 +162,31 @@ public class JfxUi extends Application implements TrackDirty
 
 		Brewday.getInstance().getLog().log(Log.DEBUG, "load db");
 		Database.getInstance().loadAll();
+		Database.getInstance().addListener(event -> changedSilos.add(event.getSilo()));
 		theme = Database.getInstance().getSettings().get(Settings.UI_THEME);
 
+		long saveDelay = Long.parseLong(Brewday.getInstance().getAppConfig()
+			.getProperty(Brewday.BREWDAY_DB_SAVE_DELAY, "-1"));
+		if (saveDelay >= 0)
+		{
+			Brewday.getInstance().getLog().log(Log.DEBUG, "init background saver");
+			Database.getInstance().setBackgroundSaver(
+				new BackgroundSaver(Database.getInstance(), Platform::runLater, saveDelay,
+					new BackgroundSaver.Callback()
+					{
+						@Override
+						public void saved()
+						{
+						}
+
+						@Override
+						public void failed(Exception e)
+						{
+							showError(e);
+						}
+					}));
+		}
+
 		Brewday.getInstance().getLog().log(Log.DEBUG, "init primary stage");
 		primaryStage.setTitle(StringUtils.getUiString("ui.about.msg", UiUtils.getVersion()));
 		primaryStage.getIcons().add(Icons.brewdayIcon);
@@ -188,27 +217,46 @@ public class JfxUi extends Application implements TrackDirty
 		primaryStage.setMaximized(true);
 		primaryStage.setScene(mainScene);
 
-		Thread.currentThread().setUncaughtExceptionHandler((thread, exception) ->
+		Thread.currentThread().setUncaughtExceptionHandler(
+			(thread, exception) -> showError(exception));
+
+		Brewday.getInstance().getLog().log(Log.DEBUG, "show primary stage");
+		primaryStage.show();
+	}
+
+	/*-------------------------------------------------------------------------*/
+	@Override
+	public void stop()
+	{
+		BackgroundSaver saver = Database.getInstance().getBackgroundSaver();
+		if (saver != null)
 		{
-			Brewday.getInstance().getLog().log(Log.LOUD, exception);
-			String message = exception.getMessage();
+			// write any changes that are still waiting to be saved
+			Brewday.getInstance().getLog().log(Log.DEBUG, "flush background saver");
+			saver.shutdown();
+		}
 
-			if (message == null || message.length() == 0)
-			{
-				message = "Fatal: " + exception.getClass();
-			}
+		Database.getInstance().flushGitBackend();
+	}
 
-			StringWriter sw = new StringWriter();
-			exception.printStackTrace(new PrintWriter(sw));
+	/*-------------------------------------------------------------------------*/
+	private static void showError(Throwable exception)
+	{
+		Brewday.getInstance().getLog().log(Log.LOUD, exception);
+		String message = exception.getMessage();
 
-			String stackTrace = sw.toString();
+		if (message == null || message.length() == 0)
+		{
+			message = "Fatal: " + exception.getClass();
+		}
 
-			ErrorDialog ed = new ErrorDialog(message, stackTrace);
-			ed.showAndWait();
-		});
+		StringWriter sw = new StringWriter();
+		exception.printStackTrace(new PrintWriter(sw));
 
-		Brewday.getInstance().getLog().log(Log.DEBUG, "show primary stage");
-		primaryStage.show();
+		String stackTrace = sw.toString();
+
+		ErrorDialog ed = new ErrorDialog(message, stackTrace);
+		ed.showAndWait();
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -421,33 +469,112 @@ public class JfxUi extends Application implements TrackDirty
 	}
 
 	private void refreshCards()
+	{
+		refreshCards(null);
+	}
+
+	/**
+	 * @param silos
+	 * 	the silos that have changed, to refresh only the cards that show
+	 * 	them, or null to refresh every card
+	 */
+	private void refreshCards(Set<String> silos)
 	{
 		detectDirty = false;
+		changedSilos.clear();
 
 		Database db = Database.getInstance();
-		batchesPane.refresh(db);
-		recipePane.refresh(db);
-		refreshRecipeTags();
-		equipmentProfilePane.refresh(db);
-		processTemplatePane.refresh(db);
+		if (shows(silos, Database.BATCHES_JSON, Database.RECIPES_JSON))
+		{
+			batchesPane.refresh(db);
+		}
+		if (shows(silos, Database.RECIPES_JSON, Database.EQUIPMENTPROFILES_JSON,
+			Database.STYLES_JSON, Database.FERMENTABLES_JSON, Database.HOPS_JSON,
+			Database.YEASTS_JSON, Database.MISCS_JSON, Database.WATERS_JSON))
+		{
+			recipePane.refresh(db);
+			refreshRecipeTags();
+		}
+		if (shows(silos, Database.EQUIPMENTPROFILES_JSON))
+		{
+			equipmentProfilePane.refresh(db);
+		}
+		if (shows(silos, Database.PROCESSTEMPLATES_JSON, Database.EQUIPMENTPROFILES_JSON))
+		{
+			processTemplatePane.refresh(db);
+		}
 
-		inventoryPane.refresh(db);
+		if (shows(silos, Database.INVENTORY_JSON, Database.FERMENTABLES_JSON,
+			Database.HOPS_JSON, Database.YEASTS_JSON, Database.MISCS_JSON,
+			Database.WATERS_JSON))
+		{
+			inventoryPane.refresh(db);
+		}
 
-		refWaterPane.refresh(db);
-		waterParametersPane.refresh(db);
-		refFermentablePane.refresh(db);
-		refHopPane.refresh(db);
-		refYeastPane.refresh(db);
-		refMiscPane.refresh(db);
-		refStylePane.refresh(db);
+		if (shows(silos, Database.WATERS_JSON))
+		{
+			refWaterPane.refresh(db);
+		}
+		if (shows(silos, Database.WATER_PARAMETERS_JSON))
+		{
+			waterParametersPane.refresh(db);
+		}
+		if (shows(silos, Database.FERMENTABLES_JSON))
+		{
+			refFermentablePane.refresh(db);
+		}
+		if (shows(silos, Database.HOPS_JSON))
+		{
+			refHopPane.refresh(db);
+		}
+		if (shows(silos, Database.YEASTS_JSON))
+		{
+			refYeastPane.refresh(db);
+		}
+		if (shows(silos, Database.MISCS_JSON))
+		{
+			refMiscPane.refresh(db);
+		}
+		if (shows(silos, Database.STYLES_JSON))
+		{
+			refStylePane.refresh(db);
+		}
 
-		uiSettingsPane.refresh(db);
+		if (shows(silos, Database.SETTINGS_JSON))
+		{
+			uiSettingsPane.refresh(db);
+		}
 
-		waterBuilderPane.refresh(db);
+		if (shows(silos, Database.WATERS_JSON, Database.WATER_PARAMETERS_JSON,
+			Database.MISCS_JSON))
+		{
+			waterBuilderPane.refresh(db);
+		}
 
 		detectDirty = true;
 	}
 
+	/**
+	 * @return
+	 * 	true if any of the given silo files is among the changed silos
+	 */
+	private static boolean shows(Set<String> silos, String... fileNames)
+	{
+		if (silos == null)
+		{
+			return true;
+		}
+
+		for (String fileName : fileNames)
+		{
+			if (silos.contains(Database.getSiloName(fileName)))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private TreeView<?> getNavMenuTreeView()
 	{
 		cardsMap = new HashMap<>();
@@ -644,6 +771,12 @@ public class JfxUi extends Application implements TrackDirty
 
 			for (Object obj : objs)
 			{
+				if (obj instanceof V2DataObject)
+				{
+					// edited in place
+					Database.getInstance().objectChanged((V2DataObject)obj);
+				}
+
 				if (!this.isDirty(obj))
 				{
 					anyChanged = true;
@@ -709,7 +842,8 @@ public class JfxUi extends Application implements TrackDirty
 
 			if (anyChanged)
 			{
-				refreshCards();
+				// only the cards showing what changed, or all if that's not known
+				refreshCards(changedSilos.isEmpty() ? null : new HashSet<>(changedSilos));
 			}
 		}
 	}
@@ -821,7 +955,7 @@ public class JfxUi extends Application implements TrackDirty
 					if (parent != null)
 					{
 						settings.set(Settings.LAST_EXPORT_DIRECTORY, parent);
-						Database.getInstance().saveSettings();
+						Database.getInstance().saveSettingsLater();
 					}
 
 					DocumentCreator dc = DocumentCreator.getInstance();
@@ -20,6 +20,7 @@ package mclachlan.brewday.ui.jfx;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import mclachlan.brewday.util.StringUtils;
+import mclachlan.brewday.db.Database;
 import mclachlan.brewday.db.v2.V2DataObject;
 import mclachlan.brewday.math.DensityUnit;
 import mclachlan.brewday.math.Quantity;
@@ -165,19 +166,26 @@ class RecipeEditor extends MigPane implements TrackDirty
 	{
 		for (Object dirty : objs)
 		{
+			if (dirty != null)
+			{
+				// publish every edit, not just the first one to each part of
+				// the recipe, so that the indexes and runs see it before a save
+				Database.getInstance().objectChanged(recipe);
+			}
+
 			if (dirty != null && !JfxUi.getInstance().isDirty(dirty))
 			{
 				if (dirty instanceof ProcessStep)
 				{
-					// need to run this first to set up the recipe internal state before refreshing
-					rerunRecipe(recipe);
-
 					ProcessStep step = (ProcessStep)dirty;
 
+					// need to run this first to set up the recipe internal state before refreshing
+					rerunRecipe(recipe, step);
+
 					recipeTreeView.setDirty(step);
 					parent.setDirty(recipe, dirty);
 
-					rerunRecipe(recipe);
+					rerunRecipe(recipe, step);
 
 					Node visible = stepCards.getVisible();
 					if (visible instanceof ProcessStepPane && ((ProcessStepPane<?>)visible).getStep()==step)
@@ -187,14 +195,15 @@ class RecipeEditor extends MigPane implements TrackDirty
 				}
 				else if (dirty instanceof IngredientAddition)
 				{
-					rerunRecipe(recipe);
-
 					IngredientAddition addition = (IngredientAddition)dirty;
+					ProcessStep step = recipe.getStepOfAddition(addition);
+
+					rerunRecipe(recipe, step);
 
 					recipeTreeView.setDirty(addition);
 					parent.setDirty(recipe, dirty);
 
-					rerunRecipe(recipe);
+					rerunRecipe(recipe, step);
 
 					Node visible = stepCards.getVisible();
 					if (visible instanceof IngredientAdditionPane)
@@ -225,6 +234,17 @@ class RecipeEditor extends MigPane implements TrackDirty
 
 	/*-------------------------------------------------------------------------*/
 	protected void rerunRecipe(Recipe recipe)
+	{
+		rerunRecipe(recipe, null);
+	}
+
+	/*-------------------------------------------------------------------------*/
+	/**
+	 * @param changed
+	 * 	the step that was edited, only it and the steps downstream of it are
+	 * 	re-run. Null to re-run the whole recipe.
+	 */
+	protected void rerunRecipe(Recipe recipe, ProcessStep changed)
 	{
 		if (processTemplateMode)
 		{
@@ -232,7 +252,7 @@ class RecipeEditor extends MigPane implements TrackDirty
 		}
 		else
 		{
-			recipe.run();
+			recipe.run(changed);
 		}
 
 		refreshLog(recipe);
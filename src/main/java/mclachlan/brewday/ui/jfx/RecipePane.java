@@ -26,6 +26,7 @@ import mclachlan.brewday.db.Database;
 import mclachlan.brewday.math.Quantity;
 import mclachlan.brewday.process.Volume;
 import mclachlan.brewday.recipe.Recipe;
+import mclachlan.brewday.recipe.RecipeEvaluator;
 
 /**
  *
@@ -96,14 +97,35 @@ public class RecipePane extends V2DataObjectPane<Recipe>
 		return new String[]{"Name", "Est OG", "Est FG", "Est ABV", "IBU (Tinseth)", "Color"};
 	}
 
+	/**
+	 * Runs all the recipes against one snapshot, rather than taking one per
+	 * recipe as getting the columns of each in turn would.
+	 */
 	@Override
-	protected String[] getCsvColumns(Recipe recipe)
+	protected List<String[]> getCsvRows(List<Recipe> recipes)
 	{
-		List<Volume> beers = null;
+		List<String> names = new ArrayList<>();
+		for (Recipe recipe : recipes)
+		{
+			names.add(recipe.getName());
+		}
+
+		Map<String, RecipeEvaluator.Result> results = new RecipeEvaluator().evaluate(names);
+
+		List<String[]> result = new ArrayList<>();
+		for (Recipe recipe : recipes)
+		{
+			result.add(getCsvColumns(recipe, results.get(recipe.getName())));
+		}
+		return result;
+	}
+
+	private String[] getCsvColumns(Recipe recipe, RecipeEvaluator.Result evaluated)
+	{
+		List<Volume> beers;
 		try
 		{
-			recipe.run();
-			beers = recipe.getBeers();
+			beers = evaluated.getBeers();
 		}
 		catch (Exception e)
 		{
@@ -158,7 +180,7 @@ public class RecipePane extends V2DataObjectPane<Recipe>
 		Database db = Database.getInstance();
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesOfRecipe(oldName))
 		{
 			if (batch.getRecipe().equalsIgnoreCase(oldName))
 			{
@@ -177,7 +199,7 @@ public class RecipePane extends V2DataObjectPane<Recipe>
 		Database db = Database.getInstance();
 
 		// batches
-		for (Batch batch : new ArrayList<>(db.getBatches().values()))
+		for (Batch batch : db.getBatchesOfRecipe(deletedName))
 		{
 			if (batch.getRecipe().equalsIgnoreCase(deletedName))
 			{
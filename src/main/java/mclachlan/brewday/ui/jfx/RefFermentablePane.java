@@ -189,7 +189,7 @@ public class RefFermentablePane extends V2DataObjectPane<Fermentable>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.FERMENTABLES, oldName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -212,7 +212,15 @@ public class RefFermentablePane extends V2DataObjectPane<Fermentable>
 		}
 
 		// inventory
-		// todo
+		InventoryLineItem item = db.getInventory().remove(
+			InventoryLineItem.getUniqueId(oldName, IngredientAddition.Type.FERMENTABLES));
+		if (item != null)
+		{
+			item.setIngredient(newName);
+			db.getInventory().put(item.getName(), item);
+
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -222,7 +230,7 @@ public class RefFermentablePane extends V2DataObjectPane<Fermentable>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.FERMENTABLES, deletedName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -246,7 +254,7 @@ public class RefFermentablePane extends V2DataObjectPane<Fermentable>
 		}
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesUsing(IngredientAddition.Type.FERMENTABLES, deletedName))
 		{
 			for (Volume v : batch.getActualVolumes().getVolumes().values())
 			{
@@ -269,15 +277,9 @@ public class RefFermentablePane extends V2DataObjectPane<Fermentable>
 
 
 		// inventory
-		for (InventoryLineItem ili : new ArrayList<>(db.getInventory().values()))
+		if (db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.FERMENTABLES)) != null)
 		{
-			if (ili.getType() == IngredientAddition.Type.FERMENTABLES &&
-				ili.getIngredient().equals(deletedName))
-			{
-				db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.FERMENTABLES));
-
-				JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
-			}
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
 		}
 	}
 
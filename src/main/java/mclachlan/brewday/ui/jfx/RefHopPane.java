@@ -170,7 +170,7 @@ public class RefHopPane extends V2DataObjectPane<Hop>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.HOPS, oldName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -193,7 +193,15 @@ public class RefHopPane extends V2DataObjectPane<Hop>
 		}
 
 		// inventory
-		// todo
+		InventoryLineItem item = db.getInventory().remove(
+			InventoryLineItem.getUniqueId(oldName, IngredientAddition.Type.HOPS));
+		if (item != null)
+		{
+			item.setIngredient(newName);
+			db.getInventory().put(item.getName(), item);
+
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -203,7 +211,7 @@ public class RefHopPane extends V2DataObjectPane<Hop>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.HOPS, deletedName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -227,7 +235,7 @@ public class RefHopPane extends V2DataObjectPane<Hop>
 		}
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesUsing(IngredientAddition.Type.HOPS, deletedName))
 		{
 			for (Volume v : batch.getActualVolumes().getVolumes().values())
 			{
@@ -249,15 +257,9 @@ public class RefHopPane extends V2DataObjectPane<Hop>
 		}
 
 		// inventory
-		for (InventoryLineItem ili : new ArrayList<>(db.getInventory().values()))
+		if (db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.HOPS)) != null)
 		{
-			if (ili.getType() == IngredientAddition.Type.HOPS &&
-			 ili.getIngredient().equals(deletedName))
-			{
-				db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.HOPS));
-
-				JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
-			}
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
 		}
 
 	}
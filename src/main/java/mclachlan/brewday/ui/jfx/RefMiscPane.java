@@ -151,7 +151,7 @@ public class RefMiscPane extends V2DataObjectPane<Misc>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.MISC, oldName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -174,7 +174,15 @@ public class RefMiscPane extends V2DataObjectPane<Misc>
 		}
 
 		// inventory
-		// todo
+		InventoryLineItem item = db.getInventory().remove(
+			InventoryLineItem.getUniqueId(oldName, IngredientAddition.Type.MISC));
+		if (item != null)
+		{
+			item.setIngredient(newName);
+			db.getInventory().put(item.getName(), item);
+
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -184,7 +192,7 @@ public class RefMiscPane extends V2DataObjectPane<Misc>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.MISC, deletedName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -208,7 +216,7 @@ public class RefMiscPane extends V2DataObjectPane<Misc>
 		}
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesUsing(IngredientAddition.Type.MISC, deletedName))
 		{
 			for (Volume v : batch.getActualVolumes().getVolumes().values())
 			{
@@ -231,15 +239,9 @@ public class RefMiscPane extends V2DataObjectPane<Misc>
 
 
 		// inventory
-		for (InventoryLineItem ili : new ArrayList<>(db.getInventory().values()))
+		if (db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.MISC)) != null)
 		{
-			if (ili.getType() == IngredientAddition.Type.MISC &&
-				ili.getIngredient().equals(deletedName))
-			{
-				db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.MISC));
-
-				JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
-			}
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
 		}
 
 	}
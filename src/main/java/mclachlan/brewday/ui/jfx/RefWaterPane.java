@@ -142,7 +142,7 @@ public class RefWaterPane extends V2DataObjectPane<Water>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.WATER, oldName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -165,7 +165,15 @@ public class RefWaterPane extends V2DataObjectPane<Water>
 		}
 
 		// inventory
-		// todo
+		InventoryLineItem item = db.getInventory().remove(
+			InventoryLineItem.getUniqueId(oldName, IngredientAddition.Type.WATER));
+		if (item != null)
+		{
+			item.setIngredient(newName);
+			db.getInventory().put(item.getName(), item);
+
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -175,7 +183,7 @@ public class RefWaterPane extends V2DataObjectPane<Water>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.WATER, deletedName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -198,7 +206,7 @@ public class RefWaterPane extends V2DataObjectPane<Water>
 		}
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesUsing(IngredientAddition.Type.WATER, deletedName))
 		{
 			for (Volume v : batch.getActualVolumes().getVolumes().values())
 			{
@@ -220,15 +228,9 @@ public class RefWaterPane extends V2DataObjectPane<Water>
 		}
 
 		// inventory
-		for (InventoryLineItem ili : new ArrayList<>(db.getInventory().values()))
+		if (db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.WATER)) != null)
 		{
-			if (ili.getType() == IngredientAddition.Type.WATER &&
-				ili.getIngredient().equals(deletedName))
-			{
-				db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.WATER));
-
-				JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
-			}
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
 		}
 	}
 
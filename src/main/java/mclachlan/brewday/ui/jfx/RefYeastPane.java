@@ -158,7 +158,7 @@ public class RefYeastPane extends V2DataObjectPane<Yeast>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.YEAST, oldName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -181,7 +181,15 @@ public class RefYeastPane extends V2DataObjectPane<Yeast>
 		}
 
 		// inventory
-		// todo
+		InventoryLineItem item = db.getInventory().remove(
+			InventoryLineItem.getUniqueId(oldName, IngredientAddition.Type.YEAST));
+		if (item != null)
+		{
+			item.setIngredient(newName);
+			db.getInventory().put(item.getName(), item);
+
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
+		}
 	}
 
 	/*-------------------------------------------------------------------------*/
@@ -191,7 +199,7 @@ public class RefYeastPane extends V2DataObjectPane<Yeast>
 		Database db = Database.getInstance();
 
 		// recipes
-		for (Recipe recipe : db.getRecipes().values())
+		for (Recipe recipe : db.getRecipesUsing(IngredientAddition.Type.YEAST, deletedName))
 		{
 			for (ProcessStep step : recipe.getSteps())
 			{
@@ -215,7 +223,7 @@ public class RefYeastPane extends V2DataObjectPane<Yeast>
 		}
 
 		// batches
-		for (Batch batch : db.getBatches().values())
+		for (Batch batch : db.getBatchesUsing(IngredientAddition.Type.YEAST, deletedName))
 		{
 			for (Volume v : batch.getActualVolumes().getVolumes().values())
 			{
@@ -237,15 +245,9 @@ public class RefYeastPane extends V2DataObjectPane<Yeast>
 		}
 
 		// inventory
-		for (InventoryLineItem ili : new ArrayList<>(db.getInventory().values()))
+		if (db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.YEAST)) != null)
 		{
-			if (ili.getType() == IngredientAddition.Type.YEAST &&
-				ili.getIngredient().equals(deletedName))
-			{
-				db.getInventory().remove(InventoryLineItem.getUniqueId(deletedName, IngredientAddition.Type.YEAST));
-
-				JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
-			}
+			JfxUi.getInstance().setDirty(JfxUi.INVENTORY);
 		}
 
 	}
@@ -66,7 +66,7 @@ public class UiSettingsPane extends MigPane
 	private void setTheme(String theme)
 	{
 		Database.getInstance().getSettings().set(Settings.UI_THEME, theme);
-		Database.getInstance().saveSettings();
+		Database.getInstance().saveSettingsLater();
 	}
 
 	public void refresh(Database db)
@@ -255,7 +255,7 @@ public abstract class V2DataObjectPane<T extends V2DataObject> extends MigPane i
 
 			if (alert.getResult() == ButtonType.OK)
 			{
-				Database.getInstance().saveAll();
+				Database.getInstance().saveAllLater();
 
 				parent.clearDirty();
 				clearDirty();
@@ -331,9 +331,7 @@ public abstract class V2DataObjectPane<T extends V2DataObject> extends MigPane i
 					// deep link rename
 					cascadeRename(item.getName(), result);
 
-					tableModel.remove(item);
-					item.setName(result);
-					tableModel.add(item);
+					tableModel.rename(item, result);
 
 					setDirty(item);
 				}
@@ -402,16 +400,16 @@ public abstract class V2DataObjectPane<T extends V2DataObject> extends MigPane i
 			if (parent != null)
 			{
 				settings.set(Settings.LAST_EXPORT_DIRECTORY, parent);
-				Database.getInstance().saveSettings();
+				Database.getInstance().saveSettingsLater();
 			}
 
 			try (PrintWriter pw = new PrintWriter(file))
 			{
 				pw.println(convertToCSV(getCsvHeaders()));
 
-				for (T t : selectedItems)
+				for (String[] row : getCsvRows(selectedItems))
 				{
-					pw.println(convertToCSV(getCsvColumns(t)));
+					pw.println(convertToCSV(row));
 				}
 			}
 			catch (Exception x)
@@ -433,6 +431,21 @@ public abstract class V2DataObjectPane<T extends V2DataObject> extends MigPane i
 		return result.toArray(String[]::new);
 	}
 
+	/**
+	 * @return
+	 * 	One row of CSV columns per item, in the order given. Override to work
+	 * 	out the rows together rather than one at a time.
+	 */
+	protected List<String[]> getCsvRows(List<T> items)
+	{
+		List<String[]> result = new ArrayList<>();
+		for (T t : items)
+		{
+			result.add(getCsvColumns(t));
+		}
+		return result;
+	}
+
 	protected String[] getCsvColumns(T t)
 	{
 		List<String> result = new ArrayList<>();
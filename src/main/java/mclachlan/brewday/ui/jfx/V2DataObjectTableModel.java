@@ -26,6 +26,7 @@ import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import mclachlan.brewday.db.DatabaseMap;
 import mclachlan.brewday.db.v2.V2DataObject;
 
 /**
@@ -81,6 +82,23 @@ class V2DataObjectTableModel<T extends V2DataObject>
 		unfilteredList.remove(t);
 	}
 
+	public void rename(T t, String newName)
+	{
+		if (this.map instanceof DatabaseMap)
+		{
+			((DatabaseMap<T>)this.map).rename(t.getName(), newName);
+		}
+		else
+		{
+			this.map.remove(t.getName());
+			t.setName(newName);
+			this.map.put(newName, t);
+		}
+		unfilteredList.remove(t);
+		unfilteredList.add(t);
+		tableView.sort();
+	}
+
 	public void filter(Predicate<T> predicate)
 	{
 		filteredList.setPredicate(predicate);
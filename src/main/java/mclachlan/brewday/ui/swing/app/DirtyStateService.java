@@ -4,6 +4,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import mclachlan.brewday.db.Database;
+import mclachlan.brewday.db.v2.V2DataObject;
 
 public class DirtyStateService
 {
@@ -15,6 +17,11 @@ public class DirtyStateService
 		boolean changed = false;
 		for (Object obj : objs)
 		{
+			if (obj instanceof V2DataObject)
+			{
+				// edited in place
+				Database.getInstance().objectChanged((V2DataObject)obj);
+			}
 			if (obj != null)
 			{
 				changed |= dirty.add(obj);